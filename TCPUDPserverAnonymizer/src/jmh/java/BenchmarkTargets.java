@@ -0,0 +1,219 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * What the benchmarks in package {@code benchmarks} measure, handed to them as JDK types.
+ * JMH does not accept benchmarks in the default package and a named package can not refer to the classes
+ * of the default package, so the benchmarks look these methods up once by reflection while setting up
+ * and only call the returned functions while measuring.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Chapter 7. Packages and Modules" (N/A) [Official Documentation]. The Java Language Specification, Java SE 21 Edition.
+ * </ul>
+ */
+public final class BenchmarkTargets {
+    /**
+     * Not meant to be instantiated
+     */
+    private BenchmarkTargets() {
+    }
+
+    /**
+     * Anonymizes Strings, the way the TCP server answers a line
+     *
+     * @param keywords The keywords
+     * @return a function giving the {@link AnonymizationResult} of a String
+     */
+    public static Function<String, Object> anonymizer(List<String> keywords) {
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+        return matcher::anonymize;
+    }
+
+    /**
+     * Anonymizes Strings on every core of the common pool, see {@link ParallelAnonymizer}
+     *
+     * @param keywords The keywords
+     * @return a function giving the {@link AnonymizationResult} of a String
+     */
+    public static Function<String, Object> parallelAnonymizer(List<String> keywords) {
+        ParallelAnonymizer anonymizer = new ParallelAnonymizer(KeywordMatcher.compile(keywords));
+        return anonymizer::anonymize;
+    }
+
+    /**
+     * Counts the occurrences of the keywords without masking them, the scan alone
+     *
+     * @param keywords The keywords
+     * @return a function giving the number of occurrences in a String
+     */
+    public static ToIntFunction<String> counter(List<String> keywords) {
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+        return text -> {
+            Counter counter = new Counter();
+            matcher.scan(text, 0, text.length(), counter);
+            return counter.count;
+        };
+    }
+
+    /**
+     * Anonymizes CharBuffers in place, from their position to their limit
+     *
+     * @param keywords The keywords
+     * @return a function giving the number of occurrences masked
+     */
+    public static ToIntFunction<CharBuffer> charBufferAnonymizer(List<String> keywords) {
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+        return text -> matcher.anonymize(text, null);
+    }
+
+    /**
+     * Anonymizes UTF-8 ByteBuffers in place, the way the NIO and UDP servers answer
+     *
+     * @param keywords The keywords
+     * @return a function giving the number of occurrences masked, throwing UncheckedIOException for malformed input
+     */
+    public static ToIntFunction<ByteBuffer> utf8Anonymizer(List<String> keywords) {
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords);
+        return utf8 -> {
+            try {
+                return matcher.anonymize(utf8, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Anonymizes Strings through a {@link StreamingAnonymizer}, discarding the output
+     *
+     * @param keywords The keywords
+     * @return a function giving the number of occurrences in a String
+     */
+    public static ToLongFunction<String> streamingAnonymizer(List<String> keywords) {
+        StreamingAnonymizer anonymizer = new StreamingAnonymizer(KeywordMatcher.compile(keywords));
+        return text -> {
+            try {
+                return anonymizer.anonymize(new StringReader(text), Writer.nullWriter());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Starts a {@link Server_java_TCP} accepting connections on its own thread
+     *
+     * @param port The port of the server
+     * @return what shuts the server down
+     * @throws IOException if the port can not be bound
+     */
+    public static AutoCloseable startTcpServer(int port) throws IOException {
+        Server_java_TCP server = new Server_java_TCP(port);
+        Thread.ofPlatform().daemon().name("tcp-server").start(server::waitConnections);
+        return server::shutdown;
+    }
+
+    /**
+     * Starts a {@link Server_java_TCP_NIO} with one reactor per processor
+     *
+     * @param port The port of the server
+     * @return what shuts the server down
+     * @throws IOException if the port can not be bound
+     */
+    public static AutoCloseable startNioServer(int port) throws IOException {
+        Server_java_TCP_NIO server = new Server_java_TCP_NIO(port, Runtime.getRuntime().availableProcessors());
+        Thread.ofPlatform().daemon().name("tcp-nio-server").start(server::waitConnections);
+        return server::shutdown;
+    }
+
+    /**
+     * Starts a {@link Server_java_UDP} receiving on its own thread.
+     * The UDP server has no way to be stopped, its thread is a daemon so it ends with the benchmark's JVM
+     *
+     * @param port The port of the server
+     * @return what shuts the server down, nothing here
+     */
+    public static AutoCloseable startUdpServer(int port) {
+        Server_java_UDP server = new Server_java_UDP(port);
+        Thread.ofPlatform().daemon().name("udp-server").start(server::receiveData);
+        return () -> {
+        };
+    }
+
+    /**
+     * Opens the channel a benchmark thread sends its UDP requests from
+     *
+     * @return a {@link UdpChannel}, closed when the benchmark ends
+     * @throws IOException if the channel can not be opened
+     */
+    public static Closeable openUdpChannel() throws IOException {
+        return UdpChannel.open();
+    }
+
+    /**
+     * Sends requests with the windowed UDP protocol ({@link SlidingWindowSession}) and waits for their answers
+     *
+     * @param server The address of the server
+     * @return a function sending a request from a channel opened by {@link #openUdpChannel()} and giving the answer,
+     * throwing UncheckedIOException when it fails
+     */
+    public static BiFunction<Closeable, byte[], byte[]> windowedUdpExchange(InetSocketAddress server) {
+        return (channel, request) -> {
+            SlidingWindowSession session = new SlidingWindowSession((UdpChannel) channel, server, UdpFrame.MAX_PAYLOAD_SIZE);
+            try {
+                session.send(request);
+                return session.receive();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    /**
+     * Takes requests from a {@link RateLimiter}, the way the servers do before admitting every request
+     *
+     * @param requestsPerSecond The requests per second of every peer (and 1 KiB per request), 0 for no limit
+     * @param peers             The number of peers
+     * @return a function taking a request of 1 KiB from a peer, given by an index wrapped around the number of peers,
+     * and giving how long the peer should wait, 0 if the request was taken
+     * @throws UnknownHostException never, the addresses are built from bytes
+     */
+    public static IntToLongFunction rateLimiter(long requestsPerSecond, int peers) throws UnknownHostException {
+        RateLimiter limiter = new RateLimiter(new RateLimiter.Limits(requestsPerSecond, requestsPerSecond * 1024), Map.of(), 1000);
+        InetAddress[] addresses = new InetAddress[peers];
+        for (int i = 0; i < peers; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+        }
+        return peer -> limiter.tryAcquire(addresses[peer % peers], 1024);
+    }
+
+    /**
+     * Counts the occurrences reported by a scan
+     */
+    private static final class Counter implements KeywordMatcher.MatchSink {
+        /**
+         * The number of occurrences reported
+         */
+        private int count;
+
+        @Override
+        public void onMatch(int keyword, int start, int end) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What each way of anonymizing allocates: a new String (the TCP server), in place in a CharBuffer,
+ * in place in a UTF-8 ByteBuffer (the NIO and UDP servers) and streamed (the TCP stream mode).
+ * Meant to be run with the GC profiler ({@code -prof gc}, as {@link BenchmarkSuite} does), whose
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per anonymized text.
+ * The in place benchmarks first copy the original text over the buffer, which allocates nothing.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples: JMHSample_35_Profilers" (1.37) Type: source code
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    /**
+     * The length of the text, in chars
+     */
+    @Param({"10000", "1000000"})
+    public int size;
+    /**
+     * The characters of the text and keywords: ascii or unicode
+     */
+    @Param({"ascii", "unicode"})
+    public String content;
+
+    /**
+     * The text being anonymized
+     */
+    private String text;
+    /**
+     * The text, never masked
+     */
+    private char[] chars;
+    /**
+     * The text in UTF-8, never masked
+     */
+    private byte[] utf8;
+    /**
+     * Receives a copy of the text to be masked in place
+     */
+    private CharBuffer charBuffer;
+    /**
+     * Receives a copy of the UTF-8 text to be masked in place
+     */
+    private ByteBuffer byteBuffer;
+    /**
+     * Anonymizes into a new String
+     */
+    private Function<String, Object> anonymizer;
+    /**
+     * Anonymizes a CharBuffer in place
+     */
+    private ToIntFunction<CharBuffer> charBufferAnonymizer;
+    /**
+     * Anonymizes a UTF-8 ByteBuffer in place
+     */
+    private ToIntFunction<ByteBuffer> utf8Anonymizer;
+    /**
+     * Streams the text
+     */
+    private ToLongFunction<String> streamingAnonymizer;
+
+    /**
+     * Generates the text, ten occurrences of four keywords per thousand chars, and compiles the keywords
+     */
+    @Setup
+    public void setUp() {
+        boolean unicode = content.equals("unicode");
+        List<String> keywords = Corpus.keywords(4, 8, unicode);
+        text = Corpus.text(size, keywords, 10, unicode);
+        chars = text.toCharArray();
+        utf8 = text.getBytes(StandardCharsets.UTF_8);
+        charBuffer = CharBuffer.allocate(chars.length);
+        byteBuffer = ByteBuffer.allocate(utf8.length);
+        anonymizer = Targets.anonymizer(keywords);
+        charBufferAnonymizer = Targets.charBufferAnonymizer(keywords);
+        utf8Anonymizer = Targets.utf8Anonymizer(keywords);
+        streamingAnonymizer = Targets.streamingAnonymizer(keywords);
+    }
+
+    /**
+     * @return the anonymized text and its hit counts
+     */
+    @Benchmark
+    public Object string() {
+        return anonymizer.apply(text);
+    }
+
+    /**
+     * @return the number of occurrences
+     */
+    @Benchmark
+    public int charBufferInPlace() {
+        charBuffer.clear().put(chars).flip();
+        return charBufferAnonymizer.applyAsInt(charBuffer);
+    }
+
+    /**
+     * @return the number of occurrences
+     */
+    @Benchmark
+    public int utf8InPlace() {
+        byteBuffer.clear().put(utf8).flip();
+        return utf8Anonymizer.applyAsInt(byteBuffer);
+    }
+
+    /**
+     * @return the number of occurrences
+     */
+    @Benchmark
+    public long streaming() {
+        return streamingAnonymizer.applyAsLong(text);
+    }
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmark groups and writes the results of each one as JSON, to be kept and compared over time:
+ * <ul>
+ * <li>text: {@link TextBenchmark}
+ * <li>transport: {@link TransportBenchmark} and {@link PipelineBenchmark} with 1, 4 and 16 clients
+ * <li>allocation: {@link AllocationBenchmark} with the GC profiler
+ * <li>limits: {@link RateLimiterBenchmark} with 1 and 4 threads
+ * </ul>
+ * {@code java -cp target/benchmarks.jar benchmarks.BenchmarkSuite [group...] } runs the given groups (all of them by default)
+ * and writes {@code target/jmh/<group>.json}. Single benchmarks are run with the JMH launcher,
+ * {@code java -jar target/benchmarks.jar}, as usual.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples: JMHSample_01_HelloWorld" (1.37) Type: source code
+ * </ul>
+ */
+public final class BenchmarkSuite {
+    /**
+     * The groups run when none is given
+     */
+    private static final List<String> GROUPS = List.of("text", "transport", "allocation", "limits");
+    /**
+     * The client concurrencies of the transport group
+     */
+    private static final int[] CLIENTS = {1, 4, 16};
+    /**
+     * Where the results are written
+     */
+    private static final File RESULTS_DIRECTORY = new File("target/jmh");
+
+    /**
+     * Not meant to be instantiated
+     */
+    private BenchmarkSuite() {
+    }
+
+    /**
+     * Runs the groups given, or all of them
+     *
+     * @param args The names of the groups: text, transport, allocation or limits
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        List<String> groups = args.length == 0 ? GROUPS : List.of(args);
+        for (String group : groups) {
+            if (!GROUPS.contains(group)) {
+                System.err.println("Unknown benchmark group: " + group + ", expected one of " + GROUPS);
+                System.exit(1);
+            }
+        }
+        if (!RESULTS_DIRECTORY.isDirectory() && !RESULTS_DIRECTORY.mkdirs()) {
+            System.err.println("Could not create " + RESULTS_DIRECTORY);
+            System.exit(1);
+        }
+        for (String group : groups) {
+            Collection<RunResult> results = switch (group) {
+                case "text" -> run(options(TextBenchmark.class));
+                case "transport" -> {
+                    List<RunResult> all = new ArrayList<>();
+                    for (int clients : CLIENTS) {
+                        all.addAll(run(options(TransportBenchmark.class, PipelineBenchmark.class).threads(clients)));
+                    }
+                    yield all;
+                }
+                case "limits" -> {
+                    List<RunResult> all = new ArrayList<>();
+                    all.addAll(run(options(RateLimiterBenchmark.class).threads(1)));
+                    all.addAll(run(options(RateLimiterBenchmark.class).threads(4)));
+                    yield all;
+                }
+                default -> run(options(AllocationBenchmark.class).addProfiler(GCProfiler.class));
+            };
+            File file = new File(RESULTS_DIRECTORY, group + ".json");
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, file.getPath()).writeOut(results);
+            System.out.println("Results of " + group + " written to " + file);
+        }
+    }
+
+    /**
+     * @param benchmarks The benchmark classes
+     * @return the options running every benchmark of the classes
+     */
+    private static ChainedOptionsBuilder options(Class<?>... benchmarks) {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        for (Class<?> benchmark : benchmarks) {
+            options.include("^" + benchmark.getName().replace(".", "\\.") + "\\.");
+        }
+        return options;
+    }
+
+    /**
+     * @param options The options of the run
+     * @return the results
+     * @throws RunnerException if a benchmark fails
+     */
+    private static Collection<RunResult> run(ChainedOptionsBuilder options) throws RunnerException {
+        return new Runner(options.build()).run();
+    }
+}
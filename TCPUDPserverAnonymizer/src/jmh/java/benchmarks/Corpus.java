@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the keywords and texts the benchmarks run on, the same ones for the same parameters.
+ * Keywords start with 'q', which the filler text never contains, so the only occurrences are those placed on purpose
+ * and the hit density is exactly the one asked for.
+ * The unicode texts mix accented and Cyrillic letters, CJK ideographs and supplementary characters (surrogate pairs)
+ * into the filler and the keywords.
+ */
+final class Corpus {
+    /**
+     * The seed of every generated text, so results can be compared between runs
+     */
+    private static final long SEED = 0x5EC12E7L;
+    /**
+     * The filler characters of ASCII texts
+     */
+    private static final String ASCII_FILLER = "abcdefghijklmnoprstuvwxyz      ,.";
+    /**
+     * The filler characters of unicode texts, added to the ASCII ones
+     */
+    private static final String UNICODE_FILLER = "éèçãñüжяд日本語";
+    /**
+     * Supplementary characters mixed into unicode texts, each one taking two chars
+     */
+    private static final String[] SUPPLEMENTARY = {"😀", "𝄞", "𠜎"};
+    /**
+     * The character every keyword starts with, missing from the filler
+     */
+    private static final char KEYWORD_START = 'q';
+    /**
+     * The lowest port tried for a server, the servers refuse the well-known ports
+     */
+    private static final int MIN_PORT = 20000;
+    /**
+     * The highest port tried for a server, the servers refuse the dynamic ports
+     */
+    private static final int MAX_PORT = 49151;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Generates distinct keywords
+     *
+     * @param count   The number of keywords
+     * @param length  The length of each keyword, in chars
+     * @param unicode Whether the keywords contain non-ASCII characters
+     * @return the keywords
+     */
+    static List<String> keywords(int count, int length, boolean unicode) {
+        SplittableRandom random = new SplittableRandom(SEED + count * 31L + length);
+        String alphabet = unicode ? ASCII_FILLER.trim() + UNICODE_FILLER : ASCII_FILLER.trim();
+        List<String> keywords = new ArrayList<>(count);
+        while (keywords.size() < count) {
+            StringBuilder keyword = new StringBuilder(length).append(KEYWORD_START);
+            while (keyword.length() < length) {
+                keyword.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (!keywords.contains(keyword.toString())) {
+                keywords.add(keyword.toString());
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * Generates a text with the given number of occurrences of the keywords per thousand chars,
+     * the occurrences are spread evenly and alternate between upper and lower case
+     *
+     * @param size            The length of the text, in chars
+     * @param keywords        The keywords placed in the text
+     * @param hitsPerThousand The number of occurrences per thousand chars
+     * @param unicode         Whether the filler contains non-ASCII characters
+     * @return the text, without line breaks
+     */
+    static String text(int size, List<String> keywords, int hitsPerThousand, boolean unicode) {
+        SplittableRandom random = new SplittableRandom(SEED + size);
+        long hits = (long) size * hitsPerThousand / 1000;
+        StringBuilder text = new StringBuilder(size + 2);
+        int placed = 0;
+        while (text.length() < size) {
+            long due = (long) text.length() * hitsPerThousand / 1000;
+            String keyword = keywords.get(placed % keywords.size());
+            if (placed < hits && placed <= due && text.length() + keyword.length() <= size) {
+                text.append(placed % 2 == 0 ? keyword : keyword.toUpperCase());
+                placed++;
+            } else if (unicode && random.nextInt(16) == 0) {
+                int kind = random.nextInt(UNICODE_FILLER.length() + SUPPLEMENTARY.length);
+                if (kind < UNICODE_FILLER.length()) {
+                    text.append(UNICODE_FILLER.charAt(kind));
+                } else if (text.length() + 2 <= size) {
+                    text.append(SUPPLEMENTARY[kind - UNICODE_FILLER.length()]);
+                }
+            } else {
+                text.append(ASCII_FILLER.charAt(random.nextInt(ASCII_FILLER.length())));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Finds a port free for both TCP and UDP in the range the servers accept
+     *
+     * @return the port
+     * @throws UncheckedIOException if no port is free
+     */
+    static int freePort() {
+        SplittableRandom random = new SplittableRandom();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int port = random.nextInt(MIN_PORT, MAX_PORT + 1);
+            try (ServerSocket tcp = new ServerSocket(port); DatagramSocket udp = new DatagramSocket(port)) {
+                if (udp.isBound()) {
+                    return tcp.getLocalPort();
+                }
+            } catch (IOException e) {
+                // taken, try another one
+            }
+        }
+        throw new UncheckedIOException(new IOException("No free port between " + MIN_PORT + " and " + MAX_PORT));
+    }
+}
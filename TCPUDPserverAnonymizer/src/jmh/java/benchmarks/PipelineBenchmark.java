@@ -0,0 +1,178 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pipelined requests over the loopback ({@code TcpProtocol.PIPELINE_MODE}): every invocation sends {@value #BATCH}
+ * tagged requests back to back on the client's connection, then reads their answers, so the scores are per request
+ * and compare with the one request at a time of {@link TransportBenchmark}.
+ * The requests are written on a virtual thread while the answers are read, so neither side waits for the other.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples: JMHSample_11_Loops" (1.37) Type: source code
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    /**
+     * The number of requests sent back to back
+     */
+    static final int BATCH = 64;
+    /**
+     * The first line of a pipelined connection, {@code TcpProtocol.PIPELINE_MODE}
+     */
+    private static final String PIPELINE_MODE = "\u0001PIPELINE";
+    /**
+     * The keyword of every request
+     */
+    private static final String KEYWORD = "qsecret";
+
+    /**
+     * The server: tcp or tcp-nio
+     */
+    @Param({"tcp", "tcp-nio"})
+    public String transport;
+    /**
+     * The length of every message, in bytes
+     */
+    @Param({"100", "10000"})
+    public int messageSize;
+
+    /**
+     * The port of the server
+     */
+    private int port;
+    /**
+     * The message of every request, one occurrence of the keyword per thousand bytes
+     */
+    private String message;
+    /**
+     * Shuts the server down
+     */
+    private AutoCloseable server;
+
+    /**
+     * Starts the server
+     */
+    @Setup
+    public void startServer() {
+        port = Corpus.freePort();
+        message = Corpus.text(messageSize, List.of(KEYWORD), 1, false);
+        server = Targets.startServer(transport, port);
+    }
+
+    /**
+     * Stops the server
+     *
+     * @throws Exception if the server fails to stop
+     */
+    @TearDown
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    /**
+     * A pipelined connection, one per thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        /**
+         * The connection
+         */
+        private Socket socket;
+        /**
+         * Sends the requests
+         */
+        private PrintWriter out;
+        /**
+         * Reads the answers
+         */
+        private BufferedReader in;
+
+        /**
+         * Connects to the server in pipeline mode
+         *
+         * @param benchmark The benchmark, with the server
+         * @throws IOException if the server can not be reached
+         */
+        @Setup
+        public void connect(PipelineBenchmark benchmark) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), benchmark.port);
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(PIPELINE_MODE);
+            out.println(KEYWORD);
+        }
+
+        /**
+         * Closes the connection
+         *
+         * @throws IOException if the connection fails to close
+         */
+        @TearDown
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * @param client The client of this thread
+     * @return the number of substitutions
+     * @throws IOException          if the connection is lost
+     * @throws InterruptedException if interrupted while waiting for the requests to be sent
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int requests(Client client) throws IOException, InterruptedException {
+        Thread sender = Thread.startVirtualThread(() -> {
+            for (int i = 0; i < BATCH; i++) {
+                client.out.print(i);
+                client.out.print('\t');
+                client.out.println(message);
+            }
+            client.out.flush();
+        });
+        int countSubstitutions = 0;
+        for (int i = 0; i < BATCH; i++) {
+            String answer = client.in.readLine();
+            if (answer == null) {
+                throw new UncheckedIOException(new IOException("Server closed the connection"));
+            }
+            int idEnd = answer.indexOf('\t');
+            countSubstitutions += Integer.parseInt(answer, idEnd + 1, answer.indexOf('\t', idEnd + 1), 10);
+        }
+        sender.join();
+        return countSubstitutions;
+    }
+}
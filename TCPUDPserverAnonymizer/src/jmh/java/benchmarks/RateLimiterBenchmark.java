@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the per-peer rate limiting costs a request: no limit, a limit the peers stay under (every request taken)
+ * and one they are far over (almost every request refused), for a single peer and for many.
+ * Every thread walks the peers in turn, so with {@code -t 4} the threads contend for the same buckets.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples: JMHSample_15_Asymmetric" (1.37) Type: source code
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    /**
+     * The requests per second of every peer: 0 for no limit, 1000000000 to take every request, 1000 to refuse almost all of them
+     */
+    @Param({"0", "1000000000", "1000"})
+    public long requestsPerSecond;
+    /**
+     * The number of peers sending requests
+     */
+    @Param({"1", "10000"})
+    public int peers;
+
+    /**
+     * Takes the requests
+     */
+    private IntToLongFunction limiter;
+
+    /**
+     * Creates the rate limiter
+     */
+    @Setup
+    public void setUp() {
+        limiter = Targets.rateLimiter(requestsPerSecond, peers);
+    }
+
+    /**
+     * The peer each thread sends its next request from
+     */
+    @State(Scope.Thread)
+    public static class Sender {
+        /**
+         * The index of the next peer
+         */
+        private int peer;
+    }
+
+    /**
+     * @param sender The thread sending the request
+     * @return how long the peer should wait, 0 if the request was taken
+     */
+    @Benchmark
+    public long tryAcquire(Sender sender) {
+        return limiter.applyAsLong(sender.peer++ & Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,148 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntToLongFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reaches the methods of {@code BenchmarkTargets}, which lives in the default package with the code it measures.
+ * Every method is looked up by reflection, so they are only meant to be called while setting up a benchmark.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class Method" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+final class Targets {
+    /**
+     * The name of the class holding the targets
+     */
+    private static final String TARGETS_CLASS = "BenchmarkTargets";
+
+    /**
+     * Not meant to be instantiated
+     */
+    private Targets() {
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function anonymizing Strings
+     */
+    static Function<String, Object> anonymizer(List<String> keywords) {
+        return invoke("anonymizer", keywords);
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function anonymizing Strings on every core
+     */
+    static Function<String, Object> parallelAnonymizer(List<String> keywords) {
+        return invoke("parallelAnonymizer", keywords);
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function counting the occurrences in Strings
+     */
+    static ToIntFunction<String> counter(List<String> keywords) {
+        return invoke("counter", keywords);
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function anonymizing CharBuffers in place
+     */
+    static ToIntFunction<CharBuffer> charBufferAnonymizer(List<String> keywords) {
+        return invoke("charBufferAnonymizer", keywords);
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function anonymizing UTF-8 ByteBuffers in place
+     */
+    static ToIntFunction<ByteBuffer> utf8Anonymizer(List<String> keywords) {
+        return invoke("utf8Anonymizer", keywords);
+    }
+
+    /**
+     * @param keywords The keywords
+     * @return a function streaming Strings through the streaming anonymizer
+     */
+    static ToLongFunction<String> streamingAnonymizer(List<String> keywords) {
+        return invoke("streamingAnonymizer", keywords);
+    }
+
+    /**
+     * Starts a server
+     *
+     * @param transport The transport of the server: tcp, tcp-nio or udp
+     * @param port      The port of the server
+     * @return what shuts the server down
+     */
+    static AutoCloseable startServer(String transport, int port) {
+        return switch (transport) {
+            case "tcp" -> invoke("startTcpServer", port);
+            case "tcp-nio" -> invoke("startNioServer", port);
+            case "udp" -> invoke("startUdpServer", port);
+            default -> throw new IllegalArgumentException("Unknown transport: " + transport);
+        };
+    }
+
+    /**
+     * @return a channel to send UDP requests from
+     */
+    static Closeable openUdpChannel() {
+        return invoke("openUdpChannel");
+    }
+
+    /**
+     * @param server The address of the UDP server
+     * @return a function sending a request with the windowed UDP protocol from a channel of {@link #openUdpChannel()} and giving the answer
+     */
+    static BiFunction<Closeable, byte[], byte[]> windowedUdpExchange(InetSocketAddress server) {
+        return invoke("windowedUdpExchange", server);
+    }
+
+    /**
+     * @param requestsPerSecond The requests per second of every peer, 0 for no limit
+     * @param peers             The number of peers
+     * @return a function taking a request of a peer from a rate limiter and giving how long it should wait
+     */
+    static IntToLongFunction rateLimiter(long requestsPerSecond, int peers) {
+        return invoke("rateLimiter", requestsPerSecond, peers);
+    }
+
+    /**
+     * Calls a static method of the targets, each of them having a distinct name
+     *
+     * @param name      The name of the method
+     * @param arguments The arguments of the call
+     * @param <T>       The type returned by the method
+     * @return what the method returned
+     * @throws IllegalStateException if the method does not exist or throws
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T invoke(String name, Object... arguments) {
+        try {
+            for (Method method : Class.forName(TARGETS_CLASS).getMethods()) {
+                if (method.getName().equals(name)) {
+                    return (T) method.invoke(null, arguments);
+                }
+            }
+            throw new IllegalStateException("No benchmark target named " + name);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Benchmark target " + name + " failed: " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Benchmark target " + name + " is not reachable: " + e, e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The text engine alone: anonymizing a String (what {@code Anonymizer.anonymizeKeyword} did)
+ * and only finding the occurrences (what {@code Anonymizer.startingPositions} did),
+ * across text sizes from 100 B to 100 MB, keyword lengths and counts, hit densities and ASCII or unicode text.
+ * Sizes are in chars, which are bytes for ASCII text. A subset is run with {@code -p}, e.g. {@code -p size=10000 -p content=ascii}.
+ * The fork has the Vector API, so single short keywords use {@code VectorKeywordMatcher};
+ * {@code -jvmArgsAppend -Danonymizer.vector=false} measures the scalar scan instead.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples" (1.37) Type: source code
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "--add-modules=jdk.incubator.vector"})
+public class TextBenchmark {
+    /**
+     * The length of the text, in chars
+     */
+    @Param({"100", "10000", "1000000", "100000000"})
+    public int size;
+    /**
+     * The length of every keyword, in chars
+     */
+    @Param({"3", "8", "32"})
+    public int keywordLength;
+    /**
+     * The number of keywords, 1 uses the single keyword matcher and more the multi-keyword automaton
+     */
+    @Param({"1", "16"})
+    public int keywordCount;
+    /**
+     * The number of occurrences per thousand chars
+     */
+    @Param({"0", "1", "10"})
+    public int hitsPerThousand;
+    /**
+     * The characters of the text and keywords: ascii or unicode
+     */
+    @Param({"ascii", "unicode"})
+    public String content;
+
+    /**
+     * The text being anonymized
+     */
+    private String text;
+    /**
+     * Anonymizes the text
+     */
+    private Function<String, Object> anonymizer;
+    /**
+     * Anonymizes the text on every core
+     */
+    private Function<String, Object> parallelAnonymizer;
+    /**
+     * Counts the occurrences in the text
+     */
+    private ToIntFunction<String> counter;
+
+    /**
+     * Generates the text and compiles the keywords
+     */
+    @Setup
+    public void setUp() {
+        boolean unicode = content.equals("unicode");
+        List<String> keywords = Corpus.keywords(keywordCount, keywordLength, unicode);
+        text = Corpus.text(size, keywords, hitsPerThousand, unicode);
+        anonymizer = Targets.anonymizer(keywords);
+        parallelAnonymizer = Targets.parallelAnonymizer(keywords);
+        counter = Targets.counter(keywords);
+    }
+
+    /**
+     * @return the anonymized text and its hit counts
+     */
+    @Benchmark
+    public Object anonymize() {
+        return anonymizer.apply(text);
+    }
+
+    /**
+     * @return the anonymized text and its hit counts, computed on every core
+     */
+    @Benchmark
+    public Object parallelAnonymize() {
+        return parallelAnonymizer.apply(text);
+    }
+
+    /**
+     * @return the number of occurrences
+     */
+    @Benchmark
+    public int countOccurrences() {
+        return counter.applyAsInt(text);
+    }
+}
@@ -0,0 +1,201 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end over the loopback: a request sent to a server in the same JVM until its whole answer is read back.
+ * Throughput is in requests per second and latency comes as percentiles of the sampled times.
+ * Every JMH thread is a client with its own connection (TCP) or socket (UDP), so the client concurrency
+ * is the number of threads, given with {@code -t} ({@link BenchmarkSuite} runs 1, 4 and 16).
+ * TCP clients keep their connection and send one line per request, UDP clients use the windowed protocol.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "JMH Samples" (1.37) Type: source code
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+    /**
+     * The keyword of every request
+     */
+    private static final String KEYWORD = "qsecret";
+
+    /**
+     * The server: tcp, tcp-nio or udp
+     */
+    @Param({"tcp", "tcp-nio", "udp"})
+    public String transport;
+    /**
+     * The length of every message, in bytes
+     */
+    @Param({"100", "10000"})
+    public int messageSize;
+
+    /**
+     * The port of the server
+     */
+    private int port;
+    /**
+     * The message of every request, one occurrence of the keyword per thousand bytes
+     */
+    private String message;
+    /**
+     * Shuts the server down
+     */
+    private AutoCloseable server;
+
+    /**
+     * Starts the server
+     */
+    @Setup
+    public void startServer() {
+        port = Corpus.freePort();
+        message = Corpus.text(messageSize, List.of(KEYWORD), 1, false);
+        server = Targets.startServer(transport, port);
+    }
+
+    /**
+     * Stops the server
+     *
+     * @throws Exception if the server fails to stop
+     */
+    @TearDown
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    /**
+     * A client, one per thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        /**
+         * The TCP connection, null for UDP
+         */
+        private Socket socket;
+        /**
+         * Sends the requests of a TCP connection
+         */
+        private PrintWriter out;
+        /**
+         * Reads the answers of a TCP connection
+         */
+        private BufferedReader in;
+        /**
+         * The UDP channel, null for TCP
+         */
+        private Closeable udpChannel;
+        /**
+         * Sends a UDP request and waits for its answer
+         */
+        private BiFunction<Closeable, byte[], byte[]> exchange;
+        /**
+         * The UDP request: the length of the keyword, the keyword and the message
+         */
+        private byte[] request;
+
+        /**
+         * Connects to the server, a TCP connection is opened with a first request carrying the keyword
+         *
+         * @param benchmark The benchmark, with the server
+         * @throws IOException if the server can not be reached
+         */
+        @Setup
+        public void connect(TransportBenchmark benchmark) throws IOException {
+            if (benchmark.transport.equals("udp")) {
+                udpChannel = Targets.openUdpChannel();
+                exchange = Targets.windowedUdpExchange(new InetSocketAddress(InetAddress.getLoopbackAddress(), benchmark.port));
+                byte[] keyword = KEYWORD.getBytes(StandardCharsets.UTF_8);
+                byte[] message = benchmark.message.getBytes(StandardCharsets.UTF_8);
+                request = ByteBuffer.allocate(Integer.BYTES + keyword.length + message.length)
+                        .putInt(keyword.length).put(keyword).put(message).array();
+            } else {
+                socket = new Socket(InetAddress.getLoopbackAddress(), benchmark.port);
+                socket.setTcpNoDelay(true);
+                out = new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out.println(benchmark.message);
+                out.println(KEYWORD);
+                out.flush();
+                readAnswer();
+            }
+        }
+
+        /**
+         * Closes the connection or socket
+         *
+         * @throws IOException if the connection fails to close
+         */
+        @TearDown
+        public void disconnect() throws IOException {
+            if (socket != null) {
+                socket.close();
+            }
+            if (udpChannel != null) {
+                udpChannel.close();
+            }
+        }
+
+        /**
+         * Reads a TCP answer: the anonymized line, the number of substitutions and one line per substitution
+         *
+         * @return the number of substitutions
+         * @throws IOException if the connection is lost
+         */
+        private int readAnswer() throws IOException {
+            if (in.readLine() == null) {
+                throw new IOException("Server closed the connection");
+            }
+            int count = Integer.parseInt(in.readLine());
+            for (int i = 0; i < count; i++) {
+                in.readLine();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @param client The client of this thread
+     * @return the number of substitutions (TCP) or the answer (UDP)
+     * @throws IOException if the connection is lost
+     */
+    @Benchmark
+    public Object request(Client client) throws IOException {
+        if (client.exchange != null) {
+            return client.exchange.apply(client.udpChannel, client.request);
+        }
+        client.out.println(message);
+        client.out.flush();
+        return client.readAnswer();
+    }
+}
@@ -0,0 +1,242 @@
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the work a server has in flight: the requests being served at the same time, the bytes of the requests
+ * in flight from each client and from all of them, and the size of a single message.
+ * A server asks for a request to be admitted once it knows its size and before it holds it whole (TCP) or starts
+ * reassembling it (UDP), and gives the admission back once the answer is sent. A request over a limit is refused
+ * at once, and the client gets a "busy" answer with a hint of how long to wait ({@link #retryAfterMillis()}),
+ * or a "too large" answer for a message over {@link #maxMessageBytes()}, instead of a slow timeout:
+ * under overload the server sheds requests instead of running out of memory.
+ * The limits are read from system properties when the servers start ({@code -Danonymizer.limits.requests=256}, ...).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} M. Welsh, D. Culler, E. Brewer (2001) "SEDA: An Architecture for Well-Conditioned, Scalable Internet Services", SOSP.
+ * <li>[2]{@code @source} IETF (2022) "HTTP Semantics" (RFC 9110), Sections 10.2.3 "Retry-After" and 15.6.4 "503 Service Unavailable".
+ * </ul>
+ */
+public final class AdmissionControl {
+    /**
+     * The most requests served at the same time ({@code -Danonymizer.limits.requests=4096})
+     */
+    public static final String MAX_REQUESTS_PROPERTY = "anonymizer.limits.requests";
+    /**
+     * The largest message, in bytes ({@code -Danonymizer.limits.message=16777216})
+     */
+    public static final String MAX_MESSAGE_PROPERTY = "anonymizer.limits.message";
+    /**
+     * The most bytes of requests in flight from a single client ({@code -Danonymizer.limits.client=67108864})
+     */
+    public static final String MAX_CLIENT_BYTES_PROPERTY = "anonymizer.limits.client";
+    /**
+     * The most bytes of requests in flight from all the clients, half the heap by default
+     */
+    public static final String MAX_TOTAL_BYTES_PROPERTY = "anonymizer.limits.total";
+    /**
+     * How long a busy client is told to wait before trying again, in milliseconds ({@code -Danonymizer.limits.retryAfter=1000})
+     */
+    public static final String RETRY_AFTER_PROPERTY = "anonymizer.limits.retryAfter";
+    /**
+     * The most requests served at the same time when {@link #MAX_REQUESTS_PROPERTY} is not set
+     */
+    private static final int DEFAULT_MAX_REQUESTS = 4096;
+    /**
+     * The largest message when {@link #MAX_MESSAGE_PROPERTY} is not set, like the longest line of the NIO server
+     */
+    private static final long DEFAULT_MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    /**
+     * The most bytes in flight from a single client when {@link #MAX_CLIENT_BYTES_PROPERTY} is not set
+     */
+    private static final long DEFAULT_MAX_CLIENT_BYTES = 64 * 1024 * 1024;
+    /**
+     * The retry hint when {@link #RETRY_AFTER_PROPERTY} is not set, in milliseconds
+     */
+    private static final long DEFAULT_RETRY_AFTER = 1000;
+
+    /**
+     * The most requests served at the same time
+     */
+    private final int maxRequests;
+    /**
+     * The largest message, in bytes
+     */
+    private final long maxMessageBytes;
+    /**
+     * The most bytes in flight from a single client
+     */
+    private final long maxClientBytes;
+    /**
+     * The most bytes in flight from all the clients
+     */
+    private final long maxTotalBytes;
+    /**
+     * How long a busy client is told to wait, in milliseconds
+     */
+    private final long retryAfterMillis;
+    /**
+     * The requests admitted and not released yet
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+    /**
+     * The bytes of the requests admitted and not released yet
+     */
+    private final AtomicLong totalBytes = new AtomicLong();
+    /**
+     * The bytes in flight of every client with a request admitted, a client is removed once it has none
+     */
+    private final Map<InetAddress, Long> clientBytes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the admission control of a server, with the limits given by the system properties
+     */
+    public AdmissionControl() {
+        this(Integer.getInteger(MAX_REQUESTS_PROPERTY, DEFAULT_MAX_REQUESTS),
+                Long.getLong(MAX_MESSAGE_PROPERTY, DEFAULT_MAX_MESSAGE_BYTES),
+                Long.getLong(MAX_CLIENT_BYTES_PROPERTY, DEFAULT_MAX_CLIENT_BYTES),
+                Long.getLong(MAX_TOTAL_BYTES_PROPERTY, Runtime.getRuntime().maxMemory() / 2),
+                Long.getLong(RETRY_AFTER_PROPERTY, DEFAULT_RETRY_AFTER));
+    }
+
+    /**
+     * Creates the admission control of a server
+     *
+     * @param maxRequests      The most requests served at the same time
+     * @param maxMessageBytes  The largest message, in bytes
+     * @param maxClientBytes   The most bytes in flight from a single client
+     * @param maxTotalBytes    The most bytes in flight from all the clients
+     * @param retryAfterMillis How long a busy client is told to wait, in milliseconds
+     */
+    public AdmissionControl(int maxRequests, long maxMessageBytes, long maxClientBytes, long maxTotalBytes, long retryAfterMillis) {
+        if (maxRequests < 1 || maxMessageBytes < 1 || maxClientBytes < 1 || maxTotalBytes < 1 || retryAfterMillis < 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.maxRequests = maxRequests;
+        this.maxMessageBytes = maxMessageBytes;
+        this.maxClientBytes = maxClientBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Checks whether a message is over the size limit, such a request is never admitted
+     *
+     * @param bytes The size of the message
+     * @return true if the message is too large
+     */
+    public boolean isTooLarge(long bytes) {
+        return bytes > maxMessageBytes;
+    }
+
+    /**
+     * Admits a request if it fits every limit, it must then be released with {@link #release(InetAddress, long)}
+     * once its answer is sent
+     *
+     * @param client The address of the client
+     * @param bytes  The size of the request
+     * @return true if the request was admitted, false if the server is busy (or the message too large)
+     */
+    public boolean tryAcquire(InetAddress client, long bytes) {
+        if (isTooLarge(bytes)) {
+            return false;
+        }
+        if (requests.incrementAndGet() > maxRequests) {
+            requests.decrementAndGet();
+            return false;
+        }
+        if (!tryAcquireBytes(client, bytes)) {
+            requests.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Admits more bytes of a request already admitted (a chunk of a stream) if they fit the byte limits,
+     * they must then be released with {@link #releaseBytes(InetAddress, long)}
+     *
+     * @param client The address of the client
+     * @param bytes  The size of the chunk
+     * @return true if the bytes were admitted, false if the server is busy (or the chunk too large)
+     */
+    public boolean tryAcquireBytes(InetAddress client, long bytes) {
+        if (isTooLarge(bytes)) {
+            return false;
+        }
+        if (totalBytes.addAndGet(bytes) > maxTotalBytes) {
+            totalBytes.addAndGet(-bytes);
+            return false;
+        }
+        boolean[] admitted = new boolean[1];
+        clientBytes.compute(client, (address, used) -> {
+            long inFlight = used == null ? 0 : used;
+            if (inFlight + bytes > maxClientBytes) {
+                return used;
+            }
+            admitted[0] = true;
+            return inFlight + bytes;
+        });
+        if (!admitted[0]) {
+            totalBytes.addAndGet(-bytes);
+        }
+        return admitted[0];
+    }
+
+    /**
+     * Gives back the admission of a request whose answer was sent (or which was dropped)
+     *
+     * @param client The address of the client
+     * @param bytes  The size the request was admitted with
+     */
+    public void release(InetAddress client, long bytes) {
+        releaseBytes(client, bytes);
+        requests.decrementAndGet();
+    }
+
+    /**
+     * Gives back the bytes of a chunk admitted with {@link #tryAcquireBytes(InetAddress, long)}
+     *
+     * @param client The address of the client
+     * @param bytes  The size the chunk was admitted with
+     */
+    public void releaseBytes(InetAddress client, long bytes) {
+        clientBytes.computeIfPresent(client, (address, used) -> used - bytes <= 0 ? null : used - bytes);
+        totalBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Returns how long a busy client is told to wait before trying again
+     *
+     * @return the hint in milliseconds
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Returns the largest message admitted
+     *
+     * @return the size in bytes
+     */
+    public long maxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    /**
+     * Returns the number of requests admitted and not released yet
+     *
+     * @return the number of requests in flight
+     */
+    public int inFlight() {
+        return requests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Admission control: " + requests.get() + "/" + maxRequests + " requests, "
+                + totalBytes.get() + "/" + maxTotalBytes + " bytes in flight, " + clientBytes.size() + " client(s)";
+    }
+}
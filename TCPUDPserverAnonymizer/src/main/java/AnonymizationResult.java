@@ -0,0 +1,155 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of anonymizing a String with a {@link KeywordMatcher}:
+ * the anonymized String, how many times each keyword occurred in the original one and, if asked for,
+ * where every occurrence starts, all found by the same scan ({@link KeywordMatcher#anonymize(String, boolean)}).
+ * Instances are immutable.
+ */
+public final class AnonymizationResult {
+    /**
+     * The anonymized String
+     */
+    private final String anonymized;
+    /**
+     * The keywords searched for
+     */
+    private final List<String> keywords;
+    /**
+     * The number of occurrences of each keyword, in the order of {@link #keywords}
+     */
+    private final int[] hitCounts;
+    /**
+     * The number of occurrences of all keywords together
+     */
+    private final int matchCount;
+    /**
+     * The start of every occurrence in the original String, in ascending order, null if they were not asked for
+     */
+    private final int[] offsets;
+
+    /**
+     * Creates a result without offsets
+     *
+     * @param anonymized The anonymized String
+     * @param keywords   The keywords searched for
+     * @param hitCounts  The number of occurrences of each keyword, in the order of the keywords (not copied)
+     */
+    AnonymizationResult(String anonymized, List<String> keywords, int[] hitCounts) {
+        this(anonymized, keywords, hitCounts, null);
+    }
+
+    /**
+     * Creates a result
+     *
+     * @param anonymized The anonymized String
+     * @param keywords   The keywords searched for
+     * @param hitCounts  The number of occurrences of each keyword, in the order of the keywords (not copied)
+     * @param offsets    The start of every occurrence, in ascending order (not copied), null if they were not asked for
+     */
+    AnonymizationResult(String anonymized, List<String> keywords, int[] hitCounts, int[] offsets) {
+        this.anonymized = anonymized;
+        this.keywords = keywords;
+        this.hitCounts = hitCounts;
+        this.offsets = offsets;
+        int total = 0;
+        for (int hits : hitCounts) {
+            total += hits;
+        }
+        this.matchCount = total;
+    }
+
+    /**
+     * Creates a result received from a server, which only tells the number of occurrences of all keywords together:
+     * {@link #hitCounts()} is empty and {@link #hitCount(int)} can not be called
+     *
+     * @param anonymized The anonymized String
+     * @param matchCount The number of occurrences of all keywords together
+     */
+    AnonymizationResult(String anonymized, int matchCount) {
+        this.anonymized = anonymized;
+        this.keywords = List.of();
+        this.hitCounts = new int[0];
+        this.matchCount = matchCount;
+        this.offsets = null;
+    }
+
+    /**
+     * Returns the anonymized String
+     *
+     * @return the String with every keyword replaced by 'X's
+     */
+    public String anonymized() {
+        return anonymized;
+    }
+
+    /**
+     * Returns the number of occurrences of all keywords together (overlapping occurrences included)
+     *
+     * @return the number of occurrences
+     */
+    public int matchCount() {
+        return matchCount;
+    }
+
+    /**
+     * Returns the number of occurrences of one keyword
+     *
+     * @param keyword The index of the keyword in {@link KeywordMatcher#keywords()}
+     * @return the number of occurrences
+     */
+    public int hitCount(int keyword) {
+        return hitCounts[keyword];
+    }
+
+    /**
+     * Returns the number of occurrences of each keyword
+     *
+     * @return the number of occurrences by keyword, in the order the keywords were given
+     */
+    public Map<String, Integer> hitCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int k = 0; k < hitCounts.length; k++) {
+            counts.put(keywords.get(k), hitCounts[k]);
+        }
+        return counts;
+    }
+
+    /**
+     * Checks whether the result holds the start of every occurrence
+     *
+     * @return true if the offsets were asked for when anonymizing
+     */
+    public boolean hasOffsets() {
+        return offsets != null;
+    }
+
+    /**
+     * Returns where one occurrence starts in the original String
+     *
+     * @param occurrence The index of the occurrence, from 0 to {@link #matchCount()} (exclusive), in ascending order of start
+     * @return the start of the occurrence, in chars
+     * @throws IllegalStateException if the offsets were not asked for
+     */
+    public int offset(int occurrence) {
+        if (offsets == null) {
+            throw new IllegalStateException("Offsets were not asked for");
+        }
+        return offsets[occurrence];
+    }
+
+    /**
+     * Returns where every occurrence starts in the original String
+     *
+     * @return a copy of the starts, in ascending order, in chars
+     * @throws IllegalStateException if the offsets were not asked for
+     */
+    public int[] offsets() {
+        if (offsets == null) {
+            throw new IllegalStateException("Offsets were not asked for");
+        }
+        return offsets.clone();
+    }
+}
@@ -0,0 +1,44 @@
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A client that services embed to have Strings anonymized by a server, without blocking and without
+ * paying the connection or socket setup for every String: the connections (TCP) or the socket (UDP) are opened once
+ * and shared by every request in flight.
+ * Every request has a deadline, once it passes the future fails with a {@link java.util.concurrent.TimeoutException}.
+ * Implementations are thread safe.
+ * <ul>
+ * <li>{@link TcpAnonymizerClient}: pipelined connections ({@link TcpProtocol#PIPELINE_MODE}), pooled by keyword.
+ * <li>{@link UdpAnonymizerClient}: the windowed protocol ({@link UdpFrame}) over one socket, the exchanges told apart by their message id.
+ * </ul>
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class CompletableFuture" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public interface AnonymizerClient extends AutoCloseable {
+    /**
+     * Asks the server to anonymize a String, with the default deadline of the client
+     *
+     * @param message The String to be anonymized
+     * @param keyword The keyword field (several keywords may be separated by {@link KeywordMatcher#KEYWORD_SEPARATOR})
+     * @return the answer of the server, only the number of occurrences of all keywords together is known
+     */
+    CompletableFuture<AnonymizationResult> anonymize(String message, String keyword);
+
+    /**
+     * Asks the server to anonymize a String
+     *
+     * @param message  The String to be anonymized
+     * @param keyword  The keyword field (several keywords may be separated by {@link KeywordMatcher#KEYWORD_SEPARATOR})
+     * @param deadline How long to wait for the answer
+     * @return the answer of the server, only the number of occurrences of all keywords together is known
+     */
+    CompletableFuture<AnonymizationResult> anonymize(String message, String keyword, Duration deadline);
+
+    /**
+     * Closes the connections or the socket, failing the requests still in flight
+     */
+    @Override
+    void close();
+}
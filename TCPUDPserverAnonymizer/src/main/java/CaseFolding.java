@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+/**
+ * Folds the case of characters for the case-insensitive matchers: Unicode simple case folding, the same for every locale,
+ * so "I" and "i" match everywhere (also under a Turkish default locale) and "ſ", "K" (Kelvin) or "ς" match "s", "k" and "σ".
+ * Simple folding maps every code point to a single code point, and for the code points of this version of Unicode
+ * a supplementary one always folds to one with the same high surrogate, so a folded character stays in its place and
+ * positions in the folded text are positions in the original text. Nothing is allocated while folding.
+ * <p>ASCII is folded with a range check. Other characters of the Basic Multilingual Plane are looked up in a two-stage
+ * table built once: blocks of 256 characters hold the difference between each folded character and the character,
+ * and all the blocks without cased characters share the same block of zeros.
+ * A low surrogate is folded with the high surrogate before it, as the supplementary code point they make together,
+ * looked up in a second table built the same way for the Supplementary Multilingual Plane, the only supplementary plane
+ * with cased letters: only a handful of its blocks are cased (Deseret, Osage, Vithkuqi, Old Hungarian, Warang Citi,
+ * Medefaidrin, Adlam), so the table stays small.
+ * <p>The folding is derived from {@link Character}: the lower case of the upper case of a code point, except for the
+ * Turkic dotted and dotless i (U+0130 and U+0131), which simple folding leaves alone.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Unicode Consortium (2022) "The Unicode Standard, Version 15.0", Section 3.13 "Default Case Algorithms".
+ * <li>[2]{@code @source} Unicode Consortium (2022) "CaseFolding.txt" (Unicode Character Database 15.0), status C and S mappings.
+ * <li>[3]{@code @source} Unicode Consortium (2022) "The Unicode Standard, Version 15.0", Section 5.1 "Data Structures for Character Conversion".
+ * </ul>
+ */
+public final class CaseFolding {
+    /**
+     * The number of low bits of a character that index within its block of the table
+     */
+    private static final int BLOCK_BITS = 8;
+    /**
+     * The number of characters of a block of the table
+     */
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    /**
+     * Where the block of each character (c >> {@link #BLOCK_BITS}) starts in {@link #DELTAS}
+     */
+    private static final int[] BLOCK_START = new int[(Character.MAX_VALUE + 1) >> BLOCK_BITS];
+    /**
+     * The blocks of the table: the folded character minus the character, wrapped to 16 bits
+     */
+    private static final char[] DELTAS = buildTable(0, BLOCK_START);
+    /**
+     * The first code point past the Supplementary Multilingual Plane, no code point from there on has a case
+     */
+    private static final int END_OF_CASED_PLANES = 0x20000;
+    /**
+     * Where the block of each code point of the Supplementary Multilingual Plane ((codePoint - 0x10000) >> {@link #BLOCK_BITS})
+     * starts in {@link #SUPPLEMENTARY_DELTAS}
+     */
+    private static final int[] SUPPLEMENTARY_BLOCK_START =
+            new int[(END_OF_CASED_PLANES - Character.MIN_SUPPLEMENTARY_CODE_POINT) >> BLOCK_BITS];
+    /**
+     * The blocks of the supplementary table: the folded code point minus the code point, which is also
+     * the folded low surrogate minus the low surrogate since the high surrogate stays the same
+     */
+    private static final char[] SUPPLEMENTARY_DELTAS = buildTable(Character.MIN_SUPPLEMENTARY_CODE_POINT, SUPPLEMENTARY_BLOCK_START);
+
+    /**
+     * Not meant to be instantiated
+     */
+    private CaseFolding() {
+    }
+
+    /**
+     * Builds a two-stage table of the code points from the first one on, one block per entry of the index
+     *
+     * @param first      The first code point of the table
+     * @param blockStart The index, filled with where the block of each code point starts in the table
+     * @return the blocks, the first one holding only zeros and shared by every block without cased code points
+     */
+    private static char[] buildTable(int first, int[] blockStart) {
+        char[] deltas = new char[BLOCK_SIZE];
+        int blocks = 1;
+        char[] block = new char[BLOCK_SIZE];
+        for (int b = 0; b < blockStart.length; b++) {
+            boolean cased = false;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int c = first + ((b << BLOCK_BITS) | i);
+                block[i] = (char) (foldCodePoint(c) - c);
+                cased |= block[i] != 0;
+            }
+            if (cased) {
+                if (blocks * BLOCK_SIZE == deltas.length) {
+                    deltas = Arrays.copyOf(deltas, deltas.length * 2);
+                }
+                System.arraycopy(block, 0, deltas, blocks * BLOCK_SIZE, BLOCK_SIZE);
+                blockStart[b] = blocks++ * BLOCK_SIZE;
+            }
+        }
+        return Arrays.copyOf(deltas, blocks * BLOCK_SIZE);
+    }
+
+    /**
+     * Folds the case of a character of the Basic Multilingual Plane, a surrogate is left as it is
+     * (see {@link #fold(CharSequence, int)})
+     *
+     * @param c The character
+     * @return the folded character
+     */
+    public static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return (char) (c + DELTAS[BLOCK_START[c >> BLOCK_BITS] + (c & (BLOCK_SIZE - 1))]);
+    }
+
+    /**
+     * Folds the case of a character of a text: a low surrogate following a high surrogate is folded as
+     * the code point they make together
+     *
+     * @param text  The text
+     * @param index The index of the character
+     * @return the folded character, a char of the folded code point in the same place as the original one
+     */
+    public static char fold(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c < 0xDC00 || c > 0xDFFF) {
+            return fold(c);
+        }
+        char high;
+        if (index == 0 || !Character.isHighSurrogate(high = text.charAt(index - 1))) {
+            return c;
+        }
+        int offset = Character.toCodePoint(high, c) - Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        if (offset >= END_OF_CASED_PLANES - Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return c;
+        }
+        return (char) (c + SUPPLEMENTARY_DELTAS[SUPPLEMENTARY_BLOCK_START[offset >> BLOCK_BITS] + (offset & (BLOCK_SIZE - 1))]);
+    }
+
+    /**
+     * Folds the case of every character of a text (a keyword)
+     *
+     * @param text The text
+     * @return the folded characters, as many as in the text
+     */
+    public static char[] fold(CharSequence text) {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(text, i);
+        }
+        return folded;
+    }
+
+    /**
+     * Folds the case of a code point, left as it is if its folding would not fit in the same chars
+     *
+     * @param codePoint The code point
+     * @return the folded code point
+     */
+    private static int foldCodePoint(int codePoint) {
+        if (codePoint == 0x130 || codePoint == 0x131) {
+            return codePoint;
+        }
+        int folded = Character.toLowerCase(Character.toUpperCase(codePoint));
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT
+                ? folded < Character.MIN_SUPPLEMENTARY_CODE_POINT || Character.highSurrogate(folded) != Character.highSurrogate(codePoint)
+                : folded >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return codePoint;
+        }
+        return folded;
+    }
+}
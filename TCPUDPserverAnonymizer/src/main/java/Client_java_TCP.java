@@ -1,8 +1,17 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * A simple TCP/IP client that sends a String and a keyword
@@ -26,6 +35,10 @@ public class Client_java_TCP {
      * The socket used to send data to the server.
      */
     private Socket socket;
+    /**
+     * The {@link CompactResponse} mode asked for, null for the classic answer
+     */
+    private String compactMode;
 
     /**
      * Constructor for the client_java_TCP class.
@@ -39,11 +52,33 @@ public class Client_java_TCP {
      * The main method of the client_java_TCP class.
      * It prompts the user for the server name, port, string, and keyword,
      * and then sends the data to the server.
+     * With {@code --stream <host> <port> <keyword>} it streams the standard input to the server instead,
+     * writing the anonymized text to the standard output and the number of substitutions to the standard error.
+     * With {@code --pipeline <host> <port> <keyword>} every line of the standard input is sent as a pipelined request,
+     * the anonymized lines are written to the standard output in order and the number of substitutions to the standard error.
+     * With {@code --compact} the server answers with a {@link CompactResponse} record, expanded here into the same output,
+     * and with {@code --compact=offsets} the offsets of the occurrences are printed too.
      *
      * @param args Command line arguments.
      */
 
     public static void main(String[] args) {
+        if (args.length == 4 && args[0].equals("--stream")) {
+            new Client_java_TCP().streamData(args[1], args[2], args[3]);
+            return;
+        }
+        if (args.length == 4 && args[0].equals("--pipeline")) {
+            new Client_java_TCP().pipelineData(args[1], args[2], args[3]);
+            return;
+        }
+        String compactMode = null;
+        for (String arg : args) {
+            if (arg.equals("--compact")) {
+                compactMode = CompactResponse.MODE;
+            } else if (arg.equals("--compact=offsets")) {
+                compactMode = CompactResponse.OFFSETS_MODE;
+            }
+        }
         try (
                 BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in))) {
             System.out.print("Enter server name or IP address: ");
@@ -56,12 +91,194 @@ public class Client_java_TCP {
             String keyword = stdIn.readLine();
 
             Client_java_TCP client = new Client_java_TCP();
+            client.compactMode = compactMode;
             client.sendData(serverName, port, userString, keyword);
         } catch (IOException e) {
             System.err.println("I/O error: " + e.getMessage());
         }
     }
 
+    /**
+     * Streams the standard input to the server ({@link TcpProtocol#STREAM_MODE}) and writes the anonymized text
+     * to the standard output as it comes back, so inputs of any size go through in constant memory.
+     * The input is sent on its own thread while the answer is read, so neither side waits for the other.
+     *
+     * @param host    The host name or IP address of the server.
+     * @param port    The port number of the server.
+     * @param keyword The keyword line (several keywords may be separated by tabs).
+     */
+    public void streamData(String host, String port, String keyword) {
+        try {
+            int portNum = Integer.parseInt(port);
+            if (portNum < 1024 || portNum > 49151) {
+                System.err.println("Invalid port number. Terminating!");
+                return;
+            }
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, portNum), 5000);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), StreamingAnonymizer.DEFAULT_CHUNK_SIZE);
+            out.write((TcpProtocol.STREAM_MODE + "\n" + keyword + "\n").getBytes(StandardCharsets.UTF_8));
+            Thread sender = Thread.ofVirtual().start(() -> {
+                try {
+                    System.in.transferTo(out);
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    System.err.println("Failed to send input: " + e.getMessage());
+                }
+            });
+
+            InputStream in = new BufferedInputStream(socket.getInputStream(), StreamingAnonymizer.DEFAULT_CHUNK_SIZE);
+            byte[] chunk = new byte[StreamingAnonymizer.DEFAULT_CHUNK_SIZE];
+            int length;
+            while ((length = TcpProtocol.readChunkLength(in)) > 0) {
+                while (length > 0) {
+                    int read = in.read(chunk, 0, Math.min(chunk.length, length));
+                    if (read < 0) {
+                        throw new EOFException("Server closed the connection in the middle of a chunk");
+                    }
+                    System.out.write(chunk, 0, read);
+                    length -= read;
+                }
+            }
+            System.out.flush();
+            System.err.println("Substitutions: " + TcpProtocol.readNumberLine(in));
+            sender.join();
+            socket.close();
+        } catch (UnknownHostException e) {
+            System.err.println("Unknown server. Terminating!");
+            System.exit(1);
+        } catch (SocketTimeoutException e) {
+            System.err.println("Connection timed out. Terminating!");
+            System.exit(1);
+        } catch (ConnectException e) {
+            System.err.println("Could not connect to server. Terminating!");
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Failed to stream data: " + e.getMessage() + ". Terminating!");
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port format. Terminating!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sends every line of the standard input as a pipelined request ({@link TcpProtocol#PIPELINE_MODE}), tagged with
+     * its line number, without waiting for the answers, and writes the anonymized lines to the standard output as they come back.
+     * The requests are sent on their own thread and flushed whenever the standard input has nothing more ready,
+     * so the server answers each batch with a single flush
+     *
+     * @param host    The host name or IP address of the server.
+     * @param port    The port number of the server.
+     * @param keyword The keyword line (several keywords may be separated by tabs).
+     */
+    public void pipelineData(String host, String port, String keyword) {
+        try {
+            int portNum = Integer.parseInt(port);
+            if (portNum < 1024 || portNum > 49151) {
+                System.err.println("Invalid port number. Terminating!");
+                return;
+            }
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, portNum), 5000);
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            out.println(TcpProtocol.PIPELINE_MODE);
+            out.println(keyword);
+            Thread sender = Thread.ofVirtual().start(() -> {
+                try {
+                    BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                    long id = 0;
+                    String line;
+                    while ((line = stdIn.readLine()) != null) {
+                        out.print(id++);
+                        out.print(TcpProtocol.FIELD_SEPARATOR);
+                        out.println(line);
+                        if (!stdIn.ready()) {
+                            out.flush();
+                        }
+                    }
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    System.err.println("Failed to send input: " + e.getMessage());
+                }
+            });
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter stdOut = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            long expectedId = 0;
+            long countSubstitutions = 0;
+            String answer;
+            while ((answer = in.readLine()) != null) {
+                IOException rejection = TcpProtocol.rejection(answer);
+                if (rejection != null) {
+                    throw rejection;
+                }
+                int idEnd = answer.indexOf(TcpProtocol.FIELD_SEPARATOR);
+                int countEnd = answer.indexOf(TcpProtocol.FIELD_SEPARATOR, idEnd + 1);
+                if (idEnd < 0 || countEnd < 0 || !answer.substring(0, idEnd).equals(Long.toString(expectedId))) {
+                    throw new IOException("Unexpected answer from server");
+                }
+                expectedId++;
+                countSubstitutions += Integer.parseInt(answer.substring(idEnd + 1, countEnd));
+                stdOut.println(answer.substring(countEnd + 1));
+                if (!in.ready()) {
+                    stdOut.flush();
+                }
+            }
+            stdOut.flush();
+            System.err.println("Substitutions: " + countSubstitutions);
+            sender.join();
+            socket.close();
+        } catch (UnknownHostException e) {
+            System.err.println("Unknown server. Terminating!");
+            System.exit(1);
+        } catch (SocketTimeoutException e) {
+            System.err.println("Connection timed out. Terminating!");
+            System.exit(1);
+        } catch (ConnectException e) {
+            System.err.println("Could not connect to server. Terminating!");
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Failed to pipeline data: " + e.getMessage() + ". Terminating!");
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid port format or answer from server. Terminating!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the {@link CompactResponse} record that follows the anonymized String and prints what the classic answer holds:
+     * one "Socket Programming" line per substitution, then the offsets if they were asked for
+     *
+     * @param in The answer of the server, after the anonymized String
+     * @throws IOException if the record is missing or not valid
+     */
+    private void receiveCompact(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("Server closed the connection");
+        }
+        try {
+            byte[] record = CompactResponse.fromLine(line);
+            int repeats = CompactResponse.count(record);
+            if (repeats > 0) {
+                System.out.println(CompactResponse.expand(repeats));
+            }
+            if (CompactResponse.OFFSETS_MODE.equals(compactMode)) {
+                System.out.println("Offsets: " + Arrays.toString(CompactResponse.offsets(record)));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compact answer: " + e.getMessage());
+        }
+    }
+
     /**
      * This method is used to send data to a server.
      * It opens a socket to the specified host and port, sends the user string and keyword,
@@ -85,13 +302,29 @@ public class Client_java_TCP {
             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
-            out.println(userString);
-            out.println(keyword);
+            if (compactMode != null) {
+                out.println(compactMode);
+                out.println(keyword);
+                out.println(userString);
+            } else {
+                out.println(userString);
+                out.println(keyword);
+            }
 
             String serverSentence = in.readLine();
+            IOException rejection = serverSentence == null ? null : TcpProtocol.rejection(serverSentence);
+            if (rejection != null) {
+                System.err.println(rejection.getMessage() + ". Terminating!");
+                System.exit(1);
+            }
             if (serverSentence != null) {
                 System.out.println(serverSentence);
             }
+            if (compactMode != null) {
+                receiveCompact(in);
+                socket.close();
+                return;
+            }
             String numberRepeats = in.readLine();
             if (numberRepeats == null) {
                 return;
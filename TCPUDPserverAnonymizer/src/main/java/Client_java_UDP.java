@@ -1,8 +1,15 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,24 +19,43 @@ import java.util.List;
  * substitutions made in the message (anonymizations).
  * If the String sent is larger than the buffer size, it will be divided into parts and sent separately,
  * and the server will reassemble it.
+ * A datagram whose ACK does not arrive in time is sent again, up to {@link #MAX_RETRIES} times, with a timeout
+ * computed by a {@link RetransmissionTimer} from the round-trip times of the earlier ones.
+ * Started with {@code --windowed} it uses the windowed protocol instead ({@link SlidingWindowSession}),
+ * sending binary framed chunks of up to {@link UdpFrame#MAX_PAYLOAD_SIZE} bytes (or the size given with {@code --payload=<bytes>}),
+ * several of them in flight at once, instead of waiting for an ACK after every datagram.
+ * Datagrams are received through a {@link UdpChannel} into a pooled direct buffer, and the numbers and "ACK"s of the legacy protocol
+ * are read from it without decoding a String.
+ * A server that does not take the request (busy, or the message too large) answers so instead of an ACK,
+ * and the client prints why and terminates instead of retrying.
  * <p>References:</p>
  * <ul>
  * <li>[1]{@code @source} lmn@isep.ipp.pt - 27/12/2023 -"UDPEchoClient.java" (unknown version) Type: source code
  * <li>[2]{@code @source} "Class DatagramSocket" - Official Java Documentation, Oracle. Provides detailed information on using DatagramSockets for UDP communication.</li>
  * <li>[3]{@code @source} "Class InetAddress" - Official Java Documentation, Oracle. Describes methods for converting hostnames to InetAddress objects, essential for UDP socket communication.</li>
  * <li>[4]{@code @source} "UDP Communication" - Oracle Java Tutorials. Offers a comprehensive guide on implementing UDP server and client in Java.</li>
+ * <li>[5]{@code @source} "Class DatagramChannel" - Official Java Documentation, Oracle. Describes the selectable channel for datagram-oriented sockets.</li>
  * </ul>
  */
 public class Client_java_UDP {
 
     /**
-     * The DatagramSocket used to send and receive data
+     * The channel used to send and receive data
      */
-    private DatagramSocket socket;
+    private UdpChannel channel;
     /**
-     * The maximum time to wait for a response from the server
+     * The maximum time to wait for the next datagram of the answer, long enough for the server
+     * to send a lost datagram again {@link #MAX_RETRIES} times with backoff
      */
-    private static final int MAX_TIMEOUT = 1000;
+    private static final int MAX_TIMEOUT = 15000;
+    /**
+     * How many times a datagram is sent again before giving up
+     */
+    private static final int MAX_RETRIES = 3;
+    /**
+     * Times the ACKs of the server
+     */
+    private final RetransmissionTimer ackTimer = new RetransmissionTimer();
     /**
      * The size of the buffer used to send and receive data
      */
@@ -39,24 +65,64 @@ public class Client_java_UDP {
      */
     private static final String ACK = "ACK";
     /**
-     * The IP address of the server
+     * Starts the answer of a server refusing the request because it is busy, followed by a space and the retry hint in milliseconds
+     */
+    private static final String BUSY = "BUSY ";
+    /**
+     * Starts the answer of a server refusing the request because the message is too large, followed by a space and the limit in bytes
+     */
+    private static final String TOO_LARGE = "TOO_LARGE ";
+    /**
+     * The address the server answers from, null until its first datagram arrives
+     */
+    private SocketAddress server;
+    /**
+     * The payload size asked for in the windowed protocol
      */
-    private InetAddress address;
+    private int payloadSize = UdpFrame.MAX_PAYLOAD_SIZE;
     /**
-     * The port number of the server
+     * The {@link CompactResponse} mode asked for in the legacy protocol, null for the classic answer
      */
-    private int port;
+    private String compactMode;
+    /**
+     * The pooled buffer every legacy datagram is received into
+     */
+    private ByteBuffer receiveBuffer;
+    /**
+     * The "ACK" sent to the server, sent again and again from the same buffer
+     */
+    private final ByteBuffer ackDatagram = ByteBuffer.allocateDirect(ACK.length()).put(ACK.getBytes(StandardCharsets.US_ASCII)).flip();
+    /**
+     * Collects the raw bytes of the parts of a message, decoded once when all of them arrived
+     */
+    private ByteBuffer partsBuffer = ByteBuffer.allocate(1024);
 
     /**
      * The main method of the client
      * It reads the IP address, port number, message and keyword from the user (console)
      * and sends the message to the server
      *
-     * @param args The command line arguments, inputting the port number only
+     * @param args The command line arguments, {@code --windowed} selects the windowed protocol
+     *             and {@code --payload=<bytes>} the payload size it asks for,
+     *             {@code --compact} asks for a compact answer in the legacy protocol ({@code --compact=offsets} with the offsets)
      * @throws IOException in case of an error with the socket
      */
     public static void main(String[] args) throws IOException {
+        boolean windowed = false;
+        int payloadSize = UdpFrame.MAX_PAYLOAD_SIZE;
+        String compactMode = null;
         try {
+            for (String arg : args) {
+                if (arg.equals("--windowed")) {
+                    windowed = true;
+                } else if (arg.startsWith("--payload=")) {
+                    payloadSize = Integer.parseInt(arg.substring("--payload=".length()));
+                } else if (arg.equals("--compact")) {
+                    compactMode = CompactResponse.MODE;
+                } else if (arg.equals("--compact=offsets")) {
+                    compactMode = CompactResponse.OFFSETS_MODE;
+                }
+            }
             BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
             System.out.print("Enter server name or IP address: ");
             String address1 = in.readLine();
@@ -73,19 +139,28 @@ public class Client_java_UDP {
                 System.exit(1);
             }
             Client_java_UDP client = new Client_java_UDP();
+            if (windowed) {
+                client.payloadSize = payloadSize;
+                client.sendDataWindowed(message, keyword, address, port);
+                return;
+            }
+            client.compactMode = compactMode;
             client.sendData(message, keyword, address, port);
             client.receiveData();
         } catch (NumberFormatException e) {
-            System.out.println("Invalid port format. Terminating!");
+            System.out.println("Invalid port or payload size format. Terminating!");
             System.exit(1);
         } catch (UnknownHostException e) {
             System.out.println("Could not connect to the server. Terminating!");
             System.exit(1);
+        } catch (ServerBusyException e) {
+            System.err.println(e.getMessage() + ". Terminating!");
+            System.exit(1);
         } catch (SocketTimeoutException e) {
             System.err.println("Connection timed out. Terminating!");
             System.exit(1);
         } catch (IOException e) {
-            System.err.println("Failed to send expression. Terminating!");
+            System.err.println(windowed && e.getMessage() != null ? e.getMessage() + ". Terminating!" : "Failed to send expression. Terminating!");
             System.exit(1);
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -94,16 +169,16 @@ public class Client_java_UDP {
 
     /**
      * The constructor of the client
-     * It initializes the DatagramSocket used to send and receive data
-     * defines the maximum time to wait for a response from the server
+     * It initializes the channel used to send and receive data
+     * (the maximum time to wait for a response from the server is given on every receive)
      *
      * @throws IOException in case of an error with the socket
      *                     printing the error message to the console
      */
     public Client_java_UDP() throws IOException {
         try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(MAX_TIMEOUT);
+            channel = UdpChannel.open();
+            receiveBuffer = channel.buffers().acquire();
         } catch (IOException e) {
             System.out.println("Socket error: " + e.getMessage());
         }
@@ -112,6 +187,7 @@ public class Client_java_UDP {
     /**
      * Sends the message and the keyword to the server
      * If the message is larger than the buffer size, it will be divided into parts and sent separately
+     * If a compact answer is wanted, the {@link CompactResponse} mode is sent first
      *
      * @param message The message to be sent
      * @param keyword The keyword to be sent
@@ -121,12 +197,16 @@ public class Client_java_UDP {
      */
     public void sendData(String message, String keyword, InetAddress address, int port) throws IOException {
         try {
+            SocketAddress target = new InetSocketAddress(address, port);
+            if (compactMode != null) {
+                sendPacket(compactMode.getBytes(StandardCharsets.UTF_8), target);
+            }
             String lengthMessage = String.valueOf(message.length());
             byte[] bufferLengthMessage = lengthMessage.getBytes();
             String bufferLengthMessageLength = String.valueOf(bufferLengthMessage.length);
             byte[] bufferLengthMessageLengthBytes = bufferLengthMessageLength.getBytes();
-            sendPacket(bufferLengthMessageLengthBytes, address, port);
-            sendPacket(bufferLengthMessage, address, port);
+            sendPacket(bufferLengthMessageLengthBytes, target);
+            sendPacket(bufferLengthMessage, target);
             String[] dividedMessage = divideString(message);
             String[] dividedKeyword = divideString(keyword);
             String numberOfPartsMessage = String.valueOf(dividedMessage.length);
@@ -137,13 +217,41 @@ public class Client_java_UDP {
             String bufferKeywordLength = String.valueOf(bufferNumberOfPartsKeyword.length);
             byte[] bufferMessageLengthBytes = bufferMessageLength.getBytes();
             byte[] bufferKeywordLengthBytes = bufferKeywordLength.getBytes();
-            sendPartsOfMessage(address, port, dividedMessage, bufferNumberOfPartsMessage, bufferMessageLengthBytes);
-            sendPartsOfMessage(address, port, dividedKeyword, bufferNumberOfPartsKeyword, bufferKeywordLengthBytes);
+            sendPartsOfMessage(target, dividedMessage, bufferNumberOfPartsMessage, bufferMessageLengthBytes);
+            sendPartsOfMessage(target, dividedKeyword, bufferNumberOfPartsKeyword, bufferKeywordLengthBytes);
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
     }
 
+    /**
+     * Sends the message and the keyword to the server with the windowed protocol and prints the answer.
+     * The request carries the length of the keyword, the keyword and the message, the answer carries
+     * the number of substitutions followed by the anonymized message
+     *
+     * @param message The message to be sent
+     * @param keyword The keyword to be sent
+     * @param address The IP address of the server
+     * @param port    The port number of the server
+     * @throws IOException in case of an error with the socket
+     */
+    public void sendDataWindowed(String message, String keyword, InetAddress address, int port) throws IOException {
+        byte[] keywordBytes = keyword.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.allocate(Integer.BYTES + keywordBytes.length + messageBytes.length);
+        request.putInt(keywordBytes.length).put(keywordBytes).put(messageBytes);
+        SlidingWindowSession session = new SlidingWindowSession(channel, new InetSocketAddress(address, port), payloadSize);
+        session.send(request.array());
+        ByteBuffer answer = ByteBuffer.wrap(session.receive());
+        int numberOfSocketProgrammings = answer.getInt();
+        StringBuilder sb = new StringBuilder();
+        sb.append(new String(answer.array(), answer.position(), answer.remaining(), StandardCharsets.UTF_8));
+        for (int i = 0; i < numberOfSocketProgrammings; i++) {
+            sb.append("\nSocket Programming");
+        }
+        System.out.println(sb);
+    }
+
     /**
      * Sends the whole message divided in Parts.
      * First sends 2 packets, one with the length of the Packet with the Number of Parts, receiving an ACK
@@ -152,22 +260,21 @@ public class Client_java_UDP {
      * then one with the actual substring, if its length matches the one sent before, receives an ACK
      * in the server size, buffer sizes are compared between the lengthbuffer and the actual length of the buffer and if they match, receives an ACK
      *
-     * @param address        The IP address of the server
-     * @param port           The port number of the server
+     * @param target         The address of the server
      * @param dividedMessage The message divided into parts
      * @param bufferData     The buffer containing the data to be sent
      * @param bufferLength   The buffer containing the length of the data to be sent
      * @throws IOException in case of an error with the socket
      */
-    private void sendPartsOfMessage(InetAddress address, int port, String[] dividedMessage, byte[] bufferData, byte[] bufferLength) throws IOException {
-        sendPacket(bufferLength, address, port);
-        sendPacket(bufferData, address, port);
+    private void sendPartsOfMessage(SocketAddress target, String[] dividedMessage, byte[] bufferData, byte[] bufferLength) throws IOException {
+        sendPacket(bufferLength, target);
+        sendPacket(bufferData, target);
         for (int i = 0; i < dividedMessage.length; i++) {
             byte[] buffer = dividedMessage[i].getBytes();
             String bufferLength1 = String.valueOf(buffer.length);
             byte[] bufferLengthBytes = bufferLength1.getBytes();
-            sendPacket(bufferLengthBytes, address, port);
-            sendPacket(buffer, address, port);
+            sendPacket(bufferLengthBytes, target);
+            sendPacket(buffer, target);
         }
     }
 
@@ -203,46 +310,79 @@ public class Client_java_UDP {
 
     /**
      * Sends a packet itself to the server (mechanism detailed in the sendPartsOfMessage method)
-     * sends the packet and waits for an ACK (first message always sent is the length of the packet, gets 100% an ACK
-     * then sends the actual data, and waits for an ACK, if it does not receive it, prints an error message to the console)
+     * sends the packet and waits for an ACK, sending it again every time the ACK times out, up to {@link #MAX_RETRIES} times
+     * (if it still does not receive it, prints an error message to the console and terminates).
+     * The round-trip time of a packet acknowledged the first time it was sent updates {@link #ackTimer},
+     * and every timeout backs it off
      *
-     * @param buffer  The buffer containing the data to be sent
-     * @param address The IP address of the server
-     * @param port    The port number of the server
+     * @param buffer The buffer containing the data to be sent
+     * @param target The address of the server
      * @throws IOException in case of an error with the socket
      */
-    private void sendPacket(byte[] buffer, InetAddress address, int port) throws IOException {
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, port);
-        socket.send(packet);
-        if (!waitForAck()) {
-            System.out.println("Communication failure: ACK not received. Terminating!");
-            System.exit(0);
+    private void sendPacket(byte[] buffer, SocketAddress target) throws IOException {
+        ByteBuffer packet = ByteBuffer.wrap(buffer);
+        for (int attempt = 0; ; attempt++) {
+            long sentAt = System.currentTimeMillis();
+            channel.send(packet.rewind(), target);
+            if (waitForAck()) {
+                if (attempt == 0) {
+                    ackTimer.onSample(System.currentTimeMillis() - sentAt);
+                }
+                return;
+            }
+            if (attempt == MAX_RETRIES) {
+                System.out.println("Communication failure: ACK not received after " + MAX_RETRIES + " retries. Terminating!");
+                System.exit(0);
+            }
+            ackTimer.backoff();
         }
     }
 
     /**
      * Waits for an acknowledgment message from the server
-     * creates a 5 byte sized buffer (enough to fit 'ACK')
-     * receives the packet and checks if the message is 'ACK'
+     * receives the datagram into {@link #receiveBuffer}, waiting for as long as {@link #ackTimer} says, and checks if the message is 'ACK'
+     * (if the server refused the request instead, prints why to the console and terminates)
      *
      * @return true if the acknowledgment message is received, false otherwise
      */
     private boolean waitForAck() {
-        byte[] buffer = new byte[5];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
         try {
-            socket.receive(packet);
-            String received = new String(packet.getData(), 0, packet.getLength());
-            return received.equalsIgnoreCase(ACK);
+            channel.receive(receiveBuffer, ackTimer.rto());
+            if (UdpChannel.equalsAscii(receiveBuffer, ACK, true)) {
+                return true;
+            }
+            exitIfRefused();
+            return false;
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Checks whether the datagram in {@link #receiveBuffer} refuses the request ("BUSY &lt;ms&gt;" or "TOO_LARGE &lt;bytes&gt;"),
+     * if so prints why to the console and terminates
+     */
+    private void exitIfRefused() {
+        String answer = StandardCharsets.US_ASCII.decode(receiveBuffer.duplicate()).toString();
+        try {
+            if (answer.startsWith(BUSY)) {
+                System.err.println(new ServerBusyException(Long.parseLong(answer.substring(BUSY.length()))).getMessage() + ". Terminating!");
+                System.exit(1);
+            }
+            if (answer.startsWith(TOO_LARGE)) {
+                System.err.println("Message too large for the server (at most " + Long.parseLong(answer.substring(TOO_LARGE.length())) + " bytes). Terminating!");
+                System.exit(1);
+            }
+        } catch (NumberFormatException e) {
+            // not a refusal, a stray datagram
+        }
+    }
+
     /**
      * Receives the answer from the server. First receives the number of Socket Programming strings it will receive,
      * then it receives the number of parts of the message, then the message itself, and then the Socket Programming strings
      * printing both the message and the Socket Programming strings to the console
+     * (a compact answer has no Socket Programming strings, see {@link #receiveCompactData})
      *
      * @throws IOException in case of an error with the socket
      */
@@ -250,54 +390,84 @@ public class Client_java_UDP {
         int numberOfSocketProgrammings = receiveNumberOfParts();
         int numberOfPartsMessage = receiveNumberOfParts();
         String message = receiveMessage(numberOfPartsMessage);
+        if (compactMode != null) {
+            receiveCompactData(message, numberOfSocketProgrammings);
+            return;
+        }
         String socketProgrammings = receiveMessage(numberOfSocketProgrammings);
         StringBuilder sb = new StringBuilder();
         sb.append(message).append(socketProgrammings);
         System.out.println(sb);
     }
 
+    /**
+     * Finishes receiving a compact answer and prints it like the classic one: the "Socket Programming"'s are expanded here
+     * from their number, and with offsets the {@link CompactResponse} record is received (in parts, in Base64) and its offsets printed
+     *
+     * @param message                    The anonymized message, already received
+     * @param numberOfSocketProgrammings The number of substitutions, already received
+     * @throws IOException in case of an error with the socket or an invalid record
+     */
+    private void receiveCompactData(String message, int numberOfSocketProgrammings) throws IOException {
+        StringBuilder sb = new StringBuilder(message);
+        if (numberOfSocketProgrammings > 0) {
+            sb.append('\n').append(CompactResponse.expand(numberOfSocketProgrammings));
+        }
+        if (CompactResponse.OFFSETS_MODE.equals(compactMode)) {
+            String line = receiveMessage(receiveNumberOfParts());
+            try {
+                sb.append("\nOffsets: ").append(Arrays.toString(CompactResponse.offsets(CompactResponse.fromLine(line))));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid compact answer: " + e.getMessage());
+            }
+        }
+        System.out.println(sb);
+    }
+
     /**
      * Receives the number of parts of the message from the server
      * receives the length of the number of parts, then the number of parts itself
-     * saves the IPAddress and the port of the server to parameters of the object to be used in other methods
-     * without direct access to these parameters
+     * saves the address of the server to a parameter of the object to be used in other methods
      * if the length of the number of parts does not match the length of the message, prints an error message to the console
      *
      * @return The number of parts of the message
      * @throws IOException in case of an error with the socket
      */
     private int receiveNumberOfParts() throws IOException {
-        byte[] lengthNumberofPartsBuffer = new byte[BUFFER_SIZE];
-        DatagramPacket lengthNumberOfPartsPacket = new DatagramPacket(lengthNumberofPartsBuffer, lengthNumberofPartsBuffer.length);
-        socket.receive(lengthNumberOfPartsPacket);
-        if (this.address == null || this.port == 0) {
-            this.address = lengthNumberOfPartsPacket.getAddress();
-            this.port = lengthNumberOfPartsPacket.getPort();
+        SocketAddress sender = receivePacket();
+        if (this.server == null) {
+            this.server = sender;
         }
-        sendACK(lengthNumberOfPartsPacket.getAddress(), lengthNumberOfPartsPacket.getPort());
-        int lengthNumberOfParts = Integer.parseInt(new String(lengthNumberOfPartsPacket.getData()).trim());
-        byte[] numberofPartsBuffer = new byte[BUFFER_SIZE];
-        DatagramPacket numberofPartsPacket = new DatagramPacket(numberofPartsBuffer, numberofPartsBuffer.length);
-        socket.receive(numberofPartsPacket);
-        if (lengthNumberOfParts != numberofPartsPacket.getLength()) {
+        sendACK(sender);
+        int lengthNumberOfParts = UdpChannel.parseInt(receiveBuffer);
+        sender = receivePacket();
+        if (lengthNumberOfParts != receiveBuffer.remaining()) {
             System.out.println("Error: Number of parts does not match the length of the message");
             System.exit(0);
         }
-        sendACK(numberofPartsPacket.getAddress(), numberofPartsPacket.getPort());
-        return Integer.parseInt(new String(numberofPartsPacket.getData()).trim());
+        sendACK(sender);
+        return UdpChannel.parseInt(receiveBuffer);
+    }
+
+    /**
+     * Receives the next legacy datagram into {@link #receiveBuffer}, between its position and limit
+     * (its content is only valid until the next call)
+     *
+     * @return The address of the sender
+     * @throws IOException in case of an error with the socket
+     */
+    private SocketAddress receivePacket() throws IOException {
+        return channel.receive(receiveBuffer, MAX_TIMEOUT);
     }
 
     /**
      * Sends an acknowledgment message to the server
      *
-     * @param address The IP address of the server
-     * @param port    The port number of the server
+     * @param target The address of the server
      * @throws IOException in case of an error with the socket
      */
-    private void sendACK(InetAddress address, int port) throws IOException {
-        byte[] ackBuffer = ACK.getBytes();
-        DatagramPacket ackPacket = new DatagramPacket(ackBuffer, ackBuffer.length, address, port);
-        socket.send(ackPacket);
+    private void sendACK(SocketAddress target) throws IOException {
+        channel.send(ackDatagram.rewind(), target);
     }
 
     /**
@@ -312,27 +482,25 @@ public class Client_java_UDP {
      */
 
     private String receiveMessage(int numberOfParts) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        partsBuffer.clear();
         for (int i = 0; i < numberOfParts; i++) {
-            byte[] bufferLength = new byte[BUFFER_SIZE];
-            DatagramPacket lengthPacket = new DatagramPacket(bufferLength, bufferLength.length);
-            socket.receive(lengthPacket);
-            if (this.address == null || this.port == 0) {
-                this.address = lengthPacket.getAddress();
-                this.port = lengthPacket.getPort();
+            SocketAddress sender = receivePacket();
+            if (this.server == null) {
+                this.server = sender;
             }
-            sendACK(lengthPacket.getAddress(), lengthPacket.getPort());
-            int length = Integer.parseInt(new String(lengthPacket.getData()).trim());
-            byte[] buffer = new byte[BUFFER_SIZE];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            socket.receive(packet);
-            if (length != packet.getLength()) {
+            sendACK(sender);
+            int length = UdpChannel.parseInt(receiveBuffer);
+            sender = receivePacket();
+            if (length != receiveBuffer.remaining()) {
                 System.out.println("Error: Length does not match the length of the message");
                 System.exit(0);
             }
-            sendACK(packet.getAddress(), packet.getPort());
-            sb.append(new String(packet.getData(), 0, packet.getLength()));
+            sendACK(sender);
+            if (partsBuffer.remaining() < length) {
+                partsBuffer = ByteBuffer.allocate(Math.max(2 * partsBuffer.capacity(), partsBuffer.position() + length)).put(partsBuffer.flip());
+            }
+            partsBuffer.put(receiveBuffer);
         }
-        return sb.toString();
+        return new String(partsBuffer.array(), 0, partsBuffer.position(), StandardCharsets.UTF_8);
     }
 }
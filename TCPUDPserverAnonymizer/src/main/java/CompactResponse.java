@@ -0,0 +1,190 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+
+/**
+ * The compact answer a client may ask for instead of one "Socket Programming" line per substitution:
+ * a record holding the number of substitutions and, if asked for, where each occurrence starts,
+ * so the size of the answer no longer grows with the number of substitutions (or only by a byte or two each).
+ * The record is a sequence of unsigned varints (7 bits per byte, least significant first, the high bit set on all but the last byte):
+ * the number of occurrences, then, with offsets, the start of every occurrence in ascending order (in chars of the String),
+ * each one as the difference from the previous one.
+ * Over TCP the record is sent as a line of Base64. The client expands it into the legacy lines if it wants them ({@link #expand(int)}).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Google (2023) "Protocol Buffers Encoding", Section "Base 128 Varints" [Official Documentation].
+ * <li>[2]{@code @source} IETF (2006) "The Base16, Base32, and Base64 Data Encodings" (RFC 4648), Section 4.
+ * </ul>
+ */
+public final class CompactResponse {
+    /**
+     * The mode a client asks for to get the compact answer with the number of substitutions only
+     */
+    public static final String MODE = "\u0001COMPACT";
+    /**
+     * The mode a client asks for to get the compact answer with the offsets of the occurrences
+     */
+    public static final String OFFSETS_MODE = "\u0001COMPACT+OFFSETS";
+    /**
+     * The line the legacy answer repeats once per substitution
+     */
+    public static final String SOCKET_PROGRAMMING = "Socket Programming";
+    /**
+     * The most bytes an int takes as a varint
+     */
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private CompactResponse() {
+    }
+
+    /**
+     * Tells if a mode line or datagram asks for a compact answer
+     *
+     * @param mode The line or datagram
+     * @return true for {@link #MODE} and {@link #OFFSETS_MODE}
+     */
+    public static boolean isMode(String mode) {
+        return MODE.equals(mode) || OFFSETS_MODE.equals(mode);
+    }
+
+    /**
+     * Encodes the record of an answer without offsets
+     *
+     * @param count The number of substitutions
+     * @return the record
+     */
+    public static byte[] encode(int count) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(MAX_VARINT_LENGTH);
+        writeVarint(record, count);
+        return record.toByteArray();
+    }
+
+    /**
+     * Decodes the number of substitutions of a record
+     *
+     * @param record The record
+     * @return the number of substitutions
+     * @throws IllegalArgumentException if the record is not valid
+     */
+    public static int count(byte[] record) {
+        int[] position = {0};
+        return readVarint(record, position);
+    }
+
+    /**
+     * Decodes the offsets of a record with offsets
+     *
+     * @param record The record
+     * @return the start of every occurrence, in ascending order
+     * @throws IllegalArgumentException if the record is not valid or has no offsets
+     */
+    public static int[] offsets(byte[] record) {
+        int[] position = {0};
+        int count = readVarint(record, position);
+        if (count > record.length - position[0]) {
+            throw new IllegalArgumentException("Compact answer is too short for " + count + " offsets");
+        }
+        int[] offsets = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarint(record, position);
+            offsets[i] = previous;
+        }
+        return offsets;
+    }
+
+    /**
+     * Encodes the record of an answer from the result of anonymizing its String, with offsets if the result holds them
+     *
+     * @param result The result, from {@link KeywordMatcher#anonymize(String, boolean)}
+     * @return the record
+     */
+    public static byte[] encode(AnonymizationResult result) {
+        if (!result.hasOffsets()) {
+            return encode(result.matchCount());
+        }
+        int count = result.matchCount();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(MAX_VARINT_LENGTH + count * 2);
+        writeVarint(record, count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = result.offset(i);
+            writeVarint(record, offset - previous);
+            previous = offset;
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Encodes a record as a line of text (Base64, without padding)
+     *
+     * @param record The record
+     * @return the line, without line terminator
+     */
+    public static String toLine(byte[] record) {
+        return Base64.getEncoder().withoutPadding().encodeToString(record);
+    }
+
+    /**
+     * Decodes a record sent as a line of text
+     *
+     * @param line The line
+     * @return the record
+     * @throws IllegalArgumentException if the line is not valid Base64
+     */
+    public static byte[] fromLine(String line) {
+        return Base64.getDecoder().decode(line);
+    }
+
+    /**
+     * Expands a number of substitutions into the lines of the legacy answer
+     *
+     * @param count The number of substitutions
+     * @return one "Socket Programming" line per substitution, separated (not ended) by '\n'
+     */
+    public static String expand(int count) {
+        return count == 0 ? "" : (SOCKET_PROGRAMMING + "\n").repeat(count - 1) + SOCKET_PROGRAMMING;
+    }
+
+    /**
+     * Writes an unsigned varint
+     *
+     * @param out   Where the varint is written
+     * @param value The value, never negative
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an unsigned varint
+     *
+     * @param record   The record
+     * @param position Where the varint starts, moved past its end
+     * @return the value
+     * @throws IllegalArgumentException if the varint is cut short or too long for an int
+     */
+    private static int readVarint(byte[] record, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < MAX_VARINT_LENGTH * 7; shift += 7) {
+            if (position[0] == record.length) {
+                throw new IllegalArgumentException("Compact answer ends in the middle of a number");
+            }
+            byte b = record[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Compact answer holds a number too large");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Compact answer holds a number too large");
+    }
+}
@@ -0,0 +1,79 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded pool of direct ByteBuffers, each big enough for any datagram of the UDP protocols ({@link #BUFFER_SIZE}).
+ * A {@link UdpChannel} receives straight into them, without the copy through a temporary direct buffer
+ * a heap buffer needs, and a {@link SlidingWindowReceiver} keeps the buffers holding its chunks until the message is assembled,
+ * then gives them back, so the same buffers are used again and again instead of allocating one per datagram.
+ * When the pool is empty a new buffer is allocated; when it is full a buffer given back is left to the garbage collector.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class ByteBuffer" (N/A) [Official Documentation], Section "Direct vs. non-direct buffers". Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class DatagramBufferPool {
+    /**
+     * The size of every buffer of the pool, the largest datagram of the windowed protocol
+     */
+    public static final int BUFFER_SIZE = UdpFrame.MAX_DATAGRAM_SIZE;
+    /**
+     * How many free buffers a pool keeps by default, enough for a few transfers of several hundred chunks
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The free buffers, a stack so the buffer most recently given back (still in cache) is used first
+     */
+    private final ByteBuffer[] free;
+    /**
+     * The number of free buffers
+     */
+    private int size;
+
+    /**
+     * Creates an empty pool, buffers are only allocated when first acquired
+     *
+     * @param capacity The most free buffers the pool keeps
+     */
+    public DatagramBufferPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.free = new ByteBuffer[capacity];
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if it is empty
+     *
+     * @return a cleared direct buffer of {@link #BUFFER_SIZE} bytes
+     */
+    public synchronized ByteBuffer acquire() {
+        if (size == 0) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        ByteBuffer buffer = free[--size];
+        free[size] = null;
+        return buffer.clear();
+    }
+
+    /**
+     * Gives a buffer back to the pool; the caller must not use it afterwards.
+     * Buffers that did not come from a pool (heap buffers or buffers of another size) are ignored
+     *
+     * @param buffer The buffer
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (size < free.length && buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+            free[size++] = buffer;
+        }
+    }
+
+    /**
+     * Returns the number of free buffers
+     *
+     * @return the number of buffers in the pool
+     */
+    public synchronized int available() {
+        return size;
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a receiver of the UDP server takes its datagrams from: a {@link UdpChannel} it reads itself,
+ * or its inbox of a {@link UdpDispatcher} reading a channel shared with other receivers.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class DatagramChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public interface DatagramSource {
+    /**
+     * Receives a datagram, waiting for it for at most the given time
+     *
+     * @param buffer  The buffer the datagram is received into; it is cleared first, and a datagram longer than it is truncated
+     * @param timeout How long to wait in milliseconds
+     * @return the address of the sender, the datagram being between position and limit of the buffer
+     * @throws SocketTimeoutException if no datagram arrived in time
+     * @throws IOException            in case of an error with the channel
+     */
+    SocketAddress receive(ByteBuffer buffer, int timeout) throws IOException;
+}
@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Anonymizes a UTF-8 file on disk into another file, for offline jobs on files of any size, with the same result
+ * as sending the text to the servers (a masked character becomes a single 'X', see {@link Utf8Masker}).
+ * The input is mapped ({@link FileChannel#map}) in regions that are anonymized in parallel on a {@link ForkJoinPool}.
+ * Each region is decoded into a direct CharBuffer together with {@code maxKeywordLength - 1} characters on each side,
+ * so occurrences crossing into a neighbouring region are found: the part of an occurrence inside the region is masked there,
+ * and the occurrence is only counted by the region it ends in. The masked region is encoded straight into the mapped output file.
+ * The text itself never goes through the Java heap, it goes from the mapped input to a direct buffer and back to the mapped output.
+ * <p>Every region is first written where it was in the input. Masking a character that takes more than one byte
+ * shrinks its region, so once every region is done the regions after it are moved down and the file is truncated;
+ * text without masked non-ASCII characters is written in place and never moved.
+ * <p>{@code java FileAnonymizer <input> <output> <keyword field>} prints the number of occurrences of each keyword.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class FileChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class MappedByteBuffer" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class FileAnonymizer {
+    /**
+     * The default number of bytes of the input in a region
+     */
+    public static final int DEFAULT_REGION_SIZE = 16 << 20;
+    /**
+     * The most bytes a UTF-8 character takes in a single UTF-16 char
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    /**
+     * The number of bytes moved at a time when the regions are moved down
+     */
+    private static final int MOVE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The result of anonymizing a file
+     *
+     * @param size      The size of the output file, in bytes
+     * @param hitCounts The number of occurrences of each keyword, in the order the keywords were given
+     */
+    public record Result(long size, Map<String, Long> hitCounts) {
+        /**
+         * Returns the number of occurrences of all keywords together
+         *
+         * @return the number of occurrences
+         */
+        public long matchCount() {
+            long total = 0;
+            for (long hits : hitCounts.values()) {
+                total += hits;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * The keywords
+     */
+    private final KeywordMatcher matcher;
+    /**
+     * Runs the regions
+     */
+    private final ForkJoinPool pool;
+    /**
+     * The most bytes of the input in a region
+     */
+    private final int regionSize;
+
+    /**
+     * Creates a file anonymizer running on the common pool with regions of {@link #DEFAULT_REGION_SIZE} bytes
+     *
+     * @param matcher The keywords
+     */
+    public FileAnonymizer(KeywordMatcher matcher) {
+        this(matcher, ForkJoinPool.commonPool(), DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Creates a file anonymizer
+     *
+     * @param matcher    The keywords
+     * @param pool       Runs the regions
+     * @param regionSize The most bytes of the input in a region
+     */
+    public FileAnonymizer(KeywordMatcher matcher, ForkJoinPool pool, int regionSize) {
+        if (regionSize < 1) {
+            throw new IllegalArgumentException("Region size must be positive");
+        }
+        this.matcher = matcher;
+        this.pool = pool;
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * Anonymizes a file into another file
+     *
+     * @param args The input file, the output file and the keyword field (several keywords may be separated by tabs)
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.out.println("Usage: java FileAnonymizer <input> <output> <keyword field>");
+            System.exit(1);
+        }
+        List<String> keywords = KeywordMatcher.splitKeywords(args[2]);
+        if (keywords.isEmpty()) {
+            System.err.println("Did not receive a valid keyword. Terminating!");
+            System.exit(1);
+        }
+        try {
+            long started = System.nanoTime();
+            Result result = new FileAnonymizer(KeywordMatcher.compile(keywords)).anonymize(Path.of(args[0]), Path.of(args[1]));
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            result.hitCounts().forEach((keyword, hits) -> System.out.println(keyword + ": " + hits));
+            System.out.println("Substitutions: " + result.matchCount() + ", " + result.size() + " bytes written in " + millis + " ms");
+        } catch (IOException e) {
+            System.err.println("Failed to anonymize " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Anonymizes a file into another file
+     *
+     * @param input  The UTF-8 file to be anonymized
+     * @param output The file written, replaced if it exists
+     * @return the size of the output and the number of occurrences of each keyword
+     * @throws CharacterCodingException if the input is not valid UTF-8
+     * @throws IOException              in case of an error reading or writing the files, or if both are the same file
+     */
+    public Result anonymize(Path input, Path output) throws IOException {
+        if (Files.exists(output) && Files.isSameFile(input, output)) {
+            throw new IOException("Input and output are the same file");
+        }
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            if (size > 0) {
+                out.write(ByteBuffer.allocate(1), size - 1); // sizes the output, the regions are then mapped inside it
+            }
+            int overlap = (matcher.maxKeywordLength() - 1) * MAX_BYTES_PER_CHAR;
+            Queue<CharBuffer> buffers = new ConcurrentLinkedQueue<>();
+            List<RegionTask> regions = new ArrayList<>();
+            long start = 0;
+            while (start < size) {
+                long end = charBoundary(in, Math.min(size, start + regionSize), size);
+                regions.add(new RegionTask(in, out, size, start, end, overlap, buffers));
+                start = end;
+            }
+            try {
+                pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(regions), null));
+            } catch (UncheckedIOException e) {
+                // the pool may wrap the exception of a task once more to add the stack of the caller
+                Throwable cause = e;
+                while (!(cause instanceof IOException)) {
+                    cause = cause.getCause();
+                }
+                throw (IOException) cause;
+            }
+            return finish(out, regions);
+        }
+    }
+
+    /**
+     * Moves the regions that follow a shrunk region down, truncates the output and adds up the occurrences
+     *
+     * @param out     The output file
+     * @param regions The regions, all done
+     * @return the size of the output and the number of occurrences of each keyword
+     * @throws IOException in case of an error writing the output
+     */
+    private Result finish(FileChannel out, List<RegionTask> regions) throws IOException {
+        long[] hits = new long[matcher.keywords().size()];
+        long position = 0;
+        ByteBuffer move = null;
+        for (RegionTask region : regions) {
+            if (position < region.start) {
+                if (move == null) {
+                    move = ByteBuffer.allocateDirect(MOVE_BUFFER_SIZE);
+                }
+                for (long moved = 0; moved < region.written; ) {
+                    move.clear().limit((int) Math.min(MOVE_BUFFER_SIZE, region.written - moved));
+                    while (move.hasRemaining()) {
+                        if (out.read(move, region.start + moved + move.position()) < 0) {
+                            throw new IOException("Output ended while moving a region");
+                        }
+                    }
+                    move.flip();
+                    while (move.hasRemaining()) {
+                        out.write(move, position + moved + move.position());
+                    }
+                    moved += move.limit();
+                }
+            }
+            position += region.written;
+            for (int k = 0; k < hits.length; k++) {
+                hits[k] += region.hits[k];
+            }
+        }
+        out.truncate(position);
+        Map<String, Long> hitCounts = new LinkedHashMap<>();
+        for (int k = 0; k < hits.length; k++) {
+            hitCounts.put(matcher.keywords().get(k), hits[k]);
+        }
+        return new Result(position, hitCounts);
+    }
+
+    /**
+     * Moves a position of the input forward to the start of a character, so regions never split one
+     *
+     * @param in       The input file
+     * @param position The position
+     * @param size     The size of the input
+     * @return the first position at or after the given one that does not hold a continuation byte
+     * @throws IOException in case of an error reading the input
+     */
+    private static long charBoundary(FileChannel in, long position, long size) throws IOException {
+        ByteBuffer next = ByteBuffer.allocate(1);
+        while (position < size) {
+            next.clear();
+            in.read(next, position);
+            if (!isContinuation(next.get(0))) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * @param b A byte of UTF-8
+     * @return true if the byte continues a character instead of starting one
+     */
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Anonymizes one region of the input into the same place in the output.
+     * Tasks hold open channels and are never serialized, though ForkJoinTask is Serializable
+     */
+    @SuppressWarnings("serial")
+    private final class RegionTask extends RecursiveAction {
+        /**
+         * The input file
+         */
+        private final FileChannel in;
+        /**
+         * The output file
+         */
+        private final FileChannel out;
+        /**
+         * The size of the input
+         */
+        private final long size;
+        /**
+         * Where the region starts in the input, at the start of a character
+         */
+        private final long start;
+        /**
+         * Where the region ends in the input (exclusive), at the start of a character
+         */
+        private final long end;
+        /**
+         * The bytes decoded on each side of the region, enough for {@code maxKeywordLength - 1} characters
+         */
+        private final int overlap;
+        /**
+         * The direct buffers the regions decode into, reused from one region to the next
+         */
+        private final Queue<CharBuffer> buffers;
+        /**
+         * The number of occurrences of each keyword ending in the region, once done
+         */
+        private long[] hits;
+        /**
+         * The number of bytes written, once done
+         */
+        private int written;
+
+        /**
+         * @param in      The input file
+         * @param out     The output file
+         * @param size    The size of the input
+         * @param start   Where the region starts in the input
+         * @param end     Where the region ends in the input (exclusive)
+         * @param overlap The bytes decoded on each side of the region
+         * @param buffers The direct buffers the regions decode into
+         */
+        private RegionTask(FileChannel in, FileChannel out, long size, long start, long end, int overlap, Queue<CharBuffer> buffers) {
+            this.in = in;
+            this.out = out;
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.overlap = overlap;
+            this.buffers = buffers;
+        }
+
+        @Override
+        protected void compute() {
+            // a little more than the overlap is mapped, so the window can be moved to the start of a character
+            long mapStart = Math.max(0, start - overlap - MAX_BYTES_PER_CHAR);
+            long mapEnd = Math.min(size, end + overlap + MAX_BYTES_PER_CHAR);
+            CharBuffer chars = buffers.poll();
+            int capacity = (int) (mapEnd - mapStart);
+            if (chars == null || chars.capacity() < capacity) {
+                chars = ByteBuffer.allocateDirect(capacity * Character.BYTES).order(ByteOrder.nativeOrder()).asCharBuffer();
+            }
+            try {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                int regionFrom = (int) (start - mapStart);
+                int regionTo = (int) (end - mapStart);
+                int windowFrom = Math.max(0, regionFrom - overlap);
+                while (windowFrom > 0 && isContinuation(window.get(windowFrom))) {
+                    windowFrom--;
+                }
+                int windowTo = Math.min(window.limit(), regionTo + overlap);
+                while (windowTo < window.limit() && isContinuation(window.get(windowTo))) {
+                    windowTo++;
+                }
+
+                CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+                chars.clear();
+                decode(decoder, window.slice(windowFrom, regionFrom - windowFrom), chars);
+                int ownFrom = chars.position();
+                decode(decoder, window.slice(regionFrom, regionTo - regionFrom), chars);
+                int ownTo = chars.position();
+                decode(decoder, window.slice(regionTo, windowTo - regionTo), chars);
+                chars.flip();
+
+                RegionMasker masker = new RegionMasker(chars, ownFrom, ownTo, matcher.keywords().size());
+                matcher.scan(chars, 0, chars.limit(), masker);
+                masker.finish();
+                hits = masker.hits;
+
+                MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, start, end - start);
+                CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+                chars.limit(ownTo).position(ownFrom);
+                CoderResult result = encoder.encode(chars, target, true);
+                if (result.isUnderflow()) {
+                    result = encoder.flush(target);
+                }
+                if (!result.isUnderflow()) {
+                    result.throwException();
+                }
+                written = target.position();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                buffers.offer(chars);
+            }
+        }
+
+        /**
+         * Decodes a part of the window after what was already decoded
+         *
+         * @param decoder The decoder
+         * @param bytes   The part of the window, starting and ending at the start of a character
+         * @param chars   Receives the characters
+         * @throws CharacterCodingException if the bytes are not valid UTF-8
+         */
+        private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars) throws CharacterCodingException {
+            decoder.reset();
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(chars);
+            }
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Masks the part of every occurrence inside a region and counts the occurrences ending in it
+     */
+    private static final class RegionMasker extends MatchMasker {
+        /**
+         * The decoded window
+         */
+        private final CharBuffer chars;
+        /**
+         * Where the region starts in the window
+         */
+        private final int ownFrom;
+        /**
+         * Where the region ends in the window (exclusive)
+         */
+        private final int ownTo;
+        /**
+         * The number of occurrences of each keyword ending in the region
+         */
+        private final long[] hits;
+
+        /**
+         * @param chars    The decoded window
+         * @param ownFrom  Where the region starts in the window
+         * @param ownTo    Where the region ends in the window (exclusive)
+         * @param keywords The number of keywords
+         */
+        private RegionMasker(CharBuffer chars, int ownFrom, int ownTo, int keywords) {
+            super(null);
+            this.chars = chars;
+            this.ownFrom = ownFrom;
+            this.ownTo = ownTo;
+            this.hits = new long[keywords];
+        }
+
+        @Override
+        public void onMatch(int keyword, int start, int end) {
+            if (end > ownFrom && start < ownTo) {
+                if (end <= ownTo) {
+                    hits[keyword]++;
+                }
+                super.onMatch(keyword, start, end);
+            }
+        }
+
+        @Override
+        void fill(int from, int to) {
+            for (int i = Math.max(from, ownFrom); i < Math.min(to, ownTo); i++) {
+                chars.put(i, 'X');
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds many keywords at once (case-insensitive) with an Aho-Corasick automaton, so a message is scanned once
+ * no matter how many keywords are anonymized, instead of once per keyword.
+ * The keywords are compiled into a deterministic automaton over the characters that appear in them:
+ * each character of the message costs one table lookup, and every occurrence of every keyword is reported,
+ * overlapping occurrences included (like {@code Anonymizer.startingPositions}).
+ * A compiled automaton is immutable and can be shared between threads.
+ * <p>The table has one row per state and one column per character class, so it grows with the length of the keywords
+ * times the number of distinct characters in them. When it would be larger than {@link #MAX_DENSE_TRANSITIONS}, only the
+ * edges of the trie are kept, sorted by class, and the scan follows the failure links: memory stays linear in the length
+ * of the keywords, at the cost of a few binary searches per character.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} A. Aho, M. Corasick (1975) "Efficient string matching: an aid to bibliographic search". Communications of the ACM 18(6).
+ * </ul>
+ */
+public final class KeywordAutomaton implements KeywordMatcher {
+    /**
+     * The most entries of the complete transition table, 4M ints (16 MiB): beyond that the automaton follows
+     * the failure links while scanning instead
+     */
+    private static final long MAX_DENSE_TRANSITIONS = 1 << 22;
+
+    /**
+     * The distinct keywords, as first given
+     */
+    private final List<String> keywords;
+    /**
+     * The length of each keyword
+     */
+    private final int[] keywordLengths;
+    /**
+     * The character class of each ASCII character (the class of its folded case), 0 for characters in no keyword
+     */
+    private final int[] asciiClass = new int[128];
+    /**
+     * The non ASCII (folded) characters that appear in the keywords, sorted
+     */
+    private final char[] otherChars;
+    /**
+     * The character class of each of {@link #otherChars}
+     */
+    private final int[] otherClass;
+    /**
+     * The number of character classes, class 0 included
+     */
+    private final int alphabetSize;
+    /**
+     * The transition table: next state = transitions[state * alphabetSize + class], null if it would be too large
+     */
+    private final int[] transitions;
+    /**
+     * Where the children of each state start in {@link #childClass} and {@link #childState}, the children of state s
+     * ending where those of state s + 1 start
+     */
+    private final int[] childStart;
+    /**
+     * The class leading to each child, sorted by class for the children of a state
+     */
+    private final int[] childClass;
+    /**
+     * Each child, in the order of {@link #childClass}
+     */
+    private final int[] childState;
+    /**
+     * The failure link of each state: the longest proper suffix of its path that is also a path of the trie
+     */
+    private final int[] failure;
+    /**
+     * The keyword ending exactly at each state, -1 if none
+     */
+    private final int[] keywordAt;
+    /**
+     * The closest state on the failure chain of each state where a keyword ends, -1 if none
+     */
+    private final int[] outputLink;
+    /**
+     * Whether any keyword ends at each state (directly or through {@link #outputLink})
+     */
+    private final boolean[] hasOutput;
+    /**
+     * The length of the longest keyword
+     */
+    private final int maxKeywordLength;
+
+    /**
+     * Compiles the automaton, see {@link #compile(Collection)}
+     *
+     * @param keywords The distinct keywords
+     * @param folded   The keywords with their case folded
+     */
+    private KeywordAutomaton(List<String> keywords, List<char[]> folded) {
+        this.keywords = Collections.unmodifiableList(keywords);
+        this.keywordLengths = new int[keywords.size()];
+        int totalLength = 0;
+        int longest = 0;
+        TreeSet<Character> alphabet = new TreeSet<>();
+        for (int k = 0; k < folded.size(); k++) {
+            char[] keyword = folded.get(k);
+            keywordLengths[k] = keyword.length;
+            totalLength += keyword.length;
+            longest = Math.max(longest, keyword.length);
+            for (char c : keyword) {
+                alphabet.add(c);
+            }
+        }
+        this.maxKeywordLength = longest;
+
+        // character classes: 1..n for the characters of the keywords, 0 for everything else
+        int[] foldedAsciiClass = new int[128];
+        List<Character> others = new ArrayList<>();
+        int nextClass = 1;
+        for (char c : alphabet) {
+            if (c < 128) {
+                foldedAsciiClass[c] = nextClass++;
+            } else {
+                others.add(c);
+            }
+        }
+        this.otherChars = new char[others.size()];
+        this.otherClass = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            otherChars[i] = others.get(i);
+            otherClass[i] = nextClass++;
+        }
+        for (char c = 0; c < 128; c++) {
+            asciiClass[c] = foldedAsciiClass[CaseFolding.fold(c)];
+        }
+        this.alphabetSize = nextClass;
+
+        // trie: every state but the root is reached from a single parent with a single class
+        int maxStates = totalLength + 1;
+        int[] parent = new int[maxStates];
+        int[] via = new int[maxStates];
+        int[] ending = new int[maxStates];
+        Arrays.fill(ending, -1);
+        Map<Long, Integer> edges = new HashMap<>();
+        int states = 1;
+        for (int k = 0; k < folded.size(); k++) {
+            int state = 0;
+            for (char c : folded.get(k)) {
+                long edge = (long) state * alphabetSize + classOfFolded(c);
+                Integer child = edges.get(edge);
+                if (child == null) {
+                    child = states++;
+                    edges.put(edge, child);
+                    parent[child] = state;
+                    via[child] = classOfFolded(c);
+                }
+                state = child;
+            }
+            ending[state] = k;
+        }
+
+        // children of each state sorted by class: a counting sort by class, then a stable one by parent
+        int[] classStart = new int[alphabetSize + 1];
+        for (int s = 1; s < states; s++) {
+            classStart[via[s] + 1]++;
+        }
+        for (int c = 0; c < alphabetSize; c++) {
+            classStart[c + 1] += classStart[c];
+        }
+        int[] byClass = new int[states - 1];
+        for (int s = 1; s < states; s++) {
+            byClass[classStart[via[s]]++] = s;
+        }
+        int[] firstChild = new int[states + 1];
+        for (int s = 1; s < states; s++) {
+            firstChild[parent[s] + 1]++;
+        }
+        for (int s = 0; s < states; s++) {
+            firstChild[s + 1] += firstChild[s];
+        }
+        int[] fill = Arrays.copyOf(firstChild, states);
+        int[] children = new int[states - 1];
+        int[] childClasses = new int[states - 1];
+        for (int s : byClass) {
+            int e = fill[parent[s]]++;
+            children[e] = s;
+            childClasses[e] = via[s];
+        }
+
+        // failure links (breadth first), resolved into a complete transition table when it is small enough
+        boolean dense = (long) states * alphabetSize <= MAX_DENSE_TRANSITIONS;
+        int[] table = dense ? new int[states * alphabetSize] : null;
+        this.childStart = firstChild;
+        this.childClass = childClasses;
+        this.childState = children;
+        this.failure = new int[states];
+        int[] links = new int[states];
+        Arrays.fill(links, -1);
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int state = queue[head++];
+            if (dense && state != 0) {
+                System.arraycopy(table, failure[state] * alphabetSize, table, state * alphabetSize, alphabetSize);
+            }
+            for (int e = firstChild[state]; e < firstChild[state + 1]; e++) {
+                int child = children[e];
+                int c = childClasses[e];
+                int fallback = state == 0 ? 0 : dense ? table[failure[state] * alphabetSize + c] : next(failure[state], c);
+                failure[child] = fallback;
+                links[child] = ending[fallback] >= 0 ? fallback : links[fallback];
+                if (dense) {
+                    table[state * alphabetSize + c] = child;
+                }
+                queue[tail++] = child;
+            }
+        }
+        this.transitions = table;
+        this.keywordAt = Arrays.copyOf(ending, states);
+        this.outputLink = links;
+        this.hasOutput = new boolean[states];
+        for (int s = 0; s < states; s++) {
+            hasOutput[s] = keywordAt[s] >= 0 || outputLink[s] >= 0;
+        }
+    }
+
+    /**
+     * Compiles an automaton for a set of keywords. Keywords that only differ in case are the same keyword
+     * (the first spelling is kept)
+     *
+     * @param keywords The keywords to be found
+     * @return The compiled automaton
+     * @throws NullPointerException     if the collection or any keyword is null
+     * @throws IllegalArgumentException if there are no keywords or a keyword is empty
+     */
+    public static KeywordAutomaton compile(Collection<String> keywords) {
+        if (keywords.isEmpty()) {
+            throw new IllegalArgumentException("At least one keyword is needed");
+        }
+        Map<String, String> distinct = new LinkedHashMap<>();
+        for (String keyword : keywords) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Keywords can not be empty");
+            }
+            distinct.putIfAbsent(new String(CaseFolding.fold(keyword)), keyword);
+        }
+        List<char[]> folded = new ArrayList<>();
+        for (String key : distinct.keySet()) {
+            folded.add(key.toCharArray());
+        }
+        return new KeywordAutomaton(new ArrayList<>(distinct.values()), folded);
+    }
+
+    @Override
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    @Override
+    public int maxKeywordLength() {
+        return maxKeywordLength;
+    }
+
+    @Override
+    public void scan(CharSequence text, int from, int to, MatchSink sink) {
+        int state = 0;
+        if (transitions == null) {
+            for (int i = from; i < to; i++) {
+                int c = classOf(text, i);
+                state = c == 0 ? 0 : next(state, c);
+                if (hasOutput[state]) {
+                    report(state, i + 1, sink);
+                }
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            state = transitions[state * alphabetSize + classOf(text, i)];
+            if (hasOutput[state]) {
+                report(state, i + 1, sink);
+            }
+        }
+    }
+
+    /**
+     * Finds the next state without the transition table, following the failure links until a state has a child for the class
+     *
+     * @param state The current state
+     * @param c     The class of the character read
+     * @return the next state
+     */
+    private int next(int state, int c) {
+        while (true) {
+            int child = Arrays.binarySearch(childClass, childStart[state], childStart[state + 1], c);
+            if (child >= 0) {
+                return childState[child];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Reports the keywords ending at a state
+     *
+     * @param state The state reached
+     * @param end   The position right after the last character read
+     * @param sink  Receives the occurrences
+     */
+    private void report(int state, int end, MatchSink sink) {
+        int s = keywordAt[state] >= 0 ? state : outputLink[state];
+        while (s >= 0) {
+            int keyword = keywordAt[s];
+            sink.onMatch(keyword, end - keywordLengths[keyword], end);
+            s = outputLink[s];
+        }
+    }
+
+    /**
+     * Returns the character class of a character of the text, a character outside ASCII may fold into it ("K" for Kelvin)
+     *
+     * @param text  The text
+     * @param index The index of the character
+     * @return the class, 0 if the character is in no keyword
+     */
+    private int classOf(CharSequence text, int index) {
+        char c = text.charAt(index);
+        return c < 128 ? asciiClass[c] : classOfFolded(CaseFolding.fold(text, index));
+    }
+
+    /**
+     * Returns the character class of a character whose case is already folded
+     *
+     * @param c The folded character
+     * @return the class, 0 if the character is in no keyword
+     */
+    private int classOfFolded(char c) {
+        return c < 128 ? asciiClass[c] : otherClassOf(c);
+    }
+
+    /**
+     * Looks up the class of a non ASCII folded character
+     *
+     * @param c The folded character
+     * @return the class, 0 if the character is in no keyword
+     */
+    private int otherClassOf(char c) {
+        int index = Arrays.binarySearch(otherChars, c);
+        return index >= 0 ? otherClass[index] : 0;
+    }
+}
@@ -0,0 +1,164 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of keywords compiled once so it can anonymize any number of Strings without preparing the keywords again.
+ * Matching is case-insensitive and reports every occurrence, overlapping occurrences included.
+ * Case is folded with {@link CaseFolding} (Unicode simple case folding, the same for every locale), which keeps every
+ * character in its place, so positions in the folded text are positions in the original text.
+ * Implementations are immutable and can be shared between threads (see {@link KeywordMatcherCache}).
+ * Besides Strings, text can be anonymized in place in a CharBuffer or in a ByteBuffer of UTF-8,
+ * reporting the positions of the occurrences in a caller supplied int[], so no copy of the text is made.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class Character" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public interface KeywordMatcher {
+    /**
+     * Separates the keywords when a request carries more than one keyword in its keyword field
+     */
+    char KEYWORD_SEPARATOR = '\t';
+
+    /**
+     * Receives every occurrence found by {@link #scan(CharSequence, int, int, MatchSink)}, in order of end position
+     */
+    @FunctionalInterface
+    interface MatchSink {
+        /**
+         * Called for each occurrence of a keyword
+         *
+         * @param keyword The index of the keyword in {@link #keywords()}
+         * @param start   Where the occurrence starts (inclusive)
+         * @param end     Where the occurrence ends (exclusive)
+         */
+        void onMatch(int keyword, int start, int end);
+    }
+
+    /**
+     * Returns the keywords of the matcher, in the order given (duplicates removed)
+     *
+     * @return the keywords
+     */
+    List<String> keywords();
+
+    /**
+     * Returns the length of the longest keyword, an occurrence never spans more characters than this
+     *
+     * @return the length of the longest keyword
+     */
+    int maxKeywordLength();
+
+    /**
+     * Reports every occurrence of every keyword in a range of a text, in order of end position
+     *
+     * @param text The text to be scanned
+     * @param from Where the scan starts (inclusive)
+     * @param to   Where the scan ends (exclusive)
+     * @param sink Receives the occurrences
+     */
+    void scan(CharSequence text, int from, int to, MatchSink sink);
+
+    /**
+     * Replaces every occurrence of every keyword with 'X's (one per character) and counts the occurrences of each keyword
+     *
+     * @param input The String to be anonymized
+     * @return The anonymized String and the number of occurrences of each keyword
+     * @throws NullPointerException if the input is null
+     */
+    default AnonymizationResult anonymize(String input) {
+        return anonymize(input, false);
+    }
+
+    /**
+     * Replaces every occurrence of every keyword with 'X's, counts the occurrences of each keyword and,
+     * if asked for, finds where every occurrence starts, all in a single scan of the String
+     *
+     * @param input       The String to be anonymized
+     * @param withOffsets Whether the result holds the start of every occurrence ({@link AnonymizationResult#offsets()})
+     * @return The anonymized String, the number of occurrences of each keyword and, if asked for, their starts
+     * @throws NullPointerException if the input is null
+     */
+    default AnonymizationResult anonymize(String input, boolean withOffsets) {
+        MatchMasker.OfString masker = new MatchMasker.OfString(input, keywords().size(), withOffsets);
+        scan(input, 0, input.length(), masker);
+        return masker.result(keywords());
+    }
+
+    /**
+     * Replaces every occurrence of every keyword with 'X's in place, without copying the text
+     *
+     * @param text      The text, between its position and limit (both left unchanged)
+     * @param positions Receives the start of the first occurrences, relative to the position of the buffer, may be null
+     * @return the number of occurrences (may be larger than the positions array)
+     * @throws java.nio.ReadOnlyBufferException if the buffer is read-only and an occurrence is found
+     */
+    default int anonymize(CharBuffer text, int[] positions) {
+        MatchMasker.OfCharBuffer masker = new MatchMasker.OfCharBuffer(text, positions);
+        scan(text, 0, text.remaining(), masker);
+        masker.finish();
+        return masker.count();
+    }
+
+    /**
+     * Replaces every occurrence of every keyword with 'X's in place in UTF-8 text, see {@link Utf8Masker}
+     *
+     * @param utf8      The UTF-8 text, between its position and limit; the limit is moved to the end of the masked text
+     * @param positions Receives the start of the first occurrences, in characters from the start of the text, may be null
+     * @return the number of occurrences (may be larger than the positions array)
+     * @throws CharacterCodingException if the bytes are not valid UTF-8, the buffer is then left unchanged
+     */
+    default int anonymize(ByteBuffer utf8, int[] positions) throws CharacterCodingException {
+        Utf8Masker masker = Utf8Masker.acquire();
+        try {
+            return masker.anonymize(this, utf8, positions);
+        } finally {
+            Utf8Masker.release(masker);
+        }
+    }
+
+    /**
+     * Compiles the best matcher for a set of keywords: a {@link SingleKeywordMatcher} for one keyword
+     * (a {@link VectorKeywordMatcher} for a short one if the JVM has the Vector API), a {@link KeywordAutomaton} for several
+     *
+     * @param keywords The keywords to be found
+     * @return The compiled matcher
+     * @throws NullPointerException     if the list or any keyword is null
+     * @throws IllegalArgumentException if there are no keywords or a keyword is empty
+     */
+    static KeywordMatcher compile(List<String> keywords) {
+        if (keywords.size() == 1) {
+            if (ModuleLayer.boot().findModule(VectorKeywordMatcher.MODULE).isPresent() && VectorKeywordMatcher.isWorthwhile(keywords.get(0).length())) {
+                return new VectorKeywordMatcher(keywords.get(0));
+            }
+            return new SingleKeywordMatcher(keywords.get(0));
+        }
+        return KeywordAutomaton.compile(keywords);
+    }
+
+    /**
+     * Splits the keyword field of a request into its keywords (separated by {@link #KEYWORD_SEPARATOR}),
+     * a field without separators is a single keyword
+     *
+     * @param keywordField The keyword field as sent by the client
+     * @return The keywords, empty ones dropped
+     */
+    static List<String> splitKeywords(String keywordField) {
+        List<String> keywords = new ArrayList<>();
+        int start = 0;
+        while (start <= keywordField.length()) {
+            int end = keywordField.indexOf(KEYWORD_SEPARATOR, start);
+            if (end < 0) {
+                end = keywordField.length();
+            }
+            if (end > start) {
+                keywords.add(keywordField.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return keywords;
+    }
+}
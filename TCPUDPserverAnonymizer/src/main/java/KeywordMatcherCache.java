@@ -0,0 +1,202 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the most recently used {@link KeywordMatcher}s, keyed by their keyword list, so that clients that keep
+ * sending the same keywords only pay for compiling them once. The cache is bounded: when it is full,
+ * the least recently used matcher is evicted. Hits, misses and evictions are counted.
+ * Matchers are compiled outside the lock, so a slow compilation never blocks lookups of other keywords.
+ * A keyword field from a client is only compiled if it holds at most {@code -Danonymizer.limits.keywords} keywords
+ * and {@code -Danonymizer.limits.keywordChars} characters, so a client can not make the server build a huge matcher.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class LinkedHashMap" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class LongAdder" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class KeywordMatcherCache {
+    /**
+     * The default maximum number of matchers kept
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The most keywords in a keyword field ({@code -Danonymizer.limits.keywords=1024})
+     */
+    public static final String MAX_KEYWORDS_PROPERTY = "anonymizer.limits.keywords";
+    /**
+     * The most characters in a keyword field ({@code -Danonymizer.limits.keywordChars=65536})
+     */
+    public static final String MAX_KEYWORD_CHARS_PROPERTY = "anonymizer.limits.keywordChars";
+    /**
+     * The most keywords in a keyword field when {@link #MAX_KEYWORDS_PROPERTY} is not set
+     */
+    private static final int DEFAULT_MAX_KEYWORDS = 1024;
+    /**
+     * The most characters in a keyword field when {@link #MAX_KEYWORD_CHARS_PROPERTY} is not set
+     */
+    private static final int DEFAULT_MAX_KEYWORD_CHARS = 65536;
+
+    /**
+     * The maximum number of matchers kept
+     */
+    private final int capacity;
+    /**
+     * The most keywords in a keyword field
+     */
+    private final int maxKeywords = Integer.getInteger(MAX_KEYWORDS_PROPERTY, DEFAULT_MAX_KEYWORDS);
+    /**
+     * The most characters in a keyword field
+     */
+    private final int maxKeywordChars = Integer.getInteger(MAX_KEYWORD_CHARS_PROPERTY, DEFAULT_MAX_KEYWORD_CHARS);
+    /**
+     * The matchers, in access order (least recently used first)
+     */
+    private final Map<List<String>, KeywordMatcher> matchers;
+    /**
+     * Lookups answered from the cache
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * Lookups that had to compile a matcher
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * Matchers evicted to make room for others
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache
+     *
+     * @param capacity The maximum number of matchers kept
+     */
+    public KeywordMatcherCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.matchers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, KeywordMatcher> eldest) {
+                if (size() > KeywordMatcherCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Checks whether a keyword field holds more keywords or characters than are compiled
+     *
+     * @param keywordField The keyword field as sent by the client
+     * @return true if the field is over a limit, {@link #get(String)} then does not compile it
+     */
+    public boolean isTooLarge(String keywordField) {
+        if (keywordField.length() > maxKeywordChars) {
+            return true;
+        }
+        int keywords = 1;
+        for (int i = keywordField.indexOf(KeywordMatcher.KEYWORD_SEPARATOR); i >= 0; i = keywordField.indexOf(KeywordMatcher.KEYWORD_SEPARATOR, i + 1)) {
+            if (++keywords > maxKeywords) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the most characters in a keyword field that is compiled
+     *
+     * @return the limit in characters
+     */
+    public int maxKeywordChars() {
+        return maxKeywordChars;
+    }
+
+    /**
+     * Returns the matcher of a keyword field, see {@link KeywordMatcher#splitKeywords(String)}
+     *
+     * @param keywordField The keyword field as sent by the client
+     * @return the matcher, or null if the field holds no keyword or is over a limit ({@link #isTooLarge(String)})
+     */
+    public KeywordMatcher get(String keywordField) {
+        if (isTooLarge(keywordField)) {
+            return null;
+        }
+        List<String> keywords = KeywordMatcher.splitKeywords(keywordField);
+        return keywords.isEmpty() ? null : get(keywords);
+    }
+
+    /**
+     * Returns the matcher of a keyword list, compiling it if it is not cached
+     *
+     * @param keywords The keywords
+     * @return the matcher
+     * @throws IllegalArgumentException if there are no keywords or a keyword is empty
+     */
+    public KeywordMatcher get(List<String> keywords) {
+        KeywordMatcher matcher;
+        synchronized (matchers) {
+            matcher = matchers.get(keywords);
+        }
+        if (matcher != null) {
+            hits.increment();
+            return matcher;
+        }
+        misses.increment();
+        List<String> key = List.copyOf(keywords);
+        KeywordMatcher compiled = KeywordMatcher.compile(key);
+        synchronized (matchers) {
+            matcher = matchers.putIfAbsent(key, compiled);
+        }
+        return matcher != null ? matcher : compiled;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to compile a matcher
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of matchers evicted to make room for others
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of matchers cached
+     *
+     * @return the number of matchers
+     */
+    public int size() {
+        synchronized (matchers) {
+            return matchers.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Keyword matchers: " + size() + "/" + capacity + " cached, " + hits() + " hits, "
+                + misses() + " misses, " + evictions() + " evictions";
+    }
+}
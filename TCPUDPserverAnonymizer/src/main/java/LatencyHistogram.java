@@ -0,0 +1,179 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in nanoseconds in log-linear buckets, the layout HdrHistogram uses: durations below
+ * 64 nanoseconds get a bucket each, and every power of two above that is split in 32 buckets of equal width,
+ * so a percentile is off by at most 1/32 of its value however long the duration.
+ * Durations longer than {@link #MAX_TRACKABLE} are counted as {@link #MAX_TRACKABLE}.
+ * Every bucket is a {@link LongAdder}, so recording never takes a lock and threads recording at the same time
+ * do not contend on one counter; percentiles are computed from a {@link #summary()}, which reads the buckets one by one
+ * and is only approximately consistent while durations are being recorded.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} G. Tene (2012) "HdrHistogram: A High Dynamic Range Histogram" [Source code]. Section "Histogram structure".
+ * <li>[2]{@code @source} Oracle (2023) "Class LongAdder" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class LatencyHistogram {
+    /**
+     * The longest duration told apart from longer ones: one hour, in nanoseconds
+     */
+    public static final long MAX_TRACKABLE = 3_600_000_000_000L;
+    /**
+     * The number of bits of a duration kept exactly within its power of two
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * The number of buckets each power of two is split in
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * A point-in-time view of the histogram, in nanoseconds.
+     * Percentiles are the highest duration of the bucket they fall in, never above the longest duration recorded
+     *
+     * @param count The number of durations recorded
+     * @param mean  The mean duration
+     * @param p50   The median
+     * @param p90   The 90th percentile
+     * @param p99   The 99th percentile
+     * @param p999  The 99.9th percentile
+     * @param max   The longest duration recorded
+     */
+    public record Summary(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+        @Override
+        public String toString() {
+            return count + " samples, mean " + micros(mean) + ", p50 " + micros(p50) + ", p90 " + micros(p90)
+                    + ", p99 " + micros(p99) + ", p99.9 " + micros(p999) + ", max " + micros(max);
+        }
+
+        /**
+         * @param nanos A duration in nanoseconds
+         * @return the duration in microseconds, with one decimal
+         */
+        private static String micros(long nanos) {
+            return nanos / 1000 + "." + nanos % 1000 / 100 + "us";
+        }
+    }
+
+    /**
+     * The number of durations in each bucket
+     */
+    private final LongAdder[] buckets = new LongAdder[bucketOf(MAX_TRACKABLE) + 1];
+    /**
+     * The sum of every duration recorded
+     */
+    private final LongAdder total = new LongAdder();
+    /**
+     * The longest duration recorded
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param nanos The duration in nanoseconds, negative durations (a clock going back) are counted as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_TRACKABLE);
+        buckets[bucketOf(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since an instant
+     *
+     * @param startNanos The instant, as given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Computes the count, mean and percentiles of the durations recorded so far
+     *
+     * @return the summary
+     */
+    public Summary summary() {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return new Summary(0, 0, 0, 0, 0, 0, 0);
+        }
+        long longest = max.get();
+        return new Summary(count, total.sum() / count,
+                percentile(counts, count, 0.5, longest), percentile(counts, count, 0.9, longest),
+                percentile(counts, count, 0.99, longest), percentile(counts, count, 0.999, longest), longest);
+    }
+
+    @Override
+    public String toString() {
+        return summary().toString();
+    }
+
+    /**
+     * Finds the bucket holding a percentile
+     *
+     * @param counts   The number of durations in each bucket
+     * @param count    The number of durations
+     * @param quantile The percentile, between 0 and 1
+     * @param longest  The longest duration recorded
+     * @return the highest duration of the bucket, at most the longest duration
+     */
+    private static long percentile(long[] counts, long count, double quantile, long longest) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), longest);
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Finds the bucket of a duration: below {@code 2 * SUB_BUCKETS} the duration itself, above it the power of two
+     * and the top {@link #SUB_BUCKET_BITS} + 1 bits of the duration
+     *
+     * @param value The duration, not negative
+     * @return the index of its bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest duration that falls in a bucket
+     *
+     * @param bucket The index of the bucket
+     * @return the highest duration of the bucket
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
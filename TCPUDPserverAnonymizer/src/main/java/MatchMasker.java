@@ -0,0 +1,203 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Masks the occurrences reported by a {@link KeywordMatcher} and counts them.
+ * Occurrences come in order of end position, so overlapping ones are merged into a pending range,
+ * which is only masked once an occurrence that does not touch it arrives, or the scan is over
+ * ({@link #finish()}). The matcher may read the text again while scanning (Boyer-Moore-Horspool compares backwards),
+ * and by then it never reads before the start of the last occurrence, so masking in place can not hide later occurrences.
+ * The subclasses decide where the text lives: a copy of a String, or a CharBuffer masked in place.
+ */
+abstract class MatchMasker implements KeywordMatcher.MatchSink {
+    /**
+     * Receives the start of the first occurrences, null if not wanted
+     */
+    private final int[] positions;
+    /**
+     * The number of occurrences found
+     */
+    private int count;
+    /**
+     * Where the range waiting to be masked starts
+     */
+    private int pendingFrom;
+    /**
+     * Where the range waiting to be masked ends (exclusive)
+     */
+    private int pendingTo;
+
+    /**
+     * Creates a masker
+     *
+     * @param positions Receives the start of the first occurrences, may be null
+     */
+    MatchMasker(int[] positions) {
+        this.positions = positions;
+    }
+
+    @Override
+    public void onMatch(int keyword, int start, int end) {
+        if (positions != null && count < positions.length) {
+            positions[count] = start;
+        }
+        if (count > 0 && start <= pendingTo) {
+            pendingFrom = Math.min(pendingFrom, start);
+            pendingTo = Math.max(pendingTo, end);
+        } else {
+            if (count > 0) {
+                fill(pendingFrom, pendingTo);
+            }
+            pendingFrom = start;
+            pendingTo = end;
+        }
+        count++;
+    }
+
+    /**
+     * Masks the range still pending, to be called once the scan is over
+     */
+    void finish() {
+        if (count > 0) {
+            fill(pendingFrom, pendingTo);
+        }
+    }
+
+    /**
+     * Returns the number of occurrences found
+     *
+     * @return the number of occurrences
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Replaces a range of the text with 'X's
+     *
+     * @param from Where the range starts (inclusive)
+     * @param to   Where the range ends (exclusive)
+     */
+    abstract void fill(int from, int to);
+
+    /**
+     * Masks a String, copying it at the first occurrence, counts the occurrences of each keyword
+     * and, if asked for, collects where every occurrence starts
+     */
+    static final class OfString extends MatchMasker {
+        /**
+         * The text being anonymized
+         */
+        private final String input;
+        /**
+         * The number of occurrences of each keyword
+         */
+        private final int[] hits;
+        /**
+         * A copy of the text with the occurrences masked, made at the first occurrence
+         */
+        private char[] chars;
+        /**
+         * The start of every occurrence in the order reported, grown as needed, null if not wanted
+         */
+        private int[] offsets;
+        /**
+         * The number of starts collected
+         */
+        private int offsetCount;
+        /**
+         * Whether the starts were reported in ascending order, which they are unless a longer keyword
+         * ends after a shorter one it contains
+         */
+        private boolean offsetsSorted = true;
+
+        /**
+         * Creates a masker
+         *
+         * @param input       The text being anonymized
+         * @param keywords    The number of keywords
+         * @param withOffsets Whether to collect where every occurrence starts
+         */
+        OfString(String input, int keywords, boolean withOffsets) {
+            super(null);
+            this.input = input;
+            this.hits = new int[keywords];
+            this.offsets = withOffsets ? new int[16] : null;
+        }
+
+        @Override
+        public void onMatch(int keyword, int start, int end) {
+            hits[keyword]++;
+            if (offsets != null) {
+                if (offsetCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsetCount * 2);
+                }
+                if (offsetCount > 0 && start < offsets[offsetCount - 1]) {
+                    offsetsSorted = false;
+                }
+                offsets[offsetCount++] = start;
+            }
+            super.onMatch(keyword, start, end);
+        }
+
+        @Override
+        void fill(int from, int to) {
+            if (chars == null) {
+                chars = input.toCharArray();
+            }
+            Arrays.fill(chars, from, to, 'X');
+        }
+
+        /**
+         * Returns the result of the scan
+         *
+         * @param keywords The keywords of the matcher
+         * @return the anonymized text, the number of occurrences of each keyword and, if asked for, their starts in ascending order
+         */
+        AnonymizationResult result(List<String> keywords) {
+            finish();
+            int[] starts = null;
+            if (offsets != null) {
+                starts = Arrays.copyOf(offsets, offsetCount);
+                if (!offsetsSorted) {
+                    Arrays.sort(starts);
+                }
+            }
+            return new AnonymizationResult(chars == null ? input : new String(chars), keywords, hits, starts);
+        }
+    }
+
+    /**
+     * Masks a CharBuffer in place, positions are relative to the position of the buffer
+     */
+    static final class OfCharBuffer extends MatchMasker {
+        /**
+         * The text being anonymized
+         */
+        private final CharBuffer text;
+        /**
+         * The absolute index of the first character of the text in the buffer
+         */
+        private final int base;
+
+        /**
+         * Creates a masker
+         *
+         * @param text      The text being anonymized, between its position and limit
+         * @param positions Receives the start of the first occurrences, may be null
+         */
+        OfCharBuffer(CharBuffer text, int[] positions) {
+            super(positions);
+            this.text = text;
+            this.base = text.position();
+        }
+
+        @Override
+        void fill(int from, int to) {
+            for (int i = base + from; i < base + to; i++) {
+                text.put(i, 'X');
+            }
+        }
+    }
+}
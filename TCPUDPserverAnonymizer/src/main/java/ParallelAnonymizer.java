@@ -0,0 +1,182 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Anonymizes a single large String on every core of a {@link ForkJoinPool}, with the same result as
+ * {@link KeywordMatcher#anonymize(String)}.
+ * The String is split in halves until the pieces are no longer than the segment size. Each segment is scanned
+ * from {@code maxKeywordLength - 1} characters before its start, so occurrences crossing into it from the previous
+ * segment are found, but it only keeps the occurrences that end inside it: every occurrence ends in exactly one segment,
+ * so none is counted twice. The String itself is scanned, and every segment masks its occurrences in one shared copy,
+ * so masking never hides an occurrence from a neighbouring segment; two segments only ever write the same 'X' to
+ * the same character, in ranges that together are exactly the ranges the sequential scan masks.
+ * Strings no longer than one segment are anonymized on the calling thread.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class RecursiveTask" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Lea, D. (2000) "A Java Fork/Join Framework", Proceedings of the ACM 2000 Java Grande Conference.
+ * </ul>
+ */
+public final class ParallelAnonymizer {
+    /**
+     * The default number of characters scanned by one task, large enough for the task to outweigh its scheduling
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * The keywords
+     */
+    private final KeywordMatcher matcher;
+    /**
+     * Runs the tasks
+     */
+    private final ForkJoinPool pool;
+    /**
+     * The most characters scanned by one task, besides the overlap
+     */
+    private final int segmentSize;
+
+    /**
+     * Creates a parallel anonymizer running on the common pool with segments of {@link #DEFAULT_SEGMENT_SIZE} characters
+     *
+     * @param matcher The keywords
+     */
+    public ParallelAnonymizer(KeywordMatcher matcher) {
+        this(matcher, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a parallel anonymizer
+     *
+     * @param matcher     The keywords
+     * @param pool        Runs the tasks
+     * @param segmentSize The most characters scanned by one task, besides the overlap
+     */
+    public ParallelAnonymizer(KeywordMatcher matcher, ForkJoinPool pool, int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.matcher = matcher;
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replaces every occurrence of every keyword with 'X's (one per character) and counts the occurrences of each keyword
+     *
+     * @param input The String to be anonymized
+     * @return The anonymized String and the number of occurrences of each keyword, as {@link KeywordMatcher#anonymize(String)} gives them
+     * @throws NullPointerException if the input is null
+     */
+    public AnonymizationResult anonymize(String input) {
+        if (input.length() <= segmentSize || pool.getParallelism() == 1) {
+            return matcher.anonymize(input);
+        }
+        char[] masked = input.toCharArray();
+        int[] hits = pool.invoke(new SegmentTask(input, masked, 0, input.length()));
+        return new AnonymizationResult(new String(masked), matcher.keywords(), hits);
+    }
+
+    /**
+     * Anonymizes a range of the String, splitting it while it is longer than a segment.
+     * Tasks only live within one anonymization and are never serialized, though ForkJoinTask is Serializable
+     */
+    @SuppressWarnings("serial")
+    private final class SegmentTask extends RecursiveTask<int[]> {
+        /**
+         * The String being anonymized
+         */
+        private final String input;
+        /**
+         * The copy of the String every task masks
+         */
+        private final char[] masked;
+        /**
+         * Where the range starts (inclusive)
+         */
+        private final int from;
+        /**
+         * Where the range ends (exclusive)
+         */
+        private final int to;
+
+        /**
+         * @param input  The String being anonymized
+         * @param masked The copy of the String every task masks
+         * @param from   Where the range starts (inclusive)
+         * @param to     Where the range ends (exclusive)
+         */
+        private SegmentTask(String input, char[] masked, int from, int to) {
+            this.input = input;
+            this.masked = masked;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the number of occurrences of each keyword ending in the range
+         */
+        @Override
+        protected int[] compute() {
+            if (to - from <= segmentSize) {
+                SegmentMasker masker = new SegmentMasker(masked, from, matcher.keywords().size());
+                matcher.scan(input, Math.max(0, from - (matcher.maxKeywordLength() - 1)), to, masker);
+                masker.finish();
+                return masker.hits;
+            }
+            int middle = (from + to) >>> 1;
+            SegmentTask right = new SegmentTask(input, masked, middle, to);
+            right.fork();
+            int[] hits = new SegmentTask(input, masked, from, middle).compute();
+            int[] rightHits = right.join();
+            for (int k = 0; k < hits.length; k++) {
+                hits[k] += rightHits[k];
+            }
+            return hits;
+        }
+    }
+
+    /**
+     * Masks the occurrences ending in one segment in the shared copy and counts them by keyword
+     */
+    private static final class SegmentMasker extends MatchMasker {
+        /**
+         * The copy of the String every segment masks
+         */
+        private final char[] masked;
+        /**
+         * Where the segment starts, occurrences ending at or before it belong to the previous segment
+         */
+        private final int segmentStart;
+        /**
+         * The number of occurrences of each keyword
+         */
+        private final int[] hits;
+
+        /**
+         * @param masked       The copy of the String every segment masks
+         * @param segmentStart Where the segment starts
+         * @param keywords     The number of keywords
+         */
+        private SegmentMasker(char[] masked, int segmentStart, int keywords) {
+            super(null);
+            this.masked = masked;
+            this.segmentStart = segmentStart;
+            this.hits = new int[keywords];
+        }
+
+        @Override
+        public void onMatch(int keyword, int start, int end) {
+            if (end > segmentStart) {
+                hits[keyword]++;
+                super.onMatch(keyword, start, end);
+            }
+        }
+
+        @Override
+        void fill(int from, int to) {
+            Arrays.fill(masked, from, to, 'X');
+        }
+    }
+}
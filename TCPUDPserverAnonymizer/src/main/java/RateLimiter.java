@@ -0,0 +1,349 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of the requests of every peer (client address), so one noisy client can not starve the others:
+ * each peer has a token bucket of requests per second and one of bytes per second, and a request is only taken
+ * if both buckets hold enough tokens. A bucket holds up to {@link #BURST_PROPERTY} milliseconds worth of tokens,
+ * so a peer that was quiet may send a burst.
+ * <p>A bucket is a single {@link AtomicLong}, the time at which it will be full again (the theoretical arrival time of
+ * the generic cell rate algorithm, the same as a token bucket): taking tokens moves it forward by their cost, refilling is
+ * implicit in the clock moving, so a request is one read of the clock and one compare-and-set per bucket, without locks.
+ * A refused request is told how long to wait until its tokens are there.
+ * <p>The buckets live in a {@link ConcurrentHashMap} keyed by peer. A bucket that has been full for longer than
+ * {@link #IDLE_TIMEOUT} is evicted, by the request that finds the last sweep older than {@link #SWEEP_INTERVAL}.
+ * <p>The limits are read from system properties when the servers start: {@code -Danonymizer.ratelimit.requests=100}
+ * and {@code -Danonymizer.ratelimit.bytes=1048576} for every peer (0, the default, means unlimited), and
+ * {@code -Danonymizer.ratelimit.tenant.<address>=<requests>,<bytes>} for the peers of a tenant that gets other limits.
+ * With no limit at all, nothing is kept and every request is taken at once.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} ITU-T (2016) "Traffic control and congestion control in B-ISDN" (I.371), Annex A "Generic cell rate algorithm".
+ * <li>[2]{@code @source} Oracle (2023) "Class ConcurrentHashMap" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[3]{@code @source} Oracle (2023) "Class AtomicLong" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class RateLimiter {
+    /**
+     * The requests per second of every peer, 0 for no limit ({@code -Danonymizer.ratelimit.requests=100})
+     */
+    public static final String REQUESTS_PROPERTY = "anonymizer.ratelimit.requests";
+    /**
+     * The bytes per second of every peer, 0 for no limit ({@code -Danonymizer.ratelimit.bytes=1048576})
+     */
+    public static final String BYTES_PROPERTY = "anonymizer.ratelimit.bytes";
+    /**
+     * How many milliseconds worth of tokens a bucket holds ({@code -Danonymizer.ratelimit.burst=1000})
+     */
+    public static final String BURST_PROPERTY = "anonymizer.ratelimit.burst";
+    /**
+     * Starts the properties giving a tenant its own limits, followed by the address of a peer
+     * ({@code -Danonymizer.ratelimit.tenant.10.0.0.7=500,8388608} for 500 requests and 8 MiB per second)
+     */
+    public static final String TENANT_PROPERTY_PREFIX = "anonymizer.ratelimit.tenant.";
+    /**
+     * The burst when {@link #BURST_PROPERTY} is not set, in milliseconds
+     */
+    private static final long DEFAULT_BURST = 1000;
+    /**
+     * How long the buckets of a peer stay full before they are evicted, in nanoseconds
+     */
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+    /**
+     * How often the idle buckets are looked for, in nanoseconds
+     */
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    /**
+     * The nanoseconds in a second
+     */
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The limits of the peers without limits of their own
+     */
+    private final Limits defaultLimits;
+    /**
+     * The limits of the peers of tenants with limits of their own
+     */
+    private final Map<InetAddress, Limits> tenantLimits;
+    /**
+     * How many nanoseconds worth of tokens a bucket holds
+     */
+    private final long burstNanos;
+    /**
+     * False if no peer has any limit, then nothing is kept
+     */
+    private final boolean enabled;
+    /**
+     * The buckets of every peer seen since its last eviction
+     */
+    private final Map<InetAddress, Peer> peers = new ConcurrentHashMap<>();
+    /**
+     * When the idle buckets are looked for next, as given by {@link System#nanoTime()}
+     */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+
+    /**
+     * Creates the rate limiter of a server, with the limits given by the system properties
+     */
+    public RateLimiter() {
+        this(new Limits(Long.getLong(REQUESTS_PROPERTY, 0), Long.getLong(BYTES_PROPERTY, 0)),
+                tenantLimits(System.getProperties()), Long.getLong(BURST_PROPERTY, DEFAULT_BURST));
+    }
+
+    /**
+     * Creates a rate limiter
+     *
+     * @param defaultLimits The limits of the peers without limits of their own
+     * @param tenantLimits  The limits of the peers of tenants with limits of their own
+     * @param burstMillis   How many milliseconds worth of tokens a bucket holds
+     */
+    public RateLimiter(Limits defaultLimits, Map<InetAddress, Limits> tenantLimits, long burstMillis) {
+        if (burstMillis < 1) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+        this.defaultLimits = defaultLimits;
+        this.tenantLimits = Map.copyOf(tenantLimits);
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+        boolean limited = defaultLimits.isLimited();
+        for (Limits limits : tenantLimits.values()) {
+            limited |= limits.isLimited();
+        }
+        this.enabled = limited;
+    }
+
+    /**
+     * Reads the limits of the tenants from properties named {@link #TENANT_PROPERTY_PREFIX} followed by an address
+     *
+     * @param properties The properties
+     * @return the limits of every address given
+     * @throws IllegalArgumentException if an address or its limits are not valid
+     */
+    static Map<InetAddress, Limits> tenantLimits(Map<Object, Object> properties) {
+        Map<InetAddress, Limits> tenants = new HashMap<>();
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            String name = String.valueOf(property.getKey());
+            if (!name.startsWith(TENANT_PROPERTY_PREFIX)) {
+                continue;
+            }
+            String value = String.valueOf(property.getValue());
+            int separator = value.indexOf(',');
+            try {
+                InetAddress address = InetAddress.getByName(name.substring(TENANT_PROPERTY_PREFIX.length()));
+                tenants.put(address, new Limits(Long.parseLong(value.substring(0, Math.max(separator, 0)).trim()),
+                        Long.parseLong(value.substring(separator + 1).trim())));
+            } catch (UnknownHostException | NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid tenant limits " + name + "=" + value + ", expected <requests>,<bytes>", e);
+            }
+        }
+        return tenants;
+    }
+
+    /**
+     * Takes the tokens of a request of a peer, if both of its buckets hold enough of them
+     *
+     * @param client The address of the peer
+     * @param bytes  The size of the request
+     * @return 0 if the request was taken, otherwise how long the peer should wait before sending it again, in milliseconds (at least 1)
+     */
+    public long tryAcquire(InetAddress client, long bytes) {
+        return tryAcquire(client, bytes, true);
+    }
+
+    /**
+     * Takes the byte tokens of more of a request already taken (a chunk of a stream), if the bytes bucket of the peer
+     * holds enough of them
+     *
+     * @param client The address of the peer
+     * @param bytes  The size of the chunk
+     * @return 0 if the chunk was taken, otherwise how long the peer should wait before sending it again, in milliseconds (at least 1)
+     */
+    public long tryAcquireBytes(InetAddress client, long bytes) {
+        return tryAcquire(client, bytes, false);
+    }
+
+    /**
+     * Takes the tokens of a request or of a chunk of a request of a peer, if its buckets hold enough of them
+     *
+     * @param client  The address of the peer
+     * @param bytes   The size of the request or chunk
+     * @param request Whether a request token is taken too
+     * @return 0 if the tokens were taken, otherwise how long the peer should wait, in milliseconds (at least 1)
+     */
+    private long tryAcquire(InetAddress client, long bytes, boolean request) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        Peer peer = peers.get(client);
+        if (peer == null) {
+            peer = peers.computeIfAbsent(client, address -> new Peer(tenantLimits.getOrDefault(address, defaultLimits), now));
+        }
+        long wait = request ? take(peer.requestsFull, peer.requestCost, now) : 0;
+        if (wait == 0) {
+            wait = take(peer.bytesFull, cost(bytes, peer.limits.bytesPerSecond), now);
+            if (wait != 0 && request) {
+                peer.requestsFull.addAndGet(-peer.requestCost); // give the request token back
+            }
+        }
+        if (now - nextSweep.get() >= 0) {
+            sweep(now);
+        }
+        return wait == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Computes the cost of tokens, the time the bucket takes to refill them
+     *
+     * @param tokens    The number of tokens, at most {@link Integer#MAX_VALUE} are counted so the cost does not overflow
+     * @param perSecond The tokens refilled per second, 0 for no limit
+     * @return the cost in nanoseconds, 0 if there is no limit
+     */
+    private static long cost(long tokens, long perSecond) {
+        if (perSecond == 0) {
+            return 0;
+        }
+        return Math.min(Math.max(tokens, 0), Integer.MAX_VALUE) * NANOS_PER_SECOND / perSecond;
+    }
+
+    /**
+     * Takes tokens from a bucket, if it holds enough of them. A cost larger than the burst is taken from a full bucket,
+     * leaving it in debt, so even the largest request is taken once the peer waited long enough
+     *
+     * @param full When the bucket will be full again, as given by {@link System#nanoTime()}
+     * @param cost The cost of the tokens, in nanoseconds of refill
+     * @param now  The current time, as given by {@link System#nanoTime()}
+     * @return 0 if the tokens were taken, otherwise how long until they are there, in nanoseconds
+     */
+    private long take(AtomicLong full, long cost, long now) {
+        if (cost == 0) {
+            return 0;
+        }
+        long allowed = burstNanos - Math.min(cost, burstNanos);
+        while (true) {
+            long current = full.get();
+            long start = current - now > 0 ? current : now;
+            long wait = start - now - allowed;
+            if (wait > 0) {
+                return wait;
+            }
+            if (full.compareAndSet(current, start + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Evicts the peers whose buckets have been full for longer than {@link #IDLE_TIMEOUT}, if no other thread is doing it.
+     * A request racing with the eviction of its peer may be taken by a new full bucket, which only lets that peer
+     * start over like one that was quiet long enough
+     *
+     * @param now The current time, as given by {@link System#nanoTime()}
+     */
+    private void sweep(long now) {
+        long scheduled = nextSweep.get();
+        if (now - scheduled < 0 || !nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL)) {
+            return;
+        }
+        peers.values().removeIf(peer -> peer.isIdle(now));
+    }
+
+    /**
+     * Returns the number of peers with buckets
+     *
+     * @return the number of peers seen and not evicted yet
+     */
+    public int peers() {
+        return peers.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Rate limiter: " + (enabled ? defaultLimits + " per peer, " + tenantLimits.size() + " tenant address(es), "
+                + peers.size() + " peer(s)" : "off");
+    }
+
+    /**
+     * The rates a peer may send at
+     *
+     * @param requestsPerSecond The requests per second, 0 for no limit
+     * @param bytesPerSecond    The bytes per second, 0 for no limit
+     */
+    public record Limits(long requestsPerSecond, long bytesPerSecond) {
+        /**
+         * Checks the rates
+         *
+         * @throws IllegalArgumentException if a rate is negative, or the requests per second are more than one per nanosecond
+         */
+        public Limits {
+            if (requestsPerSecond < 0 || bytesPerSecond < 0 || requestsPerSecond > NANOS_PER_SECOND) {
+                throw new IllegalArgumentException("Rates must be between 0 and " + NANOS_PER_SECOND);
+            }
+        }
+
+        /**
+         * Checks whether any rate is limited
+         *
+         * @return true if the requests or the bytes are limited
+         */
+        public boolean isLimited() {
+            return requestsPerSecond > 0 || bytesPerSecond > 0;
+        }
+
+        @Override
+        public String toString() {
+            return (requestsPerSecond > 0 ? requestsPerSecond + " requests/s" : "unlimited requests") + ", "
+                    + (bytesPerSecond > 0 ? bytesPerSecond + " bytes/s" : "unlimited bytes");
+        }
+    }
+
+    /**
+     * The buckets of a peer
+     */
+    private static final class Peer {
+        /**
+         * The limits of the peer
+         */
+        private final Limits limits;
+        /**
+         * The cost of a request in the bucket of requests, in nanoseconds
+         */
+        private final long requestCost;
+        /**
+         * When the bucket of requests will be full again, as given by {@link System#nanoTime()}
+         */
+        private final AtomicLong requestsFull;
+        /**
+         * When the bucket of bytes will be full again, as given by {@link System#nanoTime()}
+         */
+        private final AtomicLong bytesFull;
+
+        /**
+         * Creates the full buckets of a peer
+         *
+         * @param limits The limits of the peer
+         * @param now    The current time, as given by {@link System#nanoTime()}
+         */
+        private Peer(Limits limits, long now) {
+            this.limits = limits;
+            this.requestCost = cost(1, limits.requestsPerSecond);
+            this.requestsFull = new AtomicLong(now);
+            this.bytesFull = new AtomicLong(now);
+        }
+
+        /**
+         * Checks whether both buckets have been full for longer than {@link #IDLE_TIMEOUT}
+         *
+         * @param now The current time, as given by {@link System#nanoTime()}
+         * @return true if the peer can be evicted
+         */
+        private boolean isIdle(long now) {
+            return now - requestsFull.get() > IDLE_TIMEOUT && now - bytesFull.get() > IDLE_TIMEOUT;
+        }
+    }
+}
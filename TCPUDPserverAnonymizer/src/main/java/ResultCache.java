@@ -0,0 +1,350 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps the results of recently anonymized Strings, keyed by their keywords and the String, so a message sent again
+ * (a heartbeat, a repeated stack trace) is answered with the cached anonymized String and count without scanning it again.
+ * The key is found by the hash of the keywords and of the String ({@link String#hashCode()}, computed once per String),
+ * and a hit is only taken if both are equal, so a collision is never answered with the result of another message.
+ * <p>The cache is bounded both in entries and in bytes (the chars of the String and of its anonymized copy, and the offsets): when it is full,
+ * the least recently used results are evicted, and a result larger than a sixteenth of the byte bound is never kept.
+ * A result is dropped once it is older than the time to live. Hits, misses, evictions and expirations are counted.
+ * A result kept without the offsets of the occurrences does not answer a lookup that asks for them:
+ * the String is anonymized again, with its offsets, and that result replaces it.
+ * Results are computed outside the lock, so a long String never blocks lookups of other ones.
+ * <p>The cache is off unless {@code -Danonymizer.resultcache.entries=<n>} is given, its bytes and time to live are
+ * {@code -Danonymizer.resultcache.bytes} and {@code -Danonymizer.resultcache.ttl} (in milliseconds).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class LinkedHashMap" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class String", method hashCode (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class ResultCache {
+    /**
+     * The most results kept, 0 (the default) turns the cache off ({@code -Danonymizer.resultcache.entries=10000})
+     */
+    public static final String ENTRIES_PROPERTY = "anonymizer.resultcache.entries";
+    /**
+     * The most bytes of results kept ({@code -Danonymizer.resultcache.bytes=67108864})
+     */
+    public static final String BYTES_PROPERTY = "anonymizer.resultcache.bytes";
+    /**
+     * How long a result is kept, in milliseconds ({@code -Danonymizer.resultcache.ttl=60000})
+     */
+    public static final String TTL_PROPERTY = "anonymizer.resultcache.ttl";
+    /**
+     * The most bytes kept when {@link #BYTES_PROPERTY} is not set
+     */
+    private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    /**
+     * How long a result is kept when {@link #TTL_PROPERTY} is not set, in milliseconds
+     */
+    private static final long DEFAULT_TTL = 60000;
+    /**
+     * The bytes counted for an entry besides its chars: the key, the entry, the result and the Strings
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /**
+     * The most results kept, 0 if the cache is off
+     */
+    private final int maxEntries;
+    /**
+     * The most bytes of results kept
+     */
+    private final long maxBytes;
+    /**
+     * How long a result is kept, in nanoseconds
+     */
+    private final long ttlNanos;
+    /**
+     * The results, in access order (least recently used first)
+     */
+    private final LinkedHashMap<Key, Entry> results = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The bytes of the results kept, guarded by {@link #results}
+     */
+    private long bytes;
+    /**
+     * Lookups answered from the cache
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * Lookups that had to anonymize the String
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * Results evicted to make room for others
+     */
+    private final LongAdder evictions = new LongAdder();
+    /**
+     * Results dropped because they were older than the time to live
+     */
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Creates the result cache of a server, with the bounds given by the system properties (off by default)
+     */
+    public ResultCache() {
+        this(Integer.getInteger(ENTRIES_PROPERTY, 0), Long.getLong(BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+                Long.getLong(TTL_PROPERTY, DEFAULT_TTL));
+    }
+
+    /**
+     * Creates a result cache
+     *
+     * @param maxEntries The most results kept, 0 to turn the cache off
+     * @param maxBytes   The most bytes of results kept
+     * @param ttlMillis  How long a result is kept, in milliseconds
+     */
+    public ResultCache(int maxEntries, long maxBytes, long ttlMillis) {
+        if (maxEntries < 0 || maxBytes < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Bounds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Checks whether the cache keeps results
+     *
+     * @return false if the cache is off, every String is then anonymized
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Anonymizes a String with a matcher, or returns the result cached for the same keywords and String
+     *
+     * @param matcher The keywords
+     * @param message The String
+     * @return the result
+     */
+    public AnonymizationResult anonymize(KeywordMatcher matcher, String message) {
+        return anonymize(matcher, message, false, matcher::anonymize);
+    }
+
+    /**
+     * Anonymizes a String with a matcher, or returns the result cached for the same keywords and String
+     *
+     * @param matcher     The keywords
+     * @param message     The String
+     * @param withOffsets Whether the result must hold the start of every occurrence
+     * @return the result
+     */
+    public AnonymizationResult anonymize(KeywordMatcher matcher, String message, boolean withOffsets) {
+        return anonymize(matcher, message, withOffsets, input -> matcher.anonymize(input, withOffsets));
+    }
+
+    /**
+     * Anonymizes a String, or returns the result cached for the same keywords and String
+     *
+     * @param matcher    The keywords, which the result is keyed by
+     * @param message    The String
+     * @param anonymizer Anonymizes the String with the keywords of the matcher on a miss (on every core, for instance)
+     * @return the result
+     */
+    public AnonymizationResult anonymize(KeywordMatcher matcher, String message, Function<String, AnonymizationResult> anonymizer) {
+        return anonymize(matcher, message, false, anonymizer);
+    }
+
+    /**
+     * Anonymizes a String, or returns the result cached for the same keywords and String if it holds what is asked for
+     *
+     * @param matcher     The keywords, which the result is keyed by
+     * @param message     The String
+     * @param withOffsets Whether the result must hold the start of every occurrence
+     * @param anonymizer  Anonymizes the String with the keywords of the matcher on a miss, with offsets if they are asked for
+     * @return the result
+     */
+    private AnonymizationResult anonymize(KeywordMatcher matcher, String message, boolean withOffsets,
+                                          Function<String, AnonymizationResult> anonymizer) {
+        if (maxEntries == 0) {
+            return anonymizer.apply(message);
+        }
+        Key key = new Key(matcher.keywords(), message);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (results) {
+            entry = results.get(key);
+            if (entry != null && now - entry.createdAt > ttlNanos) {
+                remove(key, entry);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry != null && (!withOffsets || entry.result.hasOffsets())) {
+            hits.increment();
+            return entry.result;
+        }
+        misses.increment();
+        AnonymizationResult result = anonymizer.apply(message);
+        long size = ENTRY_OVERHEAD + 2L * (message.length() + result.anonymized().length())
+                + (result.hasOffsets() ? 4L * result.matchCount() : 0);
+        if (size <= maxBytes / 16) {
+            put(key, new Entry(result, size, now));
+        }
+        return result;
+    }
+
+    /**
+     * Keeps a result, evicting the least recently used ones until the cache is within its bounds
+     *
+     * @param key   The key of the result
+     * @param entry The result
+     */
+    private void put(Key key, Entry entry) {
+        synchronized (results) {
+            Entry previous = results.put(key, entry);
+            bytes += entry.size - (previous != null ? previous.size : 0);
+            Iterator<Entry> eldest = results.values().iterator();
+            while ((results.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                bytes -= eldest.next().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes a result, with the lock of {@link #results} held
+     *
+     * @param key   The key of the result
+     * @param entry The result
+     */
+    private void remove(Key key, Entry entry) {
+        results.remove(key);
+        bytes -= entry.size;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to anonymize the String
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the share of the lookups answered from the cache
+     *
+     * @return the hit ratio, between 0 and 1 (0 before any lookup)
+     */
+    public double hitRatio() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Returns the number of results evicted to make room for others
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of results dropped because they were older than the time to live
+     *
+     * @return the number of expirations
+     */
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Returns the number of results cached
+     *
+     * @return the number of results
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (maxEntries == 0) {
+            return "Result cache: off";
+        }
+        long cachedBytes;
+        synchronized (results) {
+            cachedBytes = bytes;
+        }
+        return "Result cache: " + size() + "/" + maxEntries + " cached, " + cachedBytes + "/" + maxBytes + " bytes, "
+                + hits() + " hits, " + misses() + " misses (" + String.format("%.1f", 100 * hitRatio()) + "% hit ratio), "
+                + evictions() + " evictions, " + expirations() + " expirations";
+    }
+
+    /**
+     * The keywords and String a result is kept for
+     */
+    private static final class Key {
+        /**
+         * The keywords
+         */
+        private final List<String> keywords;
+        /**
+         * The String
+         */
+        private final String message;
+        /**
+         * The hash of the keywords and the String
+         */
+        private final int hash;
+
+        /**
+         * Creates a key
+         *
+         * @param keywords The keywords
+         * @param message  The String
+         */
+        private Key(List<String> keywords, String message) {
+            this.keywords = keywords;
+            this.message = message;
+            this.hash = 31 * keywords.hashCode() + message.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.hash == hash && key.message.equals(message)
+                    && (key.keywords == keywords || key.keywords.equals(keywords));
+        }
+    }
+
+    /**
+     * A result kept, with its size and when it was computed
+     *
+     * @param result    The result
+     * @param size      The bytes counted for it
+     * @param createdAt When it was computed, as given by {@link System#nanoTime()}
+     */
+    private record Entry(AnonymizationResult result, long size, long createdAt) {
+    }
+}
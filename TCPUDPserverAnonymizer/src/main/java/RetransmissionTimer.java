@@ -0,0 +1,105 @@
+/**
+ * Computes how long to wait for an ACK before sending a datagram again, from the round-trip times measured so far,
+ * the way TCP does: a smoothed round-trip time (SRTT) and its variation (RTTVAR) are updated with every sample,
+ * and the timeout (RTO) is SRTT + 4 * RTTVAR, between {@link #MIN_RTO} and {@link #MAX_RTO}.
+ * Before the first sample the timeout is {@link #INITIAL_RTO}. Every timeout doubles the RTO (exponential backoff)
+ * until the next sample, which computes it again from SRTT and RTTVAR.
+ * Samples must only be taken from datagrams sent once (Karn's algorithm): the ACK of a datagram sent again
+ * can not tell which of the copies it acknowledges.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} IETF (2011) "Computing TCP's Retransmission Timer" (RFC 6298), Sections 2 and 5.
+ * <li>[2]{@code @source} P. Karn, C. Partridge (1987) "Improving Round-Trip Time Estimates in Reliable Transport Protocols", ACM SIGCOMM.
+ * </ul>
+ */
+public final class RetransmissionTimer {
+    /**
+     * The timeout before any round-trip time was measured, in milliseconds
+     */
+    public static final int INITIAL_RTO = 1000;
+    /**
+     * The shortest timeout, in milliseconds: a LAN round trip is far below it,
+     * so it keeps a late ACK from being taken for a lost datagram
+     */
+    public static final int MIN_RTO = 200;
+    /**
+     * The longest timeout, also with backoff, in milliseconds: below the time a receiver waits
+     * for the next datagram before giving up on the transfer
+     */
+    public static final int MAX_RTO = 4000;
+    /**
+     * The weight of a new sample in SRTT (alpha = 1/8)
+     */
+    private static final double ALPHA = 1.0 / 8;
+    /**
+     * The weight of a new sample in RTTVAR (beta = 1/4)
+     */
+    private static final double BETA = 1.0 / 4;
+    /**
+     * How many RTTVARs are added to SRTT to get the timeout
+     */
+    private static final int K = 4;
+
+    /**
+     * The smoothed round-trip time in milliseconds, negative until the first sample
+     */
+    private double srtt = -1;
+    /**
+     * The variation of the round-trip time in milliseconds
+     */
+    private double rttvar;
+    /**
+     * The current timeout in milliseconds, backoff included
+     */
+    private int rto = INITIAL_RTO;
+
+    /**
+     * Updates the estimates with a measured round-trip time and computes the timeout again, without backoff
+     *
+     * @param rttMillis The time between sending a datagram (sent only once) and receiving its ACK, in milliseconds
+     */
+    public synchronized void onSample(long rttMillis) {
+        double rtt = Math.max(0, rttMillis);
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        rto = clamp((long) Math.ceil(srtt + Math.max(1, K * rttvar)));
+    }
+
+    /**
+     * Doubles the timeout, after an ACK did not arrive in time
+     */
+    public synchronized void backoff() {
+        rto = clamp(2L * rto);
+    }
+
+    /**
+     * Returns how long to wait for an ACK
+     *
+     * @return the timeout in milliseconds
+     */
+    public synchronized int rto() {
+        return rto;
+    }
+
+    /**
+     * Returns the smoothed round-trip time
+     *
+     * @return SRTT in milliseconds, or -1 before the first sample
+     */
+    public synchronized long srtt() {
+        return srtt < 0 ? -1 : Math.round(srtt);
+    }
+
+    /**
+     * @param millis A timeout in milliseconds
+     * @return the timeout, between {@link #MIN_RTO} and {@link #MAX_RTO}
+     */
+    private static int clamp(long millis) {
+        return (int) Math.min(MAX_RTO, Math.max(MIN_RTO, millis));
+    }
+}
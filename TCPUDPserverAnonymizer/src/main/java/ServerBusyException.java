@@ -0,0 +1,35 @@
+import java.io.IOException;
+
+/**
+ * Thrown by the clients when the server refused a request because it is busy ({@link AdmissionControl}),
+ * with the time the server asked to wait before trying again
+ */
+public class ServerBusyException extends IOException {
+    /**
+     * The version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * How long the server asked to wait before trying again, in milliseconds
+     */
+    private final long retryAfterMillis;
+
+    /**
+     * Creates the exception
+     *
+     * @param retryAfterMillis How long the server asked to wait before trying again, in milliseconds
+     */
+    public ServerBusyException(long retryAfterMillis) {
+        super("Server busy, retry after " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns how long the server asked to wait before trying again
+     *
+     * @return the time in milliseconds
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
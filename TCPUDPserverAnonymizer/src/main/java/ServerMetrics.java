@@ -0,0 +1,374 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The counters, gauges and latency histograms of a server: Strings anonymized, bytes in and out, substitutions,
+ * UDP retransmits and ACK timeouts, requests refused by the {@link AdmissionControl}, the connections or sessions open, and how long receiving, anonymizing and sending took.
+ * The hits and misses of the server's {@link ResultCache}, if it has one turned on, are published with them.
+ * Counters are {@link LongAdder}s and latencies {@link LatencyHistogram}s, so the threads serving clients update them
+ * without taking a lock; the gauge is read from the server only when the metrics are.
+ * Once started, the metrics are published through JMX ({@link ServerMetricsMXBean}) and printed every
+ * {@link #INTERVAL_PROPERTY} seconds (60 by default, 0 to never print them).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class LongAdder" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class ManagementFactory" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class ServerMetrics implements ServerMetricsMXBean {
+    /**
+     * How often the metrics are printed, in seconds ({@code -Danonymizer.metrics.interval=10}), 0 to never print them
+     */
+    public static final String INTERVAL_PROPERTY = "anonymizer.metrics.interval";
+    /**
+     * How often the metrics are printed when {@link #INTERVAL_PROPERTY} is not set, in seconds
+     */
+    private static final long DEFAULT_INTERVAL = 60;
+
+    /**
+     * The name of the server, part of the JMX name
+     */
+    private final String name;
+    /**
+     * What the gauge counts, "connections" or "sessions"
+     */
+    private final String activeLabel;
+    /**
+     * Reads the number of connections or sessions open from the server
+     */
+    private final IntSupplier active;
+    /**
+     * Strings anonymized
+     */
+    private final LongAdder requests = new LongAdder();
+    /**
+     * Bytes received from the clients
+     */
+    private final LongAdder bytesIn = new LongAdder();
+    /**
+     * Bytes sent to the clients
+     */
+    private final LongAdder bytesOut = new LongAdder();
+    /**
+     * Substitutions made
+     */
+    private final LongAdder matches = new LongAdder();
+    /**
+     * Chunks of windowed UDP answers sent again
+     */
+    private final LongAdder retransmits = new LongAdder();
+    /**
+     * Times a UDP client stopped acknowledging
+     */
+    private final LongAdder ackTimeouts = new LongAdder();
+    /**
+     * Requests refused because the server was busy or the message too large
+     */
+    private final LongAdder rejections = new LongAdder();
+    /**
+     * How long receiving a request took
+     */
+    private final LatencyHistogram receiveLatency = new LatencyHistogram();
+    /**
+     * How long anonymizing a request took
+     */
+    private final LatencyHistogram anonymizeLatency = new LatencyHistogram();
+    /**
+     * How long sending an answer took
+     */
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    /**
+     * The result cache of the server, null if it has none turned on
+     */
+    private volatile ResultCache resultCache;
+    /**
+     * Prints the metrics periodically, null until started or if they are never printed
+     */
+    private ScheduledExecutorService printer;
+    /**
+     * The JMX name the metrics are published under, null until started or if publishing failed
+     */
+    private ObjectName objectName;
+
+    /**
+     * Creates the metrics of a server, nothing is published until {@link #start()}
+     *
+     * @param name        The name of the server, part of the JMX name
+     * @param activeLabel What the gauge counts, "connections" or "sessions"
+     * @param active      Reads the number of connections or sessions open from the server
+     */
+    public ServerMetrics(String name, String activeLabel, IntSupplier active) {
+        this.name = name;
+        this.activeLabel = activeLabel;
+        this.active = active;
+    }
+
+    /**
+     * Publishes the metrics through JMX and starts printing them every {@link #INTERVAL_PROPERTY} seconds.
+     * A failure to publish is printed and the server goes on without it
+     */
+    public synchronized void start() {
+        try {
+            objectName = new ObjectName("anonymizer:type=ServerMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.out.println("Failed to publish metrics: " + e.getMessage());
+            objectName = null;
+        }
+        long interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+        if (interval > 0) {
+            printer = Executors.newSingleThreadScheduledExecutor(task -> Thread.ofPlatform().daemon().name("metrics-" + name).unstarted(task));
+            printer.scheduleAtFixedRate(() -> System.out.println(this), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops printing the metrics and withdraws them from JMX
+     */
+    public synchronized void stop() {
+        if (printer != null) {
+            printer.shutdownNow();
+            printer = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // the server is stopping anyway
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Publishes the hits and misses of the result cache of the server with the metrics
+     *
+     * @param resultCache The result cache, ignored if it is off
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache.isEnabled() ? resultCache : null;
+    }
+
+    /**
+     * Counts a String anonymized
+     *
+     * @param substitutions The number of substitutions made in it
+     */
+    public void request(long substitutions) {
+        requests.increment();
+        matches.add(substitutions);
+    }
+
+    /**
+     * Counts bytes received from a client
+     *
+     * @param bytes The number of bytes
+     */
+    public void received(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts bytes sent to a client
+     *
+     * @param bytes The number of bytes
+     */
+    public void sent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Counts chunks sent again because their ACK timed out
+     *
+     * @param chunks The number of chunks
+     */
+    public void retransmitted(long chunks) {
+        retransmits.add(chunks);
+    }
+
+    /**
+     * Counts a client that stopped acknowledging
+     */
+    public void ackTimedOut() {
+        ackTimeouts.increment();
+    }
+
+    /**
+     * Counts a request refused because the server was busy or the message too large
+     */
+    public void rejected() {
+        rejections.increment();
+    }
+
+    /**
+     * Returns the histogram of how long receiving a request took
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram receiveLatency() {
+        return receiveLatency;
+    }
+
+    /**
+     * Returns the histogram of how long anonymizing a request took
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram anonymizeLatency() {
+        return anonymizeLatency;
+    }
+
+    /**
+     * Returns the histogram of how long sending an answer took
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram sendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * Wraps the stream from a client so the bytes read from it are counted
+     *
+     * @param in The stream from the client
+     * @return the counting stream
+     */
+    public InputStream countReceived(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Wraps the stream to a client so the bytes written to it are counted
+     *
+     * @param out The stream to the client
+     * @return the counting stream
+     */
+    public OutputStream countSent(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesOut.add(length);
+            }
+        };
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMatches() {
+        return matches.sum();
+    }
+
+    @Override
+    public long getRetransmits() {
+        return retransmits.sum();
+    }
+
+    @Override
+    public long getAckTimeouts() {
+        return ackTimeouts.sum();
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        ResultCache cache = resultCache;
+        return cache == null ? 0 : cache.hits();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        ResultCache cache = resultCache;
+        return cache == null ? 0 : cache.misses();
+    }
+
+    @Override
+    public double getResultCacheHitRatio() {
+        ResultCache cache = resultCache;
+        return cache == null ? 0 : cache.hitRatio();
+    }
+
+    @Override
+    public int getActive() {
+        return active.getAsInt();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getReceiveLatency() {
+        return receiveLatency.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getAnonymizeLatency() {
+        return anonymizeLatency.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getSendLatency() {
+        return sendLatency.summary();
+    }
+
+    @Override
+    public String toString() {
+        return "Metrics of " + name + ": " + getRequests() + " requests, " + getMatches() + " matches, "
+                + getBytesIn() + " bytes in, " + getBytesOut() + " bytes out, " + getActive() + " " + activeLabel + " open, "
+                + getRetransmits() + " retransmits, " + getAckTimeouts() + " ACK timeouts, " + getRejections() + " rejections"
+                + "\n  receive:   " + receiveLatency
+                + "\n  anonymize: " + anonymizeLatency
+                + "\n  send:      " + sendLatency
+                + (resultCache != null ? "\n  " + resultCache : "");
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * The attributes of {@link ServerMetrics} published through JMX, under {@code anonymizer:type=ServerMetrics,name=<server>}.
+ * Latencies are {@link LatencyHistogram.Summary} records, shown by JMX clients as composite data in nanoseconds.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Annotation Interface MXBean" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * @return the number of Strings anonymized
+     */
+    long getRequests();
+
+    /**
+     * @return the number of bytes received from the clients
+     */
+    long getBytesIn();
+
+    /**
+     * @return the number of bytes sent to the clients
+     */
+    long getBytesOut();
+
+    /**
+     * @return the number of substitutions made
+     */
+    long getMatches();
+
+    /**
+     * @return the number of chunks of windowed UDP answers sent again because their ACK timed out
+     */
+    long getRetransmits();
+
+    /**
+     * @return the number of times a UDP client stopped acknowledging
+     */
+    long getAckTimeouts();
+
+    /**
+     * @return the number of requests refused because the server was busy or the message too large
+     */
+    long getRejections();
+
+    /**
+     * @return the number of Strings answered from the result cache, 0 if it is off
+     */
+    long getResultCacheHits();
+
+    /**
+     * @return the number of Strings the result cache did not hold, 0 if it is off
+     */
+    long getResultCacheMisses();
+
+    /**
+     * @return the share of the lookups of the result cache it answered, between 0 and 1
+     */
+    double getResultCacheHitRatio();
+
+    /**
+     * @return the number of connections (TCP) or sessions (UDP) currently open
+     */
+    int getActive();
+
+    /**
+     * @return how long receiving a request took
+     */
+    LatencyHistogram.Summary getReceiveLatency();
+
+    /**
+     * @return how long anonymizing a request took
+     */
+    LatencyHistogram.Summary getAnonymizeLatency();
+
+    /**
+     * @return how long sending an answer took
+     */
+    LatencyHistogram.Summary getSendLatency();
+}
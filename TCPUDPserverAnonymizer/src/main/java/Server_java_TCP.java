@@ -1,14 +1,41 @@
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple TCP/IP server that receives Strings and keywords
  * and returns the String with the keyword anonymized
  * turned to uppercase "X"
+ * The server keeps accepting connections until it is shut down, and every accepted client
+ * is served on its own virtual thread, so many clients can be connected at the same time.
+ * Clients may also stream text of any size ({@link TcpProtocol#STREAM_MODE}), it is anonymized with a
+ * {@link StreamingAnonymizer} and sent back as it goes, or pipeline tagged requests ({@link TcpProtocol#PIPELINE_MODE}).
+ * Requests, bytes, substitutions, open connections and the latency of each phase are kept in {@link ServerMetrics}.
+ * A String sent again with the same keywords is answered from the {@link ResultCache}, if it is turned on, without scanning it again.
+ * Lines longer than the largest message of the {@link AdmissionControl} are refused while they are read, before they are
+ * buffered whole, and every String must be admitted before it is anonymized: a String over the limits is answered
+ * with {@link TcpProtocol#BUSY} (or {@link TcpProtocol#TOO_LARGE}) at once and the connection is closed.
+ * A client sending more requests or bytes per second than its {@link RateLimiter} limits is answered with
+ * {@link TcpProtocol#BUSY} too, with the time until its tokens are there.
  * <p>References:
  *  <ul>
  * <li>[1]{@code @source} lmn@isep.ipp.pt - 27/12/2023 -"TCPEchoServer.java" (unknown version) Type: source code
@@ -16,14 +43,61 @@ import java.net.Socket;
  * <li>[3]{@code @source} Oracle (2023) "Class BufferedReader" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.
  * <li>[4]{@code @source} Oracle (2023) "Class InputStreamReader" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.
  * <li>[5]{@code @source} Oracle (2023) "Class PrintWriter" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.
+ * <li>[6]{@code @source} Oracle (2023) "Virtual Threads" (JEP 444) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
  * </ul>ki
  */
 public class Server_java_TCP {
+    /**
+     * The default maximum number of clients served at the same time
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+    /**
+     * The maximum time (in milliseconds) given to connected clients to finish when the server shuts down
+     */
+    private static final long DRAIN_TIMEOUT = 10000;
     /**
      * privately saves ServerSocket
      * {@code @source}[#1]
      */
     private ServerSocket serverSocket;
+    /**
+     * Limits the number of clients served at the same time,
+     * a permit is taken before accepting and given back when the client is done
+     */
+    private final Semaphore connectionPermits;
+    /**
+     * Runs every accepted client on its own virtual thread
+     * {@code @source}[#6]
+     */
+    private final ExecutorService clientExecutor;
+    /**
+     * The sockets of the clients currently being served, closed if they do not finish while draining
+     */
+    private final Set<Socket> activeConnections = ConcurrentHashMap.newKeySet();
+    /**
+     * The compiled keywords, shared by every client so repeated keywords are only compiled once
+     */
+    private final KeywordMatcherCache matchers = new KeywordMatcherCache(KeywordMatcherCache.DEFAULT_CAPACITY);
+    /**
+     * The results of the Strings anonymized recently, shared by every client so repeated Strings are only scanned once
+     */
+    private final ResultCache results = new ResultCache();
+    /**
+     * Bounds the requests being anonymized and their bytes, per client and in total
+     */
+    private final AdmissionControl admission = new AdmissionControl();
+    /**
+     * Limits the requests and bytes per second of every client
+     */
+    private final RateLimiter rateLimiter = new RateLimiter();
+    /**
+     * The counters and latencies of the server, published through JMX and printed periodically
+     */
+    private final ServerMetrics metrics;
+    /**
+     * Becomes false once the server starts shutting down
+     */
+    private volatile boolean running = true;
 
     /**
      * Starts the server Anonymizer, binding it to the specified port
@@ -34,44 +108,138 @@ public class Server_java_TCP {
      */
 
     public Server_java_TCP(int port) throws IOException {
+        this(port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Starts the server Anonymizer, binding it to the specified port
+     * and limiting the number of clients served at the same time
+     *
+     * @param port           The port binded to the server at localhost
+     * @param maxConnections The maximum number of clients served at the same time
+     *                       {@code @source}[#1]
+     *                       {@code @source}[#2]
+     */
+    public Server_java_TCP(int port, int maxConnections) throws IOException {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Maximum number of connections must be at least 1");
+        }
         serverSocket = null;
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("Server started at port " + port);
+            serverSocket = new ServerSocket(port, maxConnections);
+            System.out.println("Server started at port " + port + " (max " + maxConnections + " connections)");
         } catch (IOException e) {
             throw new IOException(e.getMessage());
         }
+        connectionPermits = new Semaphore(maxConnections);
+        clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        metrics = new ServerMetrics("TCP " + port, "connections", activeConnections::size);
+        metrics.setResultCache(results);
+        metrics.start();
     }
 
     /**
      * Creates ServerSocket and waits for connections
      *
      * @param args String[] port must be in space [0], or will exit with code 1
+     *             the maximum number of connections can be given in space [1]
      *             Turns port in an Integer and Creates server in port
-     *             Waits for connections
+     *             Waits for connections until the process is stopped, draining the connected clients on shutdown
      *             {@code @source} lmn@isep.ipp.pt - 27/1/2023 -"TCPEchoServer.java" (unknown version) Type: source code
      */
     public static void main(String[] args) throws IOException {
         if (args.length < 1) {
-            System.out.println("Usage: java server_java_TCP <port>");
+            System.out.println("Usage: java server_java_TCP <port> [maxConnections]");
             System.exit(1);
         }
         int port = Integer.parseInt(args[0]); //converts String to Integer
-        Server_java_TCP server = new Server_java_TCP(port); //creates server
+        int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_CONNECTIONS;
+        Server_java_TCP server = new Server_java_TCP(port, maxConnections); //creates server
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
         server.waitConnections();
     }
 
     /**
-     * ServerSocket waits Connection from clientSocket
-     * when achieved, start
+     * ServerSocket waits Connections from clientSockets until the server is shut down
+     * every accepted client is handed to a virtual thread, if the maximum number of connections is reached
+     * the server stops accepting until one of the clients is done
      * {@code @source} lmn@isep.ipp.pt - 27/1/2023 -"TCPEchoServer.java" (unknown version) Type: source code
      */
     public void waitConnections() {
-        Socket clientSocket;
+        while (running) {
+            Socket clientSocket;
+            try {
+                connectionPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (IOException e) {
+                connectionPermits.release();
+                if (running) {
+                    System.out.println("Failed to accept connection: " + e.getMessage());
+                    continue;
+                }
+                return;
+            }
+            activeConnections.add(clientSocket);
+            try {
+                clientExecutor.execute(() -> serveClient(clientSocket));
+            } catch (RuntimeException e) {
+                // the executor was shut down between accept() and execute()
+                closeQuietly(clientSocket);
+                activeConnections.remove(clientSocket);
+                connectionPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Serves a single client and gives its connection permit back when it is done
+     *
+     * @param clientSocket The socket of the accepted client
+     */
+    private void serveClient(Socket clientSocket) {
+        try {
+            handleClient(clientSocket);
+        } finally {
+            closeQuietly(clientSocket);
+            activeConnections.remove(clientSocket);
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * Reads the String and the keyword from the client and answers with the anonymized String,
+     * the number of substitutions and one "Socket Programming" per substitution.
+     * The client may keep the connection open and send more Strings, they are anonymized with the same keyword.
+     * The keyword line may carry several keywords separated by tabs, they are then all anonymized in a single pass.
+     * The compiled keywords come from {@link #matchers}, so a keyword line seen before is not compiled again.
+     * Answers are flushed once no other String is waiting to be read, so Strings sent back to back share a flush.
+     * A client that starts with {@link TcpProtocol#STREAM_MODE} streams its text instead, see {@link #streamClient},
+     * one that starts with {@link TcpProtocol#PIPELINE_MODE} sends tagged requests, see {@link #pipelineClient},
+     * and one that starts with a {@link CompactResponse} mode gets compact answers, see {@link #compactClient}.
+     * Strings longer than {@link ParallelAnonymizer#DEFAULT_SEGMENT_SIZE} characters are anonymized on every core.
+     * Receiving a String is timed from the end of the previous answer, so it includes the time the client took to send it.
+     * Every String (and every chunk of a stream) is admitted by {@link #admission} before it is anonymized, a line longer than
+     * the largest message is refused as soon as the limit is passed
+     *
+     * @param clientSocket The socket of the accepted client
+     *                     {@code @source} lmn@isep.ipp.pt - 27/1/2023 -"TCPEchoServer.java" (unknown version) Type: source code
+     */
+    private void handleClient(Socket clientSocket) {
+        InetAddress client = clientSocket.getInetAddress();
+        PrintWriter out = null;
         try {
-            clientSocket = serverSocket.accept();
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+            clientSocket.setTcpNoDelay(true); // answers are only flushed once complete, waiting for more would only delay them
+            TcpProtocol.LineLimitInputStream input = new TcpProtocol.LineLimitInputStream(
+                    metrics.countReceived(clientSocket.getInputStream()), admission.maxMessageBytes());
+            OutputStream output = metrics.countSent(clientSocket.getOutputStream());
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output)));
+            long receiveStart = System.nanoTime();
             String stringtoBeAnonymized = in.readLine();
             String keyWord = in.readLine();
 
@@ -80,30 +248,409 @@ public class Server_java_TCP {
                 return; // terminate the method execution
             }
 
-            if (keyWord == null || keyWord.isEmpty()) {
+            if (keyWord == null) {
                 System.err.println("Did not received valid keyword from client. Terminating!");
                 return; // terminate the method execution
             }
+            KeywordMatcher matcher = compileKeywords(out, client, keyWord, takeBytesRead(input));
+            if (matcher == null) {
+                return; // terminate the method execution
+            }
 
+            if (TcpProtocol.STREAM_MODE.equals(stringtoBeAnonymized)) {
+                input.disable(); // raw text in constant memory, not lines
+                if (!admit(out, client, 0)) {
+                    return;
+                }
+                try {
+                    streamClient(new ChargedReader(in, input, client), output, matcher);
+                } finally {
+                    admission.release(client, 0);
+                }
+                return;
+            }
+            if (TcpProtocol.PIPELINE_MODE.equals(stringtoBeAnonymized)) {
+                pipelineClient(in, out, matcher, client, input);
+                return;
+            }
+            if (CompactResponse.isMode(stringtoBeAnonymized)) {
+                compactClient(in, out, matcher, CompactResponse.OFFSETS_MODE.equals(stringtoBeAnonymized), client, input);
+                return;
+            }
+
+            ParallelAnonymizer anonymizer = new ParallelAnonymizer(matcher);
             while (stringtoBeAnonymized != null) {
-                String anonymizedString = Anonymizer.anonymizeKeyword(stringtoBeAnonymized, keyWord);
-                int countSubstitutions = Anonymizer.startingPositions(stringtoBeAnonymized, keyWord).size();
-                out.println(anonymizedString);
-                out.println(countSubstitutions);
-                for (int i = 0; i < countSubstitutions; i++)
-                    out.println("Socket Programming");
+                metrics.receiveLatency().recordSince(receiveStart);
+                long size = takeBytesRead(input);
+                if (!admit(out, client, size)) {
+                    return;
+                }
+                try {
+                    long anonymizeStart = System.nanoTime();
+                    AnonymizationResult result = results.anonymize(matcher, stringtoBeAnonymized, anonymizer::anonymize);
+                    metrics.anonymizeLatency().recordSince(anonymizeStart);
+                    String anonymizedString = result.anonymized();
+                    int countSubstitutions = result.matchCount();
+                    metrics.request(countSubstitutions);
+                    long sendStart = System.nanoTime();
+                    out.println(anonymizedString);
+                    out.println(countSubstitutions);
+                    for (int i = 0; i < countSubstitutions; i++)
+                        out.println("Socket Programming");
+                    if (!in.ready()) {
+                        out.flush();
+                    }
+                    metrics.sendLatency().recordSince(sendStart);
+                } finally {
+                    admission.release(client, size);
+                }
+                receiveStart = System.nanoTime();
                 stringtoBeAnonymized = in.readLine();
                 if (stringtoBeAnonymized == null) {
                     out.println("");
                 }
             }
-            in.close();
             out.close();
-            clientSocket.close();
-            serverSocket.close();
+            in.close();
+        } catch (TcpProtocol.LineTooLongException e) {
+            metrics.rejected();
+            out.println(TcpProtocol.tooLargeLine(e.maxLineBytes()));
+            out.flush();
+        } catch (SocketException e) {
+            if (running) {
+                System.out.println("Connection with client lost: " + e.getMessage());
+            }
         } catch (IOException e) {
             System.out.println("Did not receive valid String from Client. Terminating.");
         }
     }
-}
 
+    /**
+     * Answers the pipelined requests of the client in order until it closes its side of the connection.
+     * Answers are only flushed once every request already received is answered, so a batch of requests
+     * sent back to back is answered with a single flush
+     *
+     * @param in      The requests sent by the client, after the mode and keyword lines
+     * @param out     The stream to the client, not flushing on its own
+     * @param matcher The keywords
+     * @param client  The address of the client, for {@link #admission}
+     * @param input   Counts the bytes the client sent, that its requests are charged with
+     * @throws IOException in case of an error with the connection
+     */
+    private void pipelineClient(BufferedReader in, PrintWriter out, KeywordMatcher matcher, InetAddress client,
+                                TcpProtocol.LineLimitInputStream input) throws IOException {
+        String request;
+        long receiveStart = System.nanoTime();
+        while ((request = in.readLine()) != null) {
+            metrics.receiveLatency().recordSince(receiveStart);
+            int separator = request.indexOf(TcpProtocol.FIELD_SEPARATOR);
+            if (separator < 0) {
+                System.err.println("Did not received valid request from client. Terminating!");
+                break;
+            }
+            long size = takeBytesRead(input);
+            if (!admit(out, client, size)) {
+                return;
+            }
+            try {
+                long anonymizeStart = System.nanoTime();
+                AnonymizationResult result = results.anonymize(matcher, request.substring(separator + 1));
+                metrics.anonymizeLatency().recordSince(anonymizeStart);
+                metrics.request(result.matchCount());
+                long sendStart = System.nanoTime();
+                out.write(request, 0, separator + 1);
+                out.print(result.matchCount());
+                out.print(TcpProtocol.FIELD_SEPARATOR);
+                out.println(result.anonymized());
+                if (!in.ready()) {
+                    out.flush();
+                }
+                metrics.sendLatency().recordSince(sendStart);
+            } finally {
+                admission.release(client, size);
+            }
+            receiveStart = System.nanoTime();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compiles the keyword line of a client, once it is admitted like a request of the bytes read with it: a line holding
+     * more keywords or characters than {@link #matchers} compiles is answered with {@link TcpProtocol#TOO_LARGE} and the longest line taken
+     *
+     * @param out          The stream to the client, flushed when the line is refused
+     * @param client       The address of the client
+     * @param keywordField The keyword line
+     * @param size         The bytes read with the keyword line, see {@link #takeBytesRead}
+     * @return the matcher, or null if the line was refused or holds no keyword and the connection should be closed
+     */
+    private KeywordMatcher compileKeywords(PrintWriter out, InetAddress client, String keywordField, long size) {
+        if (matchers.isTooLarge(keywordField)) {
+            metrics.rejected();
+            out.println(TcpProtocol.tooLargeLine(matchers.maxKeywordChars()));
+            out.flush();
+            return null;
+        }
+        if (!admit(out, client, size)) {
+            return null;
+        }
+        try {
+            KeywordMatcher matcher = matchers.get(keywordField);
+            if (matcher == null) {
+                System.err.println("Did not received valid keyword from client. Terminating!");
+            }
+            return matcher;
+        } finally {
+            admission.release(client, size);
+        }
+    }
+
+    /**
+     * Takes the bytes the client sent since they were last taken, to charge the next request with them, so every byte read
+     * from the socket is charged once, and the bytes a reader buffered ahead are charged with the request they were read with.
+     * A line is never longer than the largest message ({@link TcpProtocol.LineLimitInputStream}), so the bytes read ahead
+     * with it are not counted past that size, they alone do not make a request too large
+     *
+     * @param input Counts the bytes the client sent
+     * @return the bytes to charge the request with
+     */
+    private long takeBytesRead(TcpProtocol.LineLimitInputStream input) {
+        return Math.min(input.takeBytesRead(), admission.maxMessageBytes());
+    }
+
+    /**
+     * Admits a request, or answers it with {@link TcpProtocol#BUSY} (or {@link TcpProtocol#TOO_LARGE}) and counts
+     * the rejection if the client is over the rates of {@link #rateLimiter} or the request does not fit the limits
+     * of {@link #admission}. An admitted request must be released once answered
+     *
+     * @param out    The stream to the client, flushed when the request is refused
+     * @param client The address of the client
+     * @param size   The size of the request
+     * @return true if the request was admitted, false if it was refused and the connection should be closed
+     */
+    private boolean admit(PrintWriter out, InetAddress client, long size) {
+        String refusal = refuse(client, size, true);
+        if (refusal == null) {
+            return true;
+        }
+        out.println(refusal);
+        out.flush();
+        return false;
+    }
+
+    /**
+     * Admits a request (or a chunk of a stream already admitted), or counts the rejection if the client is over
+     * the rates of {@link #rateLimiter} or the request does not fit the limits of {@link #admission}.
+     * An admitted request must be released once answered
+     *
+     * @param client  The address of the client
+     * @param size    The size of the request, in bytes
+     * @param request Whether it is a new request, false for the bytes of a chunk only
+     * @return null if the request was admitted, the {@link TcpProtocol#BUSY} or {@link TcpProtocol#TOO_LARGE} line
+     * answering it otherwise
+     */
+    private String refuse(InetAddress client, long size, boolean request) {
+        long wait = request ? rateLimiter.tryAcquire(client, size) : rateLimiter.tryAcquireBytes(client, size);
+        if (wait == 0 && (request ? admission.tryAcquire(client, size) : admission.tryAcquireBytes(client, size))) {
+            return null;
+        }
+        metrics.rejected();
+        return wait > 0 ? TcpProtocol.busyLine(wait)
+                : admission.isTooLarge(size) ? TcpProtocol.tooLargeLine(admission.maxMessageBytes())
+                : TcpProtocol.busyLine(admission.retryAfterMillis());
+    }
+
+    /**
+     * Answers every String the client sends with the anonymized String and a line holding the {@link CompactResponse} record,
+     * until the client closes its side of the connection
+     *
+     * @param in          The Strings sent by the client, after the mode and keyword lines
+     * @param out         The stream to the client, not flushing on its own
+     * @param matcher     The keywords
+     * @param withOffsets Whether the records hold the offsets of the occurrences
+     * @param client      The address of the client, for {@link #admission}
+     * @param input       Counts the bytes the client sent, that its Strings are charged with
+     * @throws IOException in case of an error with the connection
+     */
+    private void compactClient(BufferedReader in, PrintWriter out, KeywordMatcher matcher, boolean withOffsets, InetAddress client,
+                               TcpProtocol.LineLimitInputStream input) throws IOException {
+        String stringtoBeAnonymized;
+        long receiveStart = System.nanoTime();
+        while ((stringtoBeAnonymized = in.readLine()) != null) {
+            metrics.receiveLatency().recordSince(receiveStart);
+            long size = takeBytesRead(input);
+            if (!admit(out, client, size)) {
+                return;
+            }
+            try {
+                long anonymizeStart = System.nanoTime();
+                AnonymizationResult result = results.anonymize(matcher, stringtoBeAnonymized, withOffsets);
+                byte[] record = CompactResponse.encode(result);
+                metrics.anonymizeLatency().recordSince(anonymizeStart);
+                metrics.request(result.matchCount());
+                long sendStart = System.nanoTime();
+                out.println(result.anonymized());
+                out.println(CompactResponse.toLine(record));
+                if (!in.ready()) {
+                    out.flush();
+                }
+                metrics.sendLatency().recordSince(sendStart);
+            } finally {
+                admission.release(client, size);
+            }
+            receiveStart = System.nanoTime();
+        }
+        out.flush();
+    }
+
+    /**
+     * Anonymizes everything the client sends until it closes its side of the connection, in constant memory,
+     * sending the anonymized text back in chunks as it goes, then the number of substitutions.
+     * Receiving, anonymizing and sending overlap, so the whole stream is timed as anonymizing.
+     * Every chunk read is admitted as it comes ({@link ChargedReader}), a refused one ends the stream early
+     * and the refusal line is sent in place of the last chunk
+     *
+     * @param in      The text sent by the client, after the mode and keyword lines
+     * @param out     The stream to the client
+     * @param matcher The keywords
+     * @throws IOException in case of an error with the connection
+     */
+    private void streamClient(ChargedReader in, OutputStream out, KeywordMatcher matcher) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out, StreamingAnonymizer.DEFAULT_CHUNK_SIZE);
+        try {
+            long anonymizeStart = System.nanoTime();
+            long countSubstitutions = new StreamingAnonymizer(matcher).anonymize(in, new TcpProtocol.ChunkWriter(buffered));
+            metrics.anonymizeLatency().recordSince(anonymizeStart);
+            if (in.refusal() != null) {
+                buffered.write((in.refusal() + "\n").getBytes(StandardCharsets.US_ASCII));
+            } else {
+                metrics.request(countSubstitutions);
+                TcpProtocol.writeEnd(buffered, countSubstitutions);
+            }
+            buffered.flush();
+        } finally {
+            in.release();
+        }
+    }
+
+    /**
+     * The text of a stream, charged to {@link #rateLimiter} and {@link #admission} as it is read: the stream is one request,
+     * and every read charges the bytes the socket gave since the previous one, held in {@link #admission} until the next read,
+     * when the text read before is anonymized. A read that is refused ends the text, and the refusal is kept
+     * so the stream can be answered with it
+     */
+    private final class ChargedReader extends FilterReader {
+        /**
+         * Counts the bytes of the socket
+         */
+        private final TcpProtocol.LineLimitInputStream input;
+        /**
+         * The address of the client
+         */
+        private final InetAddress client;
+        /**
+         * The bytes held in {@link #admission}
+         */
+        private long held;
+        /**
+         * The line refusing the last read, null while every read was admitted
+         */
+        private String refusal;
+
+        /**
+         * Wraps the text of a stream
+         *
+         * @param in     The text, decoded from the socket
+         * @param input  Counts the bytes of the socket
+         * @param client The address of the client
+         */
+        private ChargedReader(Reader in, TcpProtocol.LineLimitInputStream input, InetAddress client) {
+            super(in);
+            this.input = input;
+            this.client = client;
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] c = new char[1];
+            return read(c, 0, 1) < 0 ? -1 : c[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (refusal != null) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, length);
+            release();
+            long size = takeBytesRead(input);
+            if (size > 0 && (refusal = refuse(client, size, false)) != null) {
+                return -1;
+            }
+            held = size;
+            return read;
+        }
+
+        /**
+         * Releases the bytes held in {@link #admission}, if any
+         */
+        private void release() {
+            if (held > 0) {
+                admission.releaseBytes(client, held);
+                held = 0;
+            }
+        }
+
+        /**
+         * Returns the line refusing the last read
+         *
+         * @return the line, or null if every read was admitted
+         */
+        private String refusal() {
+            return refusal;
+        }
+    }
+
+    /**
+     * Stops accepting new clients and gives the connected ones up to {@link #DRAIN_TIMEOUT} milliseconds to finish,
+     * after which their sockets are closed
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        System.out.println("Server shutting down, draining " + activeConnections.size() + " connection(s)");
+        closeQuietly(serverSocket);
+        clientExecutor.shutdown();
+        try {
+            if (!clientExecutor.awaitTermination(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                for (Socket socket : activeConnections) {
+                    closeQuietly(socket);
+                }
+                clientExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            clientExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(matchers);
+        System.out.println(results);
+        metrics.stop();
+        System.out.println(metrics);
+        System.out.println("Server stopped");
+    }
+
+    /**
+     * Closes a socket ignoring any error, used when the socket is being discarded anyway
+     *
+     * @param closeable The socket to be closed
+     */
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // nothing left to do with a socket that failed to close
+        }
+    }
+}
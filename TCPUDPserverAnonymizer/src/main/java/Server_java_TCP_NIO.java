@@ -0,0 +1,887 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An event-loop version of the TCP/IP server, it speaks the same protocol as {@link Server_java_TCP}
+ * (a String line, a keyword line, then more String lines anonymized with the same keyword, or pipelined requests
+ * after {@link TcpProtocol#PIPELINE_MODE})
+ * but instead of one thread per client it uses a small pool of reactor threads, each one multiplexing
+ * many non-blocking connections with a Selector.
+ * Lines are parsed straight out of a per-connection ByteBuffer and answers are written with gathering writes.
+ * Once the keyword is known, each line is copied into its answer buffer and anonymized there as UTF-8, in place.
+ * <p>The bytes a connection reads are charged to a {@link RateLimiter} and held in an {@link AdmissionControl} while
+ * they are buffered, until their line is answered, and every line takes a request from the rates of its client:
+ * so the bytes in flight are bounded over every connection, not only per connection. A read or line that is refused,
+ * or a line longer than the largest message, is answered with {@link TcpProtocol#busyLine} or
+ * {@link TcpProtocol#tooLargeLine} after the answers already queued, and the connection is closed.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} lmn@isep.ipp.pt - 27/12/2023 -"TCPEchoServer.java" (unknown version) Type: source code
+ * <li>[2]{@code @source} Oracle (2023) "Class ServerSocketChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[3]{@code @source} Oracle (2023) "Class Selector" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[4]{@code @source} Oracle (2023) "Interface GatheringByteChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[5]{@code @source} D. Lea (2003) "Scalable IO in Java" [Lecture slides]. Reactor pattern.
+ * </ul>
+ */
+public class Server_java_TCP_NIO {
+    /**
+     * The initial size of the buffer where each connection accumulates the bytes it reads
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /**
+     * The longest line (in bytes) a client may send, longer lines close the connection
+     */
+    private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+    /**
+     * The maximum number of buffers handed to a single gathering write
+     */
+    private static final int MAX_GATHER = 64;
+    /**
+     * Once this many bytes are waiting to be written, the connection stops reading until the client catches up
+     */
+    private static final int MAX_PENDING_WRITE_BYTES = 4 * 1024 * 1024;
+    /**
+     * The "Socket Programming" line sent once per substitution
+     */
+    private static final String SOCKET_PROGRAMMING_LINE = "Socket Programming\n";
+    /**
+     * The most "Socket Programming" lines queued at a time for one answer, the rest are queued as the channel drains
+     */
+    private static final int SOCKET_PROGRAMMING_BLOCK_LINES = 1024;
+    /**
+     * {@link #SOCKET_PROGRAMMING_BLOCK_LINES} "Socket Programming" lines, shared by every connection (read only)
+     */
+    private static final ByteBuffer SOCKET_PROGRAMMING_BLOCK =
+            ByteBuffer.wrap(SOCKET_PROGRAMMING_LINE.repeat(SOCKET_PROGRAMMING_BLOCK_LINES).getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    /**
+     * The room needed after an anonymized line for the line with the number of substitutions ('\n', up to 10 digits, '\n')
+     */
+    private static final int MAX_COUNT_LINE_LENGTH = 12;
+    /**
+     * The empty line sent when the client closes its side of the connection
+     */
+    private static final ByteBuffer END_LINE = ByteBuffer.wrap("\n".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+
+    /**
+     * The channel accepting new clients
+     * {@code @source}[#2]
+     */
+    private final ServerSocketChannel serverChannel;
+    /**
+     * The reactors the accepted connections are distributed to
+     */
+    private final Reactor[] reactors;
+    /**
+     * The compiled keywords, shared by every reactor so repeated keywords are only compiled once
+     */
+    private final KeywordMatcherCache matchers = new KeywordMatcherCache(KeywordMatcherCache.DEFAULT_CAPACITY);
+    /**
+     * Bounds the bytes buffered by the connections, per client and in total
+     */
+    private final AdmissionControl admission = new AdmissionControl();
+    /**
+     * Limits the requests and bytes per second of every client
+     */
+    private final RateLimiter rateLimiter = new RateLimiter();
+    /**
+     * Becomes false once the server starts shutting down
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Starts the server, binding it to the specified port and creating the reactor threads
+     *
+     * @param port         The port binded to the server at localhost
+     * @param reactorCount The number of reactor threads
+     * @throws IOException if the port can not be bound or a selector can not be opened
+     */
+    public Server_java_TCP_NIO(int port, int reactorCount) throws IOException {
+        if (reactorCount < 1) {
+            throw new IllegalArgumentException("Number of reactors must be at least 1");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(Selector.open(), matchers, admission, rateLimiter);
+        }
+        System.out.println("NIO server started at port " + port + " with " + reactorCount + " reactor(s)");
+    }
+
+    /**
+     * Creates the server and accepts connections until the process is stopped
+     *
+     * @param args String[] port must be in space [0], or will exit with code 1
+     *             the number of reactor threads can be given in space [1] (defaults to the number of processors)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java Server_java_TCP_NIO <port> [reactors]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        int reactorCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Server_java_TCP_NIO server = new Server_java_TCP_NIO(port, reactorCount);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+        server.waitConnections();
+    }
+
+    /**
+     * Starts the reactor threads and accepts connections, handing them to the reactors in turn
+     * {@code @source}[#5]
+     */
+    public void waitConnections() {
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i].start("nio-reactor-" + i);
+        }
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Failed to accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting clients and stops every reactor, each one closing its connections and selector on its own thread,
+     * and waits for them to be done
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // the server is stopping anyway
+        }
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+        for (Reactor reactor : reactors) {
+            reactor.join();
+        }
+        System.out.println("NIO server stopped");
+    }
+
+    /**
+     * Writes a non-negative number in decimal ASCII digits
+     *
+     * @param buffer The buffer the digits are written to
+     * @param value  The number
+     */
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+
+    /**
+     * An event loop owning a Selector and every connection registered in it.
+     * All the state of a connection is only touched by the reactor thread that owns it,
+     * and so is the selector: it is stopped by a flag and a wakeup, and closes everything itself.
+     */
+    private static final class Reactor implements Runnable {
+        /**
+         * The selector multiplexing the connections of this reactor
+         */
+        private final Selector selector;
+        /**
+         * Channels accepted by the server and waiting to be registered by the reactor thread
+         */
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        /**
+         * The compiled keywords shared by the server
+         */
+        private final KeywordMatcherCache matchers;
+        /**
+         * Bounds the bytes buffered by the connections, shared by the server
+         */
+        private final AdmissionControl admission;
+        /**
+         * Limits the requests and bytes per second of every client, shared by the server
+         */
+        private final RateLimiter rateLimiter;
+        /**
+         * Becomes true once the reactor is asked to stop
+         */
+        private volatile boolean stopping;
+        /**
+         * The thread running the event loop, null until it is started
+         */
+        private Thread thread;
+
+        /**
+         * Creates a reactor around the given selector
+         *
+         * @param selector    The selector used by this reactor
+         * @param matchers    The compiled keywords shared by the server
+         * @param admission   Bounds the bytes buffered by the connections
+         * @param rateLimiter Limits the requests and bytes per second of every client
+         */
+        private Reactor(Selector selector, KeywordMatcherCache matchers, AdmissionControl admission, RateLimiter rateLimiter) {
+            this.selector = selector;
+            this.matchers = matchers;
+            this.admission = admission;
+            this.rateLimiter = rateLimiter;
+        }
+
+        /**
+         * Starts the event loop on its own (daemon) thread
+         *
+         * @param name The name of the thread
+         */
+        private void start(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Asks the event loop to stop, it closes the connections and the selector once it wakes up.
+         * A reactor that was never started is closed right away, no other thread owns it
+         */
+        private void stop() {
+            stopping = true;
+            if (thread == null) {
+                close();
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Waits for the event loop to be done after {@link #stop()}
+         */
+        private void join() {
+            if (thread == null) {
+                return;
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Hands a new connection to this reactor, it is registered by the reactor thread itself
+         *
+         * @param channel The accepted (non-blocking) channel
+         */
+        private void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * The event loop: registers new connections and serves every ready one, until it is stopped
+         */
+        @Override
+        public void run() {
+            try {
+                while (!stopping) {
+                    selector.select();
+                    if (stopping) {
+                        break;
+                    }
+                    registerNewChannels();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!stopping) {
+                    System.out.println("Reactor error: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Registers in the selector the connections handed over by the server
+         *
+         * @throws IOException in case of an error with the channel
+         */
+        private void registerNewChannels() throws IOException {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key, matchers, admission, rateLimiter));
+                } catch (ClosedChannelException e) {
+                    channel.close();
+                }
+            }
+        }
+
+        /**
+         * Closes the selector, every connection registered in it and the ones still waiting to be registered,
+         * only called by the thread owning the selector
+         */
+        private void close() {
+            try {
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null) {
+                    channel.close();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.close();
+                    } else {
+                        key.channel().close();
+                    }
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                // the reactor is stopping anyway
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection: the bytes read and not yet parsed,
+     * the protocol progress and the buffers waiting to be written
+     */
+    private static final class Connection {
+        /**
+         * The channel of the client
+         */
+        private final SocketChannel channel;
+        /**
+         * The registration of the channel in the reactor's selector
+         */
+        private final SelectionKey key;
+        /**
+         * The compiled keywords shared by the server
+         */
+        private final KeywordMatcherCache matchers;
+        /**
+         * Holds the bytes buffered by this connection, shared by the server
+         */
+        private final AdmissionControl admission;
+        /**
+         * Charges the lines and bytes of this connection, shared by the server
+         */
+        private final RateLimiter rateLimiter;
+        /**
+         * The address of the client
+         */
+        private final InetAddress client;
+        /**
+         * The bytes read and not answered yet, held in {@link #admission}
+         */
+        private long heldBytes;
+        /**
+         * True once a read or a line was refused, nothing more is read
+         */
+        private boolean refused;
+        /**
+         * The buffer the channel reads into (kept in write mode between reads)
+         */
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        /**
+         * The buffers waiting to be written to the client, in order
+         */
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        /**
+         * The "Socket Programming" lines still to be queued for the blocks in {@link #pendingWrites}, by block
+         */
+        private final Map<ByteBuffer, Integer> socketProgrammingsLeft = new IdentityHashMap<>();
+        /**
+         * The number of bytes in {@link #pendingWrites}, counting the "Socket Programming" lines still to be queued
+         */
+        private long pendingWriteBytes;
+        /**
+         * The first String sent by the client, kept until the keyword arrives
+         */
+        private String firstString;
+        /**
+         * The compiled keyword line sent by the client (one keyword or several separated by tabs),
+         * null until the second line is read
+         */
+        private KeywordMatcher matcher;
+        /**
+         * True if the client pipelines tagged requests ({@link TcpProtocol#PIPELINE_MODE})
+         */
+        private boolean pipelined;
+        /**
+         * True if the client asked for compact answers ({@link CompactResponse})
+         */
+        private boolean compact;
+        /**
+         * True if the compact answers hold the offsets of the occurrences
+         */
+        private boolean compactOffsets;
+        /**
+         * True once the client closed its side of the connection
+         */
+        private boolean inputClosed;
+
+        /**
+         * Creates the state of a new connection
+         *
+         * @param channel     The channel of the client
+         * @param key         The registration of the channel in the selector
+         * @param matchers    The compiled keywords shared by the server
+         * @param admission   Holds the bytes buffered by the connection
+         * @param rateLimiter Charges the lines and bytes of the connection
+         */
+        private Connection(SocketChannel channel, SelectionKey key, KeywordMatcherCache matchers,
+                           AdmissionControl admission, RateLimiter rateLimiter) {
+            this.channel = channel;
+            this.key = key;
+            this.matchers = matchers;
+            this.admission = admission;
+            this.rateLimiter = rateLimiter;
+            this.client = channel.socket().getInetAddress();
+        }
+
+        /**
+         * Reads whatever the client sent and processes every complete line
+         *
+         * @throws IOException in case of an error with the channel
+         */
+        private void read() throws IOException {
+            if (refused) {
+                return;
+            }
+            int maxLineLength = (int) Math.min(MAX_LINE_LENGTH, admission.maxMessageBytes());
+            // the buffer never holds more than a line, so that a read is never larger than a message
+            readBuffer.limit(Math.min(readBuffer.capacity(), maxLineLength));
+            if (!readBuffer.hasRemaining()) {
+                if (readBuffer.limit() >= maxLineLength) {
+                    refuse(TcpProtocol.tooLargeLine(admission.maxMessageBytes()));
+                    write();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, maxLineLength));
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                inputClosed = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                if (matcher != null && !pipelined && !compact) {
+                    enqueue(END_LINE.duplicate());
+                }
+                write();
+                return;
+            }
+            if (charge(read)) {
+                processLines();
+            }
+            write();
+        }
+
+        /**
+         * Charges the bytes just read to the rates of the client and holds them in {@link #admission} until their line
+         * is answered, or refuses them
+         *
+         * @param read The number of bytes read
+         * @return true if the bytes were taken, false if the connection was refused
+         */
+        private boolean charge(int read) {
+            if (read == 0) {
+                return true;
+            }
+            long wait = rateLimiter.tryAcquireBytes(client, read);
+            if (wait == 0 && admission.tryAcquireBytes(client, read)) {
+                heldBytes += read;
+                return true;
+            }
+            refuse(TcpProtocol.busyLine(wait > 0 ? wait : admission.retryAfterMillis()));
+            return false;
+        }
+
+        /**
+         * Gives back the bytes of the answered lines held in {@link #admission}
+         *
+         * @param bytes The number of bytes, at most {@link #heldBytes}
+         */
+        private void release(long bytes) {
+            if (bytes > 0) {
+                admission.releaseBytes(client, bytes);
+                heldBytes -= bytes;
+            }
+        }
+
+        /**
+         * Refuses the rest of the connection: the line is queued after the answers already queued, nothing more is read,
+         * the buffered bytes are dropped and the connection is closed once everything is written
+         *
+         * @param line The {@link TcpProtocol#BUSY} or {@link TcpProtocol#TOO_LARGE} line, without the line terminator
+         */
+        private void refuse(String line) {
+            refused = true;
+            inputClosed = true;
+            release(heldBytes);
+            readBuffer.clear();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            enqueue(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        /**
+         * Parses every complete line in the read buffer, a line ends in '\n' (an optional '\r' before it is dropped)
+         */
+        private void processLines() {
+            byte[] data = readBuffer.array();
+            int end = readBuffer.position();
+            int lineStart = 0;
+            for (int i = 0; i < end && key.isValid() && !refused; i++) {
+                if (data[i] == '\n') {
+                    long wait = rateLimiter.tryAcquire(client, 0);
+                    if (wait > 0) {
+                        refuse(TcpProtocol.busyLine(wait));
+                        return;
+                    }
+                    int lineEnd = i > lineStart && data[i - 1] == '\r' ? i - 1 : i;
+                    onLine(data, lineStart, lineEnd - lineStart);
+                    lineStart = i + 1;
+                }
+            }
+            if (!key.isValid() || refused) {
+                return;
+            }
+            release(lineStart);
+            readBuffer.flip();
+            readBuffer.position(lineStart);
+            readBuffer.compact();
+        }
+
+        /**
+         * Handles one line of the protocol: the first String (or a mode line), the keyword,
+         * or another String (or pipelined request).
+         * Once the keyword is known the lines are anonymized as bytes, without being decoded into Strings
+         *
+         * @param data   The buffer holding the line
+         * @param offset Where the line starts
+         * @param length The length of the line, without the line terminator
+         */
+        private void onLine(byte[] data, int offset, int length) {
+            if (pipelined) {
+                anonymizeRequest(data, offset, length);
+                return;
+            }
+            if (compact) {
+                anonymizeCompact(data, offset, length);
+                return;
+            }
+            if (matcher != null) {
+                anonymize(data, offset, length);
+                return;
+            }
+            String line = new String(data, offset, length, StandardCharsets.UTF_8);
+            if (firstString == null) {
+                if (line.isEmpty()) {
+                    System.err.println("Did not received valid string from client. Terminating!");
+                    close();
+                    return;
+                }
+                if (TcpProtocol.STREAM_MODE.equals(line)) {
+                    System.err.println("Streaming is only served by Server_java_TCP. Terminating!");
+                    close();
+                    return;
+                }
+                firstString = line;
+            } else {
+                if (matchers.isTooLarge(line)) {
+                    refuse(TcpProtocol.tooLargeLine(matchers.maxKeywordChars()));
+                    return;
+                }
+                matcher = matchers.get(line);
+                if (matcher == null) {
+                    System.err.println("Did not received valid keyword from client. Terminating!");
+                    close();
+                    return;
+                }
+                pipelined = TcpProtocol.PIPELINE_MODE.equals(firstString);
+                compact = CompactResponse.isMode(firstString);
+                compactOffsets = CompactResponse.OFFSETS_MODE.equals(firstString);
+                if (!pipelined && !compact) {
+                    anonymize(firstString);
+                }
+                firstString = null;
+            }
+        }
+
+        /**
+         * Anonymizes a String and queues the answer: the anonymized String, the number of substitutions
+         * and one "Socket Programming" line per substitution
+         *
+         * @param stringtoBeAnonymized The String to be anonymized with the connection's keyword
+         */
+        private void anonymize(String stringtoBeAnonymized) {
+            AnonymizationResult result = matcher.anonymize(stringtoBeAnonymized);
+            String anonymizedString = result.anonymized();
+            int countSubstitutions = result.matchCount();
+            enqueue(ByteBuffer.wrap((anonymizedString + "\n" + countSubstitutions + "\n").getBytes(StandardCharsets.UTF_8)));
+            enqueueSocketProgrammings(countSubstitutions);
+        }
+
+        /**
+         * Anonymizes a line of UTF-8 and queues the answer, like {@link #anonymize(String)}.
+         * The line is copied once, into the buffer of the answer, and anonymized there in place
+         *
+         * @param data   The buffer holding the line
+         * @param offset Where the line starts
+         * @param length The length of the line
+         */
+        private void anonymize(byte[] data, int offset, int length) {
+            ByteBuffer answer = ByteBuffer.allocate(length + MAX_COUNT_LINE_LENGTH);
+            answer.put(data, offset, length).flip();
+            int countSubstitutions;
+            try {
+                countSubstitutions = matcher.anonymize(answer, null);
+            } catch (CharacterCodingException e) {
+                anonymize(new String(data, offset, length, StandardCharsets.UTF_8));
+                return;
+            }
+            answer.position(answer.limit()).limit(answer.capacity());
+            answer.put((byte) '\n');
+            putDecimal(answer, countSubstitutions);
+            answer.put((byte) '\n');
+            enqueue(answer.flip());
+            enqueueSocketProgrammings(countSubstitutions);
+        }
+
+        /**
+         * Anonymizes a pipelined request (an id, a tab and the String) and queues the answer:
+         * the id, a tab, the number of substitutions, a tab and the anonymized String.
+         * Answers to the requests read together are written together, with the next gathering write
+         *
+         * @param data   The buffer holding the request
+         * @param offset Where the request starts
+         * @param length The length of the request
+         */
+        private void anonymizeRequest(byte[] data, int offset, int length) {
+            int separator = offset;
+            while (separator < offset + length && data[separator] != TcpProtocol.FIELD_SEPARATOR) {
+                separator++;
+            }
+            if (separator == offset + length) {
+                System.err.println("Did not received valid request from client. Terminating!");
+                close();
+                return;
+            }
+            MaskedLine answer = maskLine(data, separator + 1, offset + length - separator - 1);
+            ByteBuffer header = ByteBuffer.allocate(separator - offset + MAX_COUNT_LINE_LENGTH);
+            header.put(data, offset, separator - offset + 1);
+            putDecimal(header, answer.countSubstitutions());
+            header.put((byte) TcpProtocol.FIELD_SEPARATOR);
+            enqueue(header.flip());
+            enqueue(answer.line());
+        }
+
+        /**
+         * Anonymizes a line of UTF-8 and queues the answer asked for with a {@link CompactResponse} mode:
+         * the anonymized line and a line holding the record in Base64
+         *
+         * @param data   The buffer holding the line
+         * @param offset Where the line starts
+         * @param length The length of the line
+         */
+        private void anonymizeCompact(byte[] data, int offset, int length) {
+            byte[] record;
+            if (compactOffsets) {
+                AnonymizationResult result = matcher.anonymize(new String(data, offset, length, StandardCharsets.UTF_8), true);
+                record = CompactResponse.encode(result);
+                enqueue(ByteBuffer.wrap((result.anonymized() + "\n").getBytes(StandardCharsets.UTF_8)));
+            } else {
+                MaskedLine answer = maskLine(data, offset, length);
+                record = CompactResponse.encode(answer.countSubstitutions());
+                enqueue(answer.line());
+            }
+            enqueue(ByteBuffer.wrap((CompactResponse.toLine(record) + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        /**
+         * Copies a line of UTF-8 into a new buffer and anonymizes it there in place,
+         * going through a String if the line is not valid UTF-8
+         *
+         * @param data   The buffer holding the line
+         * @param offset Where the line starts
+         * @param length The length of the line
+         * @return the anonymized line, ended by '\n', and the number of substitutions
+         */
+        private MaskedLine maskLine(byte[] data, int offset, int length) {
+            ByteBuffer line = ByteBuffer.allocate(length + 1);
+            line.put(data, offset, length).flip();
+            try {
+                int countSubstitutions = matcher.anonymize(line, null);
+                line.position(line.limit()).limit(line.capacity());
+                return new MaskedLine(line.put((byte) '\n').flip(), countSubstitutions);
+            } catch (CharacterCodingException e) {
+                AnonymizationResult result = matcher.anonymize(new String(data, offset, length, StandardCharsets.UTF_8));
+                return new MaskedLine(ByteBuffer.wrap((result.anonymized() + "\n").getBytes(StandardCharsets.UTF_8)), result.matchCount());
+            }
+        }
+
+        /**
+         * Queues one "Socket Programming" line per substitution: a view of the shared block of lines, as many of them
+         * as the block holds, and the count of the ones left, queued by {@link #write()} as the channel drains the view.
+         * So an answer takes the same memory whatever its number of substitutions
+         *
+         * @param countSubstitutions The number of substitutions
+         */
+        private void enqueueSocketProgrammings(int countSubstitutions) {
+            if (countSubstitutions == 0) {
+                return;
+            }
+            int lines = Math.min(countSubstitutions, SOCKET_PROGRAMMING_BLOCK_LINES);
+            ByteBuffer block = SOCKET_PROGRAMMING_BLOCK.duplicate().limit(lines * SOCKET_PROGRAMMING_LINE.length());
+            if (countSubstitutions > lines) {
+                socketProgrammingsLeft.put(block, countSubstitutions - lines);
+            }
+            enqueue(block);
+            pendingWriteBytes += (long) (countSubstitutions - lines) * SOCKET_PROGRAMMING_LINE.length();
+        }
+
+        /**
+         * Queues the next lines of a block of "Socket Programming" lines once it was written, if any are left
+         *
+         * @param block The block, written
+         * @return true if the block was refilled and stays queued
+         */
+        private boolean refill(ByteBuffer block) {
+            Integer left = socketProgrammingsLeft.remove(block);
+            if (left == null) {
+                return false;
+            }
+            int lines = Math.min(left, SOCKET_PROGRAMMING_BLOCK_LINES);
+            block.position(0).limit(lines * SOCKET_PROGRAMMING_LINE.length());
+            if (left > lines) {
+                socketProgrammingsLeft.put(block, left - lines);
+            }
+            return true;
+        }
+
+        /**
+         * Queues a buffer to be written, stopping reads while too much is waiting to be written
+         *
+         * @param buffer The buffer to be written
+         */
+        private void enqueue(ByteBuffer buffer) {
+            pendingWrites.add(buffer);
+            pendingWriteBytes += buffer.remaining();
+            if (pendingWriteBytes > MAX_PENDING_WRITE_BYTES) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Writes as much of the pending buffers as the channel accepts, with gathering writes.
+         * A block of "Socket Programming" lines is queued again with the next lines of its answer once written,
+         * and a gathering write stops at it, so those lines go out before the buffers queued after it.
+         * Waits for the channel to be writable again if something is left, closes the connection
+         * when everything was written and the client already closed its side
+         * {@code @source}[#4]
+         *
+         * @throws IOException in case of an error with the channel
+         */
+        private void write() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            ByteBuffer[] gather = new ByteBuffer[Math.min(pendingWrites.size(), MAX_GATHER)];
+            while (!pendingWrites.isEmpty()) {
+                int count = 0;
+                long offered = 0;
+                for (ByteBuffer buffer : pendingWrites) {
+                    if (count == gather.length) {
+                        break;
+                    }
+                    gather[count++] = buffer;
+                    offered += buffer.remaining();
+                    if (socketProgrammingsLeft.containsKey(buffer)) {
+                        break; // its next lines go before the buffers after it
+                    }
+                }
+                long written = channel.write(gather, 0, count);
+                pendingWriteBytes -= written;
+                while (!pendingWrites.isEmpty() && !pendingWrites.peek().hasRemaining() && !refill(pendingWrites.peek())) {
+                    pendingWrites.poll();
+                }
+                if (written < offered) {
+                    break;
+                }
+            }
+            if (!pendingWrites.isEmpty()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            if (inputClosed) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Closes the connection, discarding anything not written yet
+         */
+        private void close() {
+            release(heldBytes);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the connection is being discarded anyway
+            }
+        }
+
+        /**
+         * An anonymized line ready to be written and its number of substitutions
+         *
+         * @param line               The anonymized line, ended by '\n'
+         * @param countSubstitutions The number of substitutions
+         */
+        private record MaskedLine(ByteBuffer line, int countSubstitutions) {
+        }
+    }
+}
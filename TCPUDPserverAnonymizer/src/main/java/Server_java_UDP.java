@@ -1,10 +1,15 @@
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A simple UDP server that receives a message and a keyword from a client
@@ -12,7 +17,33 @@ import java.util.List;
  * equal to the number of substitutions made in the message.
  * If the String sent is larger than the buffer size, it will be divided into parts and sent separately,
  * and the server will reassemble it. This system uses an 'ACK' message to ensure the data is sent completely. (order not guaranteed)
- * It only communicates with one client at a time.
+ * A datagram of the answer whose ACK does not arrive in time is sent again, up to {@link #MAX_RETRIES} times,
+ * with a timeout computed by a {@link RetransmissionTimer} from the round-trip times of the earlier ones;
+ * a client that still does not acknowledge only loses its request.
+ * Legacy clients are served one at a time, datagrams from anyone else are ignored meanwhile.
+ * A legacy client may ask for a compact answer ({@link CompactResponse}) and expand the "Socket Programming"'s itself.
+ * Clients may also use the windowed protocol ({@link SlidingWindowSession}), where each datagram carries a binary header
+ * and a chunk of up to {@link UdpFrame#MAX_PAYLOAD_SIZE} bytes, and several chunks are in flight at once.
+ * The server recognizes it from the first datagram it receives. Windowed exchanges are kept in a
+ * {@link UdpSessionTable} keyed by client address and message id, so many clients are served at the same time
+ * from the same socket, and the messages are anonymized on virtual threads while the socket keeps being read.
+ * A keyword field holding several keywords separated by tabs is anonymized with a {@link KeywordAutomaton}, in a single pass.
+ * Compiled keywords are kept in a {@link KeywordMatcherCache}, so a keyword field seen before is not compiled again,
+ * and a legacy message sent again with the same keywords is answered from the {@link ResultCache}, if it is turned on.
+ * Requests, bytes, substitutions, retransmits, ACK timeouts, open exchanges and the latency of each phase
+ * are kept in {@link ServerMetrics}.
+ * Datagrams are received through a {@link UdpChannel} into pooled direct buffers: the numbers and "ACK"s of the legacy protocol
+ * are read from the buffer without decoding a String, and the chunk of a windowed request stays in the buffer it was received into
+ * until the request is assembled, so receiving allocates nothing per datagram.
+ * Several receiver threads may serve the port, each a Server_java_UDP with its own sessions and legacy client, sharing the
+ * metrics, the compiled keywords and the workers of the first one. Where the OS supports it each receiver binds its own socket
+ * to the port with SO_REUSEPORT, and the kernel hands all the datagrams of a peer to the same socket; otherwise a
+ * {@link UdpDispatcher} reads the only socket and hands them to the receivers by peer. Either way the datagrams of a session
+ * are handled by one thread, so the sessions need no locking, and receiving scales with the cores.
+ * Requests are admitted by an {@link AdmissionControl} shared by the receivers before they are received whole:
+ * a legacy request once its length arrives, answered with "BUSY &lt;ms&gt;" or "TOO_LARGE &lt;bytes&gt;" instead of an ACK
+ * when refused, and a windowed one on its first chunk, answered with a {@link UdpFrame#BUSY} or {@link UdpFrame#TOO_LARGE} frame.
+ * A client over the requests or bytes per second of its {@link RateLimiter} limits is refused the same way, as busy.
  * <p>References:
  * <ul>
  * <li>[1]{@code @source} lmn@isep.ipp.pt - 27/12/2023 -"UDPEchoCServer.java" (unknown version) Type: source code
@@ -21,13 +52,20 @@ import java.util.List;
  * <li>[4]{@code @source} Oracle (2023) "Class InetAddress" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.</li>
  * <li>[5]{@code @source} Oracle (2023) "Class SocketException" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.</li>
  * <li>[6]{@code @source} Oracle (2023) "Class IOException" (N/A) [Official Documentation]. Java Platform Standard Edition 8 Documentation.</li>
+ * <li>[7]{@code @source} Oracle (2023) "Class DatagramChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.</li>
+ * <li>[8]{@code @source} M. Kerrisk (2013) "The SO_REUSEPORT socket option" [Article]. LWN.net.</li>
  * </ul>
  */
 public class Server_java_UDP {
     /**
-     * The maximum time to wait for a response from the server
+     * The maximum time to wait for the next datagram of a legacy request, long enough for the client
+     * to send a lost datagram again {@link #MAX_RETRIES} times with backoff
      */
-    private static final int MAX_TIMEOUT = 1000;
+    private static final int MAX_TIMEOUT = 15000;
+    /**
+     * How many times a datagram of a legacy answer is sent again before the request is dropped
+     */
+    private static final int MAX_RETRIES = 3;
     /**
      * The size of the buffer used to send and receive data
      */
@@ -37,42 +75,211 @@ public class Server_java_UDP {
      * The acknowledgment message sent by the server
      */
     private static final String ACK = "ACK";
+    /**
+     * Starts the answer to a legacy request refused because the server is busy, followed by a space and the retry hint in milliseconds
+     */
+    private static final String BUSY = "BUSY";
+    /**
+     * Starts the answer to a legacy request refused because its message is too large, followed by a space and the limit in bytes
+     */
+    private static final String TOO_LARGE = "TOO_LARGE";
     /**
      * The Socket Programming String
      */
     private static final String SOCKET_PROGRAMMING = "\nSocket Programming";
     /**
-     * The DatagramSocket used to send and receive data
+     * How often (in milliseconds) the server checks its sessions for timed out chunks and idle sessions
      */
-    private DatagramSocket socket;
+    private static final int TICK = 50;
     /**
-     * The port number of the client that the server is communicating with
+     * How long (in milliseconds) a windowed session may go without traffic before it is evicted
      */
-    private int port;
+    private static final long SESSION_IDLE_TIMEOUT = 30000;
     /**
-     * The IP address of the client that the server is communicating with
+     * Whether the receivers bind their own sockets with SO_REUSEPORT where the OS supports it
+     * ({@code -Danonymizer.udp.reuseport=false} makes them share one socket through a {@link UdpDispatcher})
      */
-
-    private InetAddress address;
+    static final String REUSE_PORT_PROPERTY = "anonymizer.udp.reuseport";
+    /**
+     * The channel used to send data, and to receive it unless the datagrams come from a {@link UdpDispatcher}
+     */
+    private UdpChannel channel;
+    /**
+     * Where this receiver takes its datagrams from: its channel, or its inbox of the {@link #dispatcher}
+     */
+    private DatagramSource source;
+    /**
+     * Every receiver of the port, this one first, null in the other receivers
+     */
+    private final Server_java_UDP[] receivers;
+    /**
+     * Reads the socket shared by the receivers, null if each receiver reads its own socket
+     */
+    private UdpDispatcher dispatcher;
+    /**
+     * The address of the legacy client that the server is communicating with, null while none is served
+     */
+    private SocketAddress client;
+    /**
+     * The bytes the legacy request being served was admitted with by {@link #rateLimiter} and {@link #admission}
+     */
+    private long admittedBytes;
+    /**
+     * How long to wait for the next datagram, in milliseconds
+     */
+    private int timeout = TICK;
+    /**
+     * The pooled buffer the next datagram is received into, replaced when the chunk it holds is kept by a session
+     */
+    private ByteBuffer receiveBuffer;
+    /**
+     * The "ACK" of the legacy protocol, sent again and again from the same buffer
+     */
+    private final ByteBuffer ackDatagram = ByteBuffer.allocateDirect(ACK.length()).put(ACK.getBytes(StandardCharsets.US_ASCII)).flip();
+    /**
+     * The buffer the ACK frames of the windowed protocol are written into
+     */
+    private final ByteBuffer ackFrame = ByteBuffer.allocateDirect(UdpFrame.ACK_FRAME_SIZE);
+    /**
+     * Finds the session of every windowed frame received, without allocating a key per frame
+     */
+    private final UdpSessionTable.Lookup lookup = new UdpSessionTable.Lookup();
+    /**
+     * Collects the raw bytes of the parts of a legacy message, decoded once when all of them arrived
+     */
+    private ByteBuffer partsBuffer = ByteBuffer.allocate(1024);
+    /**
+     * The counters and latencies of the server, published through JMX and printed periodically
+     */
+    private final ServerMetrics metrics;
+    /**
+     * The windowed exchanges in progress
+     */
+    private final UdpSessionTable sessions;
+    /**
+     * Anonymizes the complete windowed requests, one virtual thread per request, shared by the receivers
+     */
+    private final ExecutorService workers;
+    /**
+     * The compiled keywords, shared by every request of every receiver so repeated keywords are only compiled once
+     */
+    private final KeywordMatcherCache matchers;
+    /**
+     * The results of the legacy messages anonymized recently, shared by the receivers
+     */
+    private final ResultCache results;
+    /**
+     * Bounds the requests in flight, shared by the receivers
+     */
+    private final AdmissionControl admission;
+    /**
+     * Limits the requests and bytes per second of every client, shared by the receivers
+     */
+    private final RateLimiter rateLimiter;
+    /**
+     * When the sessions were last checked, in milliseconds
+     */
+    private long lastTick;
+    /**
+     * Times the ACKs of the legacy client being served, a new one for every request
+     */
+    private RetransmissionTimer ackTimer;
 
     /**
      * The constructor of the server
-     * It initializes the server with the given port number
+     * It initializes the server with the given port number, with a single receiver
      *
      * @param port The port number of the server
      */
     public Server_java_UDP(int port) {
+        this(port, 1);
+    }
+
+    /**
+     * The constructor of the server
+     * It initializes the server with the given port number and the receivers serving it: with SO_REUSEPORT every receiver
+     * binds its own socket, otherwise they share one read by a {@link UdpDispatcher}
+     *
+     * @param port          The port number of the server
+     * @param receiverCount The number of receiver threads
+     */
+    public Server_java_UDP(int port, int receiverCount) {
+        if (receiverCount < 1) {
+            throw new IllegalArgumentException("Number of receivers must be at least 1");
+        }
+        this.metrics = new ServerMetrics("UDP " + port, "exchanges", this::activeExchanges);
+        this.admission = new AdmissionControl();
+        this.rateLimiter = new RateLimiter();
+        this.sessions = new UdpSessionTable(SESSION_IDLE_TIMEOUT, metrics, admission);
+        this.workers = Executors.newVirtualThreadPerTaskExecutor();
+        this.matchers = new KeywordMatcherCache(KeywordMatcherCache.DEFAULT_CAPACITY);
+        this.results = new ResultCache();
+        metrics.setResultCache(results);
+        this.receivers = new Server_java_UDP[receiverCount];
+        receivers[0] = this;
         if (port < 1024 || port > 49151) {
             System.out.println("Invalid port number");
             System.exit(0);
         }// Better error handling
         try {
-            // Initialize the socket with the given port
-            this.socket = new DatagramSocket(port);
-            System.out.println("Server initialized on port " + port);
-        } catch (SocketException e) {
+            // Initialize the channel with the given port
+            boolean reusePort = receiverCount > 1 && UdpChannel.supportsReusePort()
+                    && Boolean.parseBoolean(System.getProperty(REUSE_PORT_PROPERTY, "true"));
+            this.channel = UdpChannel.bind(port, reusePort);
+            this.source = channel;
+            if (receiverCount > 1 && !reusePort) {
+                this.dispatcher = new UdpDispatcher(channel, receiverCount, UdpDispatcher.DEFAULT_INBOX_CAPACITY);
+                this.source = dispatcher.inbox(0);
+            }
+            for (int i = 1; i < receiverCount; i++) {
+                UdpChannel receiverChannel = reusePort ? UdpChannel.bind(port, true) : channel;
+                receivers[i] = new Server_java_UDP(this, receiverChannel, reusePort ? receiverChannel : dispatcher.inbox(i));
+            }
+            this.receiveBuffer = channel.buffers().acquire();
+            System.out.println("Server initialized on port " + port + (receiverCount == 1 ? ""
+                    : " with " + receiverCount + " receivers" + (reusePort ? " (SO_REUSEPORT)" : " (dispatcher)")));
+            metrics.start();
+        } catch (IOException e) {
             System.out.println("Error initializing server: " + e.getMessage());
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Creates another receiver of the port, sharing the metrics, the compiled keywords, the result cache, the admission control, the rate limiter
+     * and the workers of the first one
+     *
+     * @param first   The first receiver of the port
+     * @param channel The channel the receiver sends through
+     * @param source  Where the receiver takes its datagrams from
+     */
+    private Server_java_UDP(Server_java_UDP first, UdpChannel channel, DatagramSource source) {
+        this.metrics = first.metrics;
+        this.admission = first.admission;
+        this.rateLimiter = first.rateLimiter;
+        this.sessions = new UdpSessionTable(SESSION_IDLE_TIMEOUT, metrics, admission);
+        this.workers = first.workers;
+        this.matchers = first.matchers;
+        this.results = first.results;
+        this.receivers = null;
+        this.channel = channel;
+        this.source = source;
+        this.receiveBuffer = channel.buffers().acquire();
+    }
+
+    /**
+     * Counts the exchanges in progress of every receiver, for the gauge of {@link #metrics}
+     *
+     * @return the number of windowed sessions, plus one for every legacy client being served
+     */
+    private int activeExchanges() {
+        int active = 0;
+        for (Server_java_UDP receiver : receivers) {
+            if (receiver != null) {
+                active += receiver.sessions.size() + (receiver.client != null ? 1 : 0);
+            }
         }
+        return active;
     }
 
     /**
@@ -80,62 +287,199 @@ public class Server_java_UDP {
      * It reads the port number from the command line arguments and initializes the server
      * It then waits for a message from the client and processes it
      *
-     * @param args The command line arguments, inputting the port number only
+     * @param args The command line arguments, the port number in space [0]
+     *             the number of receiver threads can be given in space [1] (defaults to the number of processors)
      */
     public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java Server_java_UDP <port> [receivers]");
+            System.exit(1);
+        }
         int port = Integer.parseInt(args[0]);
-        Server_java_UDP server = new Server_java_UDP(port);
+        int receiverCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Server_java_UDP server = new Server_java_UDP(port, receiverCount);
         server.receiveData();
     }
 
     /**
-     * The method that receives the message and keyword from the client
-     * It then anonymizes the message and sends it back to the client
-     * if something is incorrect, the server will print an error message to the console and exit
+     * The method that receives the messages and keywords from the clients, until the channel is closed
+     * It then anonymizes the messages and sends them back to the clients
+     * if something is incorrect with a request, the server will print an error message to the console and drop that request
+     * The other receivers (and the dispatcher, if any) are started on their own threads, this one runs on the calling thread
      */
     public void receiveData() {
-        try {
-            receiveAndProcessData();
-        } catch (Exception e) {
-            System.out.println("Server error: " + e.getMessage());
-            e.printStackTrace();
+        if (channel == null) {
+            System.out.println("Server error: not initialized");
             System.exit(0);
         }
+        if (receivers != null) {
+            if (dispatcher != null) {
+                Thread.ofPlatform().daemon().name("udp-dispatcher").start(dispatcher);
+            }
+            for (int i = 1; i < receivers.length; i++) {
+                Thread.ofPlatform().daemon().name("udp-receiver-" + i).start(receivers[i]::receiveData);
+            }
+        }
+        while (channel.isOpen()) {
+            try {
+                receiveAndProcessData();
+                tick(System.currentTimeMillis());
+            } catch (Exception e) {
+                System.out.println("Server error: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
      * coordinator method for receiving and processing the data
-     * receives the number of parts of the message and the message itself
+     * waits for a datagram, if it is a frame of the windowed protocol it is handed to its session,
+     * otherwise a legacy request starts and is served until the end
+     */
+    private void receiveAndProcessData() {
+        try {
+            SocketAddress sender = receiveDatagram();
+            if (UdpFrame.isFrame(receiveBuffer)) {
+                processFrame(sender);
+                return;
+            }
+            processLegacyRequest(sender);
+        } catch (SocketTimeoutException e) {
+            // no datagram during this tick
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Serves a legacy client, from its first datagram until the answer is sent
+     * a first datagram holding a {@link CompactResponse} mode is ACKed and asks for a compact answer
+     * receives the length of the message, and refuses the request if the client is over its {@link #rateLimiter} rates
+     * or the {@link #admission} control does not admit it, the length counts characters so it is admitted with one byte
+     * per character, the least its UTF-8 can take
+     * receives the number of parts of the message and the message itself, whose bytes beyond the ones admitted are charged
+     * once they are all received
      * receives the number of parts of the keyword and the keyword itself
      * anonymizes the message and sends it back to the client
-     * if something is incorrect, the server will print an error message to the console and exit
+     * if something is incorrect, the server will print an error message to the console and drop the request
+     *
+     * @param sender The client, whose first datagram is in {@link #receiveBuffer}
+     * @throws IOException in case of an error with the socket or with the request
      */
-    private void receiveAndProcessData() {
+    private void processLegacyRequest(SocketAddress sender) throws IOException {
+        long receiveStart = System.nanoTime();
         try {
-            int lengthOfString = receiveNumberOfParts();
-            int numberOfParts = receiveNumberOfParts();
-            String message = receivePartsOfMessage(numberOfParts);
-            if (message.length() == 0) {
-                System.out.println("Did not receive valid String from Client. Terminating.");
-                System.exit(1);
+            ackTimer = new RetransmissionTimer();
+            client = sender;
+            timeout = MAX_TIMEOUT;
+            boolean withOffsets = UdpChannel.equalsAscii(receiveBuffer, CompactResponse.OFFSETS_MODE, false);
+            boolean compact = withOffsets || UdpChannel.equalsAscii(receiveBuffer, CompactResponse.MODE, false);
+            if (compact) {
+                sendACK();
+                receiveDatagram();
+            }
+            int lengthOfString = receiveNumber(receiveBuffer);
+            if (lengthOfString <= 0) {
+                throw new IOException("Did not receive valid String from Client. Dropping request.");
             }
-            if (lengthOfString != message.length()) {
-                System.out.println("Error: Length of the message does not match the length of the message 3");
-                System.exit(0);
-            }// Better error handling
-            int numberOfPartsKeyword = receiveNumberOfParts();
-            String keyword = receivePartsOfMessage(numberOfPartsKeyword);
-            if (keyword.length() == 0) {
-                System.out.println("Did not receive valid keyword from Client. Terminating.");
-                System.exit(1);
+            InetAddress address = ((InetSocketAddress) sender).getAddress();
+            long wait = rateLimiter.tryAcquire(address, lengthOfString);
+            if (wait > 0 || !admission.tryAcquire(address, lengthOfString)) {
+                refuseLegacyRequest(lengthOfString, wait);
+                return;
             }
-            String anonymizedMessage = Anonymizer.anonymizeKeyword(message, keyword);
-            int numberOfSocketProgrammings = Anonymizer.startingPositions(message, keyword).size();
-            String[] dividedAnonymizedMessage = divideString(anonymizedMessage);
+            admittedBytes = lengthOfString;
+            try {
+                sendACK();
+                serveLegacyRequest(lengthOfString, compact, withOffsets, receiveStart);
+            } finally {
+                admission.release(address, admittedBytes);
+            }
+        } finally {
+            client = null;
+            timeout = TICK;
+            admittedBytes = 0;
+        }
+    }
+
+    /**
+     * Serves an admitted legacy request, once its length was acknowledged
+     *
+     * @param lengthOfString The length of the message
+     * @param compact        Whether the client asked for a compact answer
+     * @param withOffsets    Whether the compact answer holds the offsets of the substitutions
+     * @param receiveStart   When the request started being received, as given by {@link System#nanoTime()}
+     * @throws IOException in case of an error with the socket or with the request
+     */
+    private void serveLegacyRequest(int lengthOfString, boolean compact, boolean withOffsets, long receiveStart) throws IOException {
+        int numberOfParts = receiveNumberOfParts();
+        String message = receivePartsOfMessage(numberOfParts, false);
+        if (message.length() == 0) {
+            throw new IOException("Did not receive valid String from Client. Dropping request.");
+        }
+        if (lengthOfString != message.length()) {
+            throw new IOException("Error: Length of the message does not match the length of the message 3");
+        }
+        int numberOfPartsKeyword = receiveNumberOfParts();
+        String keyword = receivePartsOfMessage(numberOfPartsKeyword, true);
+        KeywordMatcher matcher = matchers.get(keyword);
+        if (matcher == null) {
+            throw new IOException("Did not receive valid keyword from Client. Dropping request.");
+        }
+        metrics.receiveLatency().recordSince(receiveStart);
+        long anonymizeStart = System.nanoTime();
+        AnonymizationResult result = results.anonymize(matcher, message, compact && withOffsets);
+        String anonymizedMessage = result.anonymized();
+        int numberOfSocketProgrammings = result.matchCount();
+        String[] dividedAnonymizedMessage = divideString(anonymizedMessage);
+        byte[] offsetsRecord = result.hasOffsets() ? CompactResponse.encode(result) : null;
+        metrics.anonymizeLatency().recordSince(anonymizeStart);
+        metrics.request(numberOfSocketProgrammings);
+        long sendStart = System.nanoTime();
+        if (compact) {
+            sendCompactData(numberOfSocketProgrammings, dividedAnonymizedMessage, offsetsRecord);
+        } else {
             sendData(numberOfSocketProgrammings, dividedAnonymizedMessage);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
         }
+        metrics.sendLatency().recordSince(sendStart);
+    }
+
+    /**
+     * Charges the bytes of the message of the legacy request being served beyond the ones it was admitted with,
+     * once all of its parts are received
+     *
+     * @param messageBytes The bytes of the message received
+     * @throws IOException in case of an error with the socket, or if the bytes are refused (the client is then answered
+     *                     in place of the ACK of the last part)
+     */
+    private void chargeMessageBytes(long messageBytes) throws IOException {
+        long extra = messageBytes - admittedBytes;
+        if (extra <= 0) {
+            return;
+        }
+        InetAddress address = ((InetSocketAddress) client).getAddress();
+        long wait = rateLimiter.tryAcquireBytes(address, extra);
+        if (wait > 0 || !admission.tryAcquireBytes(address, extra)) {
+            refuseLegacyRequest(messageBytes, wait);
+            throw new IOException("Message of " + messageBytes + " bytes refused. Dropping request.");
+        }
+        admittedBytes = messageBytes;
+    }
+
+    /**
+     * Answers a legacy request that was not admitted, in place of an ACK: "TOO_LARGE" and the largest message
+     * taken if the message is too large, "BUSY" and the retry hint otherwise
+     *
+     * @param messageBytes The size of the message
+     * @param wait         How long the client must wait for its {@link #rateLimiter} tokens in milliseconds, 0 if it has them
+     * @throws IOException in case of an error with the socket
+     */
+    private void refuseLegacyRequest(long messageBytes, long wait) throws IOException {
+        metrics.rejected();
+        String answer = wait == 0 && admission.isTooLarge(messageBytes)
+                ? TOO_LARGE + " " + admission.maxMessageBytes()
+                : BUSY + " " + (wait > 0 ? wait : admission.retryAfterMillis());
+        send(ByteBuffer.wrap(answer.getBytes(StandardCharsets.US_ASCII)), client);
     }
 
     /**
@@ -146,65 +490,333 @@ public class Server_java_UDP {
      */
 
     private int receiveNumberOfParts() throws IOException {
-        byte[] lengthNumberofPartsBuffer = new byte[BUFFER_SIZE];
-        DatagramPacket lengthNumberOfPartsPacket = new DatagramPacket(lengthNumberofPartsBuffer, lengthNumberofPartsBuffer.length);
-        socket.receive(lengthNumberOfPartsPacket);
-        if (this.address == null || this.port == 0) {
-            this.address = lengthNumberOfPartsPacket.getAddress();
-            this.port = lengthNumberOfPartsPacket.getPort();
-        }
-        sendACK(lengthNumberOfPartsPacket.getAddress(), lengthNumberOfPartsPacket.getPort());
-        int lengthNumberOfParts = Integer.parseInt(new String(lengthNumberOfPartsPacket.getData()).trim());
-        byte[] numberofPartsBuffer = new byte[BUFFER_SIZE];
-        DatagramPacket numberofPartsPacket = new DatagramPacket(numberofPartsBuffer, numberofPartsBuffer.length);
-        socket.receive(numberofPartsPacket);
-        if (lengthNumberOfParts != numberofPartsPacket.getLength()) {
-            System.out.println("Error: Number of parts does not match the length of the message");
-            System.exit(0);
+        receiveDatagram();
+        return receiveNumberOfParts(receiveBuffer);
+    }
+
+    /**
+     * Receives the number of parts of the message/keyword from the client, when the datagram with its length
+     * was already received
+     *
+     * @param lengthNumberOfPartsDatagram The datagram with the length of the number of parts
+     * @return The number of parts of the message/keyword
+     * @throws IOException in case of an error with the socket
+     */
+    private int receiveNumberOfParts(ByteBuffer lengthNumberOfPartsDatagram) throws IOException {
+        int numberOfParts = receiveNumber(lengthNumberOfPartsDatagram);
+        sendACK();
+        return numberOfParts;
+    }
+
+    /**
+     * Receives a number from the client, when the datagram with its length was already received,
+     * without acknowledging the number itself, so the request may still be refused
+     *
+     * @param lengthNumberDatagram The datagram with the length of the number
+     * @return The number
+     * @throws IOException in case of an error with the socket
+     */
+    private int receiveNumber(ByteBuffer lengthNumberDatagram) throws IOException {
+        sendACK();
+        int lengthNumber = UdpChannel.parseInt(lengthNumberDatagram);
+        receiveDatagram();
+        if (lengthNumber != receiveBuffer.remaining()) {
+            throw new IOException("Error: Number of parts does not match the length of the message");
+        }
+        return UdpChannel.parseInt(receiveBuffer);
+    }
+
+    /**
+     * Receives the next datagram into {@link #receiveBuffer}, between its position and limit
+     * (its content is only valid until the next call), waiting for at most {@link #timeout} milliseconds.
+     * While a legacy client is being served, windowed frames from other clients are handed to their sessions
+     * and anything else from other clients is ignored. The wait is split in waits of at most {@link #TICK}
+     * milliseconds with a {@link #tick(long)} before each one, so the windowed sessions keep being served
+     * while a legacy client takes its time
+     *
+     * @return The address of the sender
+     * @throws SocketTimeoutException if no datagram arrived in time
+     * @throws IOException            in case of an error with the socket
+     */
+    private SocketAddress receiveDatagram() throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long now = System.currentTimeMillis();
+            tick(now);
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Receive timed out");
+            }
+            SocketAddress sender;
+            try {
+                sender = source.receive(receiveBuffer, (int) Math.min(remaining, TICK));
+            } catch (SocketTimeoutException e) {
+                continue; // wait again, until the deadline
+            }
+            metrics.received(receiveBuffer.remaining());
+            if (client == null || client.equals(sender)) {
+                return sender;
+            }
+            if (UdpFrame.isFrame(receiveBuffer)) {
+                processFrame(sender);
+            }
+        }
+    }
+
+    /**
+     * Retransmits the timed out chunks of the windowed sessions and evicts the idle ones, once every {@link #TICK} milliseconds
+     *
+     * @param now The current time, as given by {@link System#currentTimeMillis()}
+     */
+    private void tick(long now) {
+        if (now - lastTick >= TICK) {
+            lastTick = now;
+            sessions.expire(now);
+        }
+    }
+
+    /**
+     * Handles a frame of the windowed protocol, held in {@link #receiveBuffer}: DATA frames of a request go to the session
+     * of that client and message id (opening it if needed) and are ACKed, ACK frames move the window of the answer being sent.
+     * The chunk of a DATA frame stays in the buffer it was received into, and the next datagram is received into another one.
+     * A session is only opened for a request of a client within its {@link #rateLimiter} rates that the {@link #admission}
+     * control admits, the first chunk of any other one
+     * is answered with a {@link UdpFrame#BUSY} or {@link UdpFrame#TOO_LARGE} frame.
+     * A request is admitted with the chunk size it announces, so a chunk longer than that, or a chunk other than
+     * the last one shorter than that, is dropped: a client can not get more bytes in than it was admitted with.
+     * When a request is complete it is anonymized on a worker thread
+     *
+     * @param sender The address of the client
+     * @throws IOException in case of an error with the socket
+     */
+    private void processFrame(SocketAddress sender) throws IOException {
+        ByteBuffer frame = receiveBuffer;
+        if (!UdpFrame.isValid(frame)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        UdpSessionTable.Session session = sessions.get(lookup.set((InetSocketAddress) sender, UdpFrame.messageId(frame)));
+        if (UdpFrame.type(frame) == UdpFrame.ACK) {
+            if (session != null && UdpFrame.flags(frame) == UdpFrame.FLAG_RESPONSE) {
+                session.touch(now);
+                if (session.onAck(UdpFrame.seq(frame), UdpFrame.sack(frame), now)) {
+                    metrics.sendLatency().recordSince(session.answerStartedAt());
+                    sessions.remove(session.key());
+                }
+            }
+            return;
+        }
+        if (UdpFrame.type(frame) != UdpFrame.DATA || UdpFrame.flags(frame) != 0) {
+            return;
+        }
+        if (session == null) {
+            // the chunks of a request are the size it announces, only the last one may be shorter
+            long requestBytes = UdpFrame.total(frame) == 1 ? UdpFrame.payloadLength(frame) : (long) UdpFrame.total(frame) * UdpFrame.maxPayload(frame);
+            InetSocketAddress peer = (InetSocketAddress) sender;
+            long wait = rateLimiter.tryAcquire(peer.getAddress(), requestBytes);
+            if (wait > 0 || !admission.tryAcquire(peer.getAddress(), requestBytes)) {
+                metrics.rejected();
+                boolean tooLarge = wait == 0 && admission.isTooLarge(requestBytes);
+                send(UdpFrame.putRejection(ackFrame, tooLarge ? UdpFrame.TOO_LARGE : UdpFrame.BUSY, UdpFrame.messageId(frame),
+                        tooLarge ? admission.maxMessageBytes() : wait > 0 ? wait : admission.retryAfterMillis()), sender);
+                return;
+            }
+            UdpSessionTable.Key key = lookup.toKey();
+            SlidingWindowReceiver receiver = new SlidingWindowReceiver(key.messageId(), (byte) 0, UdpFrame.total(frame), UdpFrame.maxPayload(frame), channel.buffers());
+            session = sessions.open(key, receiver, data -> send(data, peer), UdpFrame.maxPayload(frame), requestBytes, now);
+        }
+        session.touch(now);
+        SlidingWindowReceiver receiver = session.receiver();
+        if (UdpFrame.total(frame) != receiver.total()) {
+            return;
+        }
+        boolean wasComplete = receiver.isComplete();
+        int seq = UdpFrame.seq(frame);
+        int payloadLength = UdpFrame.payloadLength(frame);
+        long chunkSize = receiver.total() == 1 ? session.admittedBytes() : session.payloadSize();
+        if (payloadLength > chunkSize || (seq < receiver.total() - 1 && payloadLength < chunkSize)) {
+            return;
+        }
+        int payloadOffset = UdpFrame.payloadOffset(frame);
+        frame.limit(payloadOffset + payloadLength).position(payloadOffset);
+        if (receiver.onData(seq, frame)) {
+            receiveBuffer = channel.buffers().acquire();
+        }
+        send(receiver.ackFrame(ackFrame), sender);
+        if (!wasComplete && receiver.isComplete()) {
+            metrics.receiveLatency().recordSince(session.openedAt());
+            UdpSessionTable.Session complete = session;
+            workers.execute(() -> answerWindowedRequest(complete));
+        }
+    }
+
+    /**
+     * Anonymizes a complete windowed request and starts sending the answer (runs on a worker thread).
+     * Nothing is answered if the session was evicted while the request waited for a worker
+     *
+     * @param session The session whose request is complete
+     */
+    private void answerWindowedRequest(UdpSessionTable.Session session) {
+        UdpSessionTable.Key key = session.key();
+        try {
+            byte[] request;
+            try {
+                if (sessions.get(key) != session) {
+                    return;
+                }
+                request = session.receiver().assemble();
+            } catch (IllegalStateException e) {
+                // evicted between the lookup and the assembly, its chunks are already back in the pool
+                return;
+            }
+            if (keywordFieldTooLarge(request)) {
+                metrics.rejected();
+                send(UdpFrame.putRejection(ByteBuffer.allocate(UdpFrame.ACK_FRAME_SIZE), UdpFrame.TOO_LARGE, key.messageId(),
+                        matchers.maxKeywordChars()), key.peer());
+                sessions.remove(key);
+                return;
+            }
+            long anonymizeStart = System.nanoTime();
+            ByteBuffer answer = answerWindowedRequest(request);
+            metrics.anonymizeLatency().recordSince(anonymizeStart);
+            if (answer == null) {
+                sessions.remove(key);
+                return;
+            }
+            SlidingWindowSender sender = new SlidingWindowSender(key.messageId(), UdpFrame.FLAG_RESPONSE, answer.array(),
+                    answer.arrayOffset() + answer.position(), answer.remaining(), session.payloadSize(), SlidingWindowSession.WINDOW_SIZE);
+            session.startAnswer(sender, System.currentTimeMillis());
+        } catch (IOException e) {
+            System.out.println("Failed to answer " + key.peer() + ": " + e.getMessage());
+            sessions.remove(key);
+        }
+    }
+
+    /**
+     * Tells whether the keyword field of a windowed request holds more keywords or characters than {@link #matchers} compiles,
+     * such a request is answered with a TOO_LARGE frame instead of being anonymized
+     *
+     * @param request The whole request
+     * @return true if the keyword field is too large
+     */
+    private boolean keywordFieldTooLarge(byte[] request) {
+        int keywordLength = request.length >= Integer.BYTES ? ByteBuffer.wrap(request).getInt() : -1;
+        return keywordLength > 0 && keywordLength <= request.length - Integer.BYTES
+                && matchers.isTooLarge(new String(request, Integer.BYTES, keywordLength, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a windowed request (length of the keyword, keyword and message), anonymizes it and
+     * builds the answer: the number of substitutions followed by the anonymized message.
+     * The message is anonymized in place, and the answer is written over the end of the keyword
+     * so it is sent straight from the request buffer
+     *
+     * @param request The whole request
+     * @return The answer, between position and limit of a buffer backed by an array, or null if the request is not valid
+     */
+    private ByteBuffer answerWindowedRequest(byte[] request) {
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        int keywordLength = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+        if (keywordLength <= 0 || keywordLength > buffer.remaining()) {
+            System.out.println("Did not receive valid keyword from Client. Dropping request.");
+            return null;
+        }
+        String keyword = new String(request, buffer.position(), keywordLength, StandardCharsets.UTF_8);
+        int messageStart = buffer.position() + keywordLength;
+        if (messageStart == request.length) {
+            System.out.println("Did not receive valid String from Client. Dropping request.");
+            return null;
+        }
+        KeywordMatcher matcher = matchers.get(keyword);
+        if (matcher == null) {
+            System.out.println("Did not receive valid keyword from Client. Dropping request.");
+            return null;
+        }
+        ByteBuffer message = ByteBuffer.wrap(request, messageStart, request.length - messageStart);
+        try {
+            int numberOfSocketProgrammings = matcher.anonymize(message, null);
+            metrics.request(numberOfSocketProgrammings);
+            int answerStart = messageStart - Integer.BYTES;
+            buffer.putInt(answerStart, numberOfSocketProgrammings);
+            return buffer.limit(message.limit()).position(answerStart);
+        } catch (CharacterCodingException e) {
+            AnonymizationResult result = matcher.anonymize(new String(request, messageStart, request.length - messageStart, StandardCharsets.UTF_8));
+            metrics.request(result.matchCount());
+            byte[] anonymizedBytes = result.anonymized().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer answer = ByteBuffer.allocate(Integer.BYTES + anonymizedBytes.length);
+            answer.putInt(result.matchCount()).put(anonymizedBytes);
+            return answer.flip();
         }
-        sendACK(numberofPartsPacket.getAddress(), numberofPartsPacket.getPort());
-        return Integer.parseInt(new String(numberofPartsPacket.getData()).trim());
     }
 
     /**
      * Receives the parts of the message/keyword from the client (the message itself, not the number of parts it splits into
+     * a keyword field holding more keywords or characters than {@link #matchers} compiles is answered with "TOO_LARGE"
+     * and the most characters taken in place of the ACK of its last part, and is not compiled,
+     * and the bytes of a message are charged before the ACK of its last part ({@link #chargeMessageBytes(long)})
      *
      * @param numberOfParts The number of parts of the message/keyword
+     * @param keywordField  Whether the parts hold the keyword field
      * @return The message/keyword
-     * @throws IOException in case of an error with the socket
+     * @throws IOException in case of an error with the socket, or if the keyword field is too large
      */
-    private String receivePartsOfMessage(int numberOfParts) throws IOException {
-        StringBuilder message = new StringBuilder();
+    private String receivePartsOfMessage(int numberOfParts, boolean keywordField) throws IOException {
+        partsBuffer.clear();
         for (int i = 0; i < numberOfParts; i++) {
-            byte[] lengthBuffer = new byte[BUFFER_SIZE];
-            DatagramPacket lengthBufferPacket = new DatagramPacket(lengthBuffer, lengthBuffer.length);
-            socket.receive(lengthBufferPacket);
-            sendACK(lengthBufferPacket.getAddress(), lengthBufferPacket.getPort());
-            int length = Integer.parseInt(new String(lengthBufferPacket.getData()).trim());
-            byte[] partBuffer = new byte[BUFFER_SIZE];
-            DatagramPacket partBufferPacket = new DatagramPacket(partBuffer, partBuffer.length);
-            socket.receive(partBufferPacket);
-            if (length != partBufferPacket.getLength()) {
-                System.out.println("Error: Length of the part does not match the length of the message");
-                System.exit(0);
+            receiveDatagram();
+            sendACK();
+            int length = UdpChannel.parseInt(receiveBuffer);
+            receiveDatagram();
+            if (length != receiveBuffer.remaining()) {
+                throw new IOException("Error: Length of the part does not match the length of the message");
+            }
+            if (partsBuffer.position() + length > admission.maxMessageBytes()) {
+                throw new IOException("Error: Message longer than " + admission.maxMessageBytes() + " bytes. Dropping request.");
+            }
+            if (partsBuffer.remaining() < length) {
+                partsBuffer = ByteBuffer.allocate(Math.max(2 * partsBuffer.capacity(), partsBuffer.position() + length)).put(partsBuffer.flip());
             }
-            sendACK(partBufferPacket.getAddress(), partBufferPacket.getPort());
-            message.append(new String(partBufferPacket.getData()));
+            partsBuffer.put(receiveBuffer);
+            if (keywordField && i == numberOfParts - 1 && matchers.isTooLarge(partsString())) {
+                metrics.rejected();
+                send(ByteBuffer.wrap((TOO_LARGE + " " + matchers.maxKeywordChars()).getBytes(StandardCharsets.US_ASCII)), client);
+                throw new IOException("Keyword field over " + matchers.maxKeywordChars() + " characters or too many keywords. Dropping request.");
+            }
+            if (!keywordField && i == numberOfParts - 1) {
+                chargeMessageBytes(partsBuffer.position());
+            }
+            sendACK();
         }
-        return message.toString().trim();
+        return partsString();
     }
 
     /**
-     * Sends an acknowledgment message to the client
+     * Decodes the parts received so far
+     *
+     * @return The message/keyword
+     */
+    private String partsString() {
+        return new String(partsBuffer.array(), 0, partsBuffer.position(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Sends an acknowledgment message to the legacy client being served
      *
-     * @param address The IP address of the client
-     * @param port    The port number of the client
      * @throws IOException in case of an error with the socket
      */
-    private void sendACK(InetAddress address, int port) throws IOException {
-        byte[] ackBuffer = ACK.getBytes();
-        DatagramPacket ackPacket = new DatagramPacket(ackBuffer, ackBuffer.length, address, port);
-        socket.send(ackPacket);
+    private void sendACK() throws IOException {
+        send(ackDatagram.rewind(), client);
+    }
+
+    /**
+     * Sends a datagram, counting its bytes in {@link #metrics}
+     *
+     * @param datagram The datagram, between position and limit
+     * @param target   The address it is sent to
+     * @throws IOException in case of an error with the socket
+     */
+    private void send(ByteBuffer datagram, SocketAddress target) throws IOException {
+        metrics.sent(channel.send(datagram, target));
     }
 
     /**
@@ -259,34 +871,45 @@ public class Server_java_UDP {
         }
     }
 
+    /**
+     * Sends the compact answer asked for with a {@link CompactResponse} mode: like {@link #sendData(int, String[])}
+     * but without the "Socket Programming"'s, which the client expands from the number it receives first.
+     * With offsets, the record is then sent in Base64 like the message: the number of parts, then the parts
+     *
+     * @param numberOfSocketProgrammings The number of substitutions
+     * @param dividedAnonymizedMessage   The parts of the anonymized message
+     * @param offsetsRecord              The {@link CompactResponse} record with the offsets, null if not asked for
+     */
+    private void sendCompactData(int numberOfSocketProgrammings, String[] dividedAnonymizedMessage, byte[] offsetsRecord) {
+        try {
+            sendNumberPacket(numberOfSocketProgrammings);
+            sendNumberPacket(dividedAnonymizedMessage.length);
+            sendDataPacket(dividedAnonymizedMessage);
+            if (offsetsRecord != null) {
+                String[] dividedRecord = divideString(CompactResponse.toLine(offsetsRecord));
+                sendNumberPacket(dividedRecord.length);
+                sendDataPacket(dividedRecord);
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     /**
      * Sends the number of "Socket Programming"'s in the message to the client and the number of parts of the message.
      * First sends the length of the packet, then the actual data.
      * Waits for an ACK after sending each packet
      *
      * @param numberOf The number of "Socket Programming"'s or parts of message
+     * @throws IOException if the client does not acknowledge a packet
      */
-    private void sendNumberPacket(int numberOf) {
+    private void sendNumberPacket(int numberOf) throws IOException {
         String numberOfSocketProgrammingsString = String.valueOf(numberOf);
         byte[] numberOfSocketProgrammingsBuffer = numberOfSocketProgrammingsString.getBytes();
         String numberOfSocketProgrammingsBufferLength = String.valueOf(numberOfSocketProgrammingsBuffer.length);
         byte[] numberOfSocketProgrammingsBufferLengthBuffer = numberOfSocketProgrammingsBufferLength.getBytes();
-        DatagramPacket lengthPacket = new DatagramPacket(numberOfSocketProgrammingsBufferLengthBuffer, numberOfSocketProgrammingsBufferLengthBuffer.length, address, port);
-        DatagramPacket dataPacket = new DatagramPacket(numberOfSocketProgrammingsBuffer, numberOfSocketProgrammingsBuffer.length, address, port);
-        try {
-            socket.send(lengthPacket);
-            if (!waitForAck()) {
-                System.out.println("ACK not received");
-                System.exit(0);
-            }
-            socket.send(dataPacket);
-            if (!waitForAck()) {
-                System.out.println("ACK not received");
-                System.exit(0);
-            }
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
-        }
+        sendReliably(numberOfSocketProgrammingsBufferLengthBuffer);
+        sendReliably(numberOfSocketProgrammingsBuffer);
     }
 
     /**
@@ -294,68 +917,75 @@ public class Server_java_UDP {
      *
      * @param dividedAnonymizedMessage The parts of the anonymized message to be sent back to the client (in an array of Strings)
      *                                 Waits for an ACK after sending each packet
+     * @throws IOException if the client does not acknowledge a packet
      */
-    private void sendDataPacket(String[] dividedAnonymizedMessage) {
+    private void sendDataPacket(String[] dividedAnonymizedMessage) throws IOException {
         for (String part : dividedAnonymizedMessage) {
             byte[] partBuffer = part.getBytes();
             String partBufferLength = String.valueOf(partBuffer.length);
             byte[] partBufferLengthBuffer = partBufferLength.getBytes();
-            DatagramPacket lengthPacket = new DatagramPacket(partBufferLengthBuffer, partBufferLengthBuffer.length, address, port);
-            DatagramPacket dataPacket = new DatagramPacket(partBuffer, partBuffer.length, address, port);
-            try {
-                socket.send(lengthPacket);
-                if (!waitForAck()) {
-                    System.out.println("ACK not received");
-                    System.exit(0);
-                }
-                socket.send(dataPacket);
-                if (!waitForAck()) {
-                    System.out.println("ACK not received");
-                    System.exit(0);
-                }
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
-            }
+            sendReliably(partBufferLengthBuffer);
+            sendReliably(partBuffer);
         }
     }
 
-    private void sendSocketProgrammings(int numberOfSocketProgrammings) {
+    /**
+     * Sends one "Socket Programming" per substitution, each as the length of the packet and then the packet itself
+     *
+     * @param numberOfSocketProgrammings The number of substitutions
+     * @throws IOException if the client does not acknowledge a packet
+     */
+    private void sendSocketProgrammings(int numberOfSocketProgrammings) throws IOException {
         for (int i = 0; i < numberOfSocketProgrammings; i++) {
             byte[] databuffer = SOCKET_PROGRAMMING.getBytes();
             String dataBufferLength = String.valueOf(databuffer.length);
             byte[] dataBufferLengthBuffer = dataBufferLength.getBytes();
-            DatagramPacket lengthPacket = new DatagramPacket(dataBufferLengthBuffer, dataBufferLengthBuffer.length, address, port);
-            DatagramPacket dataPacket = new DatagramPacket(databuffer, databuffer.length, address, port);
-            try {
-                socket.send(lengthPacket);
-                if (!waitForAck()) {
-                    System.out.println("ACK not received");
-                    System.exit(0);
-                }
-                socket.send(dataPacket);
-                if (!waitForAck()) {
-                    System.out.println("ACK not received");
-                    System.exit(0);
+            sendReliably(dataBufferLengthBuffer);
+            sendReliably(databuffer);
+        }
+    }
+
+    /**
+     * Sends a packet of a legacy answer and waits for its ACK, sending it again every time the ACK times out,
+     * up to {@link #MAX_RETRIES} times. The round-trip time of a packet acknowledged the first time it was sent
+     * updates {@link #ackTimer}, and every timeout backs it off
+     *
+     * @param data The content of the packet
+     * @throws IOException if the client still did not acknowledge the packet, or in case of an error with the socket
+     */
+    private void sendReliably(byte[] data) throws IOException {
+        ByteBuffer packet = ByteBuffer.wrap(data);
+        for (int attempt = 0; ; attempt++) {
+            long sentAt = System.currentTimeMillis();
+            send(packet.rewind(), client);
+            if (waitForAck()) {
+                if (attempt == 0) {
+                    ackTimer.onSample(System.currentTimeMillis() - sentAt);
                 }
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
+                return;
+            }
+            if (attempt == MAX_RETRIES) {
+                throw new IOException("ACK not received after " + MAX_RETRIES + " retries. Dropping request.");
             }
+            ackTimer.backoff();
+            metrics.retransmitted(1);
         }
     }
 
     /**
-     * Waits for an acknowledgment message from the client
+     * Waits for an acknowledgment message from the client (datagrams from other clients do not count)
+     * for as long as {@link #ackTimer} says, counting a timeout in {@link #metrics}
      *
      * @return true if the acknowledgment message is received, false otherwise
      */
     private boolean waitForAck() {
-        byte[] buffer = new byte[5];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
         try {
-            socket.setSoTimeout(MAX_TIMEOUT);
-            socket.receive(packet);
-            String received = new String(packet.getData(), 0, packet.getLength());
-            return received.equalsIgnoreCase(ACK);
+            timeout = ackTimer.rto();
+            receiveDatagram();
+            return UdpChannel.equalsAscii(receiveBuffer, ACK, true);
+        } catch (SocketTimeoutException e) {
+            metrics.ackTimedOut();
+            return false;
         } catch (IOException e) {
             return false;
         }
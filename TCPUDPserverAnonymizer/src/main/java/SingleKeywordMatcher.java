@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds a single keyword (case-insensitive) with the Boyer-Moore-Horspool algorithm.
+ * The keyword is folded and its skip table is built once, so anonymizing a String only costs the scan,
+ * which usually skips ahead several characters for each one it compares.
+ * Every occurrence is reported, overlapping occurrences included (like {@code Anonymizer.startingPositions}).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} R. N. Horspool (1980) "Practical fast searching in strings". Software: Practice and Experience 10(6).
+ * </ul>
+ */
+public final class SingleKeywordMatcher implements KeywordMatcher {
+    /**
+     * The size of the skip table, characters share an entry by their low byte
+     */
+    private static final int SKIP_TABLE_SIZE = 256;
+
+    /**
+     * The keyword, as given
+     */
+    private final List<String> keywords;
+    /**
+     * The keyword with its case folded
+     */
+    private final char[] pattern;
+    /**
+     * How far the keyword can move when the text character aligned with its last character is c & 0xFF.
+     * Characters sharing an entry keep the smallest skip, which is always safe
+     */
+    private final int[] skip = new int[SKIP_TABLE_SIZE];
+
+    /**
+     * Compiles a keyword
+     *
+     * @param keyword The keyword to be found
+     * @throws NullPointerException     if the keyword is null
+     * @throws IllegalArgumentException if the keyword is empty
+     */
+    public SingleKeywordMatcher(String keyword) {
+        if (keyword.isEmpty()) {
+            throw new IllegalArgumentException("Keywords can not be empty");
+        }
+        this.keywords = List.of(keyword);
+        this.pattern = CaseFolding.fold(keyword);
+        int last = pattern.length - 1;
+        Arrays.fill(skip, pattern.length);
+        for (int i = 0; i < last; i++) {
+            skip[pattern[i] & (SKIP_TABLE_SIZE - 1)] = last - i;
+        }
+    }
+
+    @Override
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    @Override
+    public int maxKeywordLength() {
+        return pattern.length;
+    }
+
+    @Override
+    public void scan(CharSequence text, int from, int to, MatchSink sink) {
+        int last = pattern.length - 1;
+        char lastChar = pattern[last];
+        int end = from + last;
+        while (end < to) {
+            char c = CaseFolding.fold(text, end);
+            if (c == lastChar && matchesBefore(text, end)) {
+                sink.onMatch(0, end - last, end + 1);
+            }
+            end += skip[c & (SKIP_TABLE_SIZE - 1)];
+        }
+    }
+
+    /**
+     * Compares the rest of the keyword with the text, right to left
+     *
+     * @param text The text
+     * @param end  Where the last character of the keyword is aligned in the text
+     * @return true if the keyword occurs there
+     */
+    private boolean matchesBefore(CharSequence text, int end) {
+        int start = end - (pattern.length - 1);
+        for (int i = pattern.length - 2; i >= 0; i--) {
+            if (CaseFolding.fold(text, start + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
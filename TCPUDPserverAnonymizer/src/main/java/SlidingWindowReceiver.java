@@ -0,0 +1,272 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The receiving half of the windowed UDP protocol.
+ * Stores every chunk by its sequence number, so chunks may arrive in any order or more than once,
+ * and builds the ACK frame describing what was received so far.
+ * Like {@link SlidingWindowSender} it does no I/O itself.
+ * A receiver with a {@link DatagramBufferPool} keeps the pooled buffers the chunks were received into instead of copying them,
+ * and gives them back to the pool once the message is assembled (or the transfer is abandoned with {@link #release()}).
+ * A chunk filling less than half of its buffer is copied instead, so the buffers held are never more than twice
+ * the bytes of the chunks, however small the chunks of the sender are.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} J. Kurose, K. Ross (2021) "Computer Networking: A Top-Down Approach" 8th ed. Section 3.4.4 "Selective Repeat".
+ * </ul>
+ */
+public final class SlidingWindowReceiver {
+    /**
+     * The message id of the transfer
+     */
+    private final int messageId;
+    /**
+     * The flags of the transfer, echoed on the ACK frames
+     */
+    private final byte flags;
+    /**
+     * The payload size advertised to the sender on the ACK frames
+     */
+    private final int maxPayload;
+    /**
+     * The total number of chunks of the transfer
+     */
+    private final int total;
+    /**
+     * The chunks received so far, indexed by sequence number, each between position and limit of its buffer
+     */
+    private final ByteBuffer[] chunks;
+    /**
+     * Where the buffers of the chunks go back once the message is assembled, null if the chunks are copies
+     */
+    private final DatagramBufferPool pool;
+    /**
+     * Whether the buffers of the chunks went back to the pool, after which no chunk is stored any more
+     */
+    private volatile boolean released;
+    /**
+     * The number of distinct chunks received
+     */
+    private int received;
+    /**
+     * The first chunk not received yet, every chunk below it was received
+     */
+    private int cumulative;
+
+    /**
+     * Creates a receiver for a transfer
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer
+     * @param total      The total number of chunks announced by the sender
+     * @param maxPayload The payload size advertised to the sender on the ACK frames
+     */
+    public SlidingWindowReceiver(int messageId, byte flags, int total, int maxPayload) {
+        this(messageId, flags, total, maxPayload, null);
+    }
+
+    /**
+     * Creates a receiver for a transfer whose chunks are received into buffers of a pool
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer
+     * @param total      The total number of chunks announced by the sender
+     * @param maxPayload The payload size advertised to the sender on the ACK frames
+     * @param pool       Where the buffers of the chunks go back once the message is assembled, null if the chunks are copied
+     */
+    public SlidingWindowReceiver(int messageId, byte flags, int total, int maxPayload, DatagramBufferPool pool) {
+        if (total < 1) {
+            throw new IllegalArgumentException("A transfer has at least one chunk");
+        }
+        this.messageId = messageId;
+        this.flags = flags;
+        this.maxPayload = maxPayload;
+        this.total = total;
+        this.chunks = new ByteBuffer[total];
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the message id of the transfer
+     *
+     * @return the message id
+     */
+    public int messageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the flags of the transfer
+     *
+     * @return the flags
+     */
+    public byte flags() {
+        return flags;
+    }
+
+    /**
+     * Returns the total number of chunks of the transfer
+     *
+     * @return the number of chunks
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * Stores a chunk, ignoring duplicates and sequence numbers out of range
+     *
+     * @param seq     The sequence number of the chunk
+     * @param payload The buffer holding the chunk
+     * @param offset  Where the chunk starts in the buffer
+     * @param length  The length of the chunk
+     * @return true if the chunk was new
+     */
+    public boolean onData(int seq, byte[] payload, int offset, int length) {
+        if (!accepts(seq)) {
+            return false;
+        }
+        store(seq, ByteBuffer.wrap(Arrays.copyOfRange(payload, offset, offset + length)));
+        return true;
+    }
+
+    /**
+     * Stores a chunk without copying it, ignoring duplicates and sequence numbers out of range.
+     * A new chunk keeps its buffer, which goes back to the pool once the message is assembled:
+     * the caller must not touch it any more and receives the next datagram into another buffer.
+     * A new chunk filling less than half of its buffer is copied, and the buffer stays with the caller
+     *
+     * @param seq   The sequence number of the chunk
+     * @param chunk The buffer holding the chunk between position and limit, from the pool of this receiver
+     * @return true if the chunk was new and kept in its buffer, which now belongs to the receiver
+     */
+    public boolean onData(int seq, ByteBuffer chunk) {
+        if (!accepts(seq)) {
+            return false;
+        }
+        if (pool != null && chunk.remaining() < chunk.capacity() / 2) {
+            byte[] copy = new byte[chunk.remaining()];
+            chunk.get(chunk.position(), copy);
+            store(seq, ByteBuffer.wrap(copy));
+            return false;
+        }
+        store(seq, chunk);
+        return true;
+    }
+
+    /**
+     * Checks whether a chunk is to be stored
+     *
+     * @param seq The sequence number of the chunk
+     * @return true if it is in range, not received yet, and the chunks were not released
+     */
+    private boolean accepts(int seq) {
+        return seq >= 0 && seq < total && chunks[seq] == null && !released;
+    }
+
+    /**
+     * Stores a new chunk and moves the cumulative ack past every chunk received in order
+     *
+     * @param seq   The sequence number of the chunk
+     * @param chunk The chunk, between position and limit
+     */
+    private void store(int seq, ByteBuffer chunk) {
+        chunks[seq] = chunk;
+        received++;
+        while (cumulative < total && chunks[cumulative] != null) {
+            cumulative++;
+        }
+    }
+
+    /**
+     * Checks whether every chunk was received
+     *
+     * @return true when the transfer is complete
+     */
+    public boolean isComplete() {
+        return received == total;
+    }
+
+    /**
+     * Builds the ACK frame for what was received so far
+     *
+     * @return The encoded ACK frame
+     */
+    public byte[] ackFrame() {
+        return UdpFrame.ack(messageId, flags, cumulative, total, maxPayload, sack());
+    }
+
+    /**
+     * Writes the ACK frame for what was received so far into a buffer kept for it
+     *
+     * @param frame The buffer, with room for {@link UdpFrame#ACK_FRAME_SIZE} bytes
+     * @return The buffer, holding the frame between position and limit
+     */
+    public ByteBuffer ackFrame(ByteBuffer frame) {
+        return UdpFrame.putAck(frame, messageId, flags, cumulative, total, maxPayload, sack());
+    }
+
+    /**
+     * Builds the selective ack bitmap of the chunks received after the cumulative ack
+     *
+     * @return the bitmap, bit i set if chunk cumulative + 1 + i was received
+     */
+    private long sack() {
+        long sack = 0;
+        for (int i = 0; i < Long.SIZE; i++) {
+            int seq = cumulative + 1 + i;
+            if (seq >= total) {
+                break;
+            }
+            if (chunks[seq] != null) {
+                sack |= 1L << i;
+            }
+        }
+        return sack;
+    }
+
+    /**
+     * Puts the chunks back together in sequence order, then gives their buffers back to the pool
+     *
+     * @return The whole message
+     * @throws IllegalStateException if the transfer is not complete, or the chunks were already released
+     */
+    public synchronized byte[] assemble() {
+        if (!isComplete()) {
+            throw new IllegalStateException("Transfer not complete: " + received + " of " + total + " chunks");
+        }
+        if (released) {
+            throw new IllegalStateException("Chunks already released");
+        }
+        int length = 0;
+        for (ByteBuffer chunk : chunks) {
+            length += chunk.remaining();
+        }
+        byte[] message = new byte[length];
+        int position = 0;
+        for (ByteBuffer chunk : chunks) {
+            chunk.get(chunk.position(), message, position, chunk.remaining());
+            position += chunk.remaining();
+        }
+        release();
+        return message;
+    }
+
+    /**
+     * Gives the buffers of the chunks back to the pool, once the message was assembled or the transfer abandoned.
+     * Chunks arriving afterwards are ignored; releasing again does nothing
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (pool != null) {
+            for (ByteBuffer chunk : chunks) {
+                if (chunk != null) {
+                    pool.release(chunk);
+                }
+            }
+        }
+    }
+}
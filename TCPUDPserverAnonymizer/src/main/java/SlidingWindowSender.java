@@ -0,0 +1,402 @@
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * The sending half of the windowed UDP protocol.
+ * Splits a message in sequence-numbered chunks and keeps up to a window of them in flight at the same time,
+ * instead of waiting for an ACK after every datagram. Chunks are acknowledged cumulatively and selectively,
+ * and a chunk that is not acknowledged in time is sent again (only that chunk, not the whole window).
+ * How long "in time" is comes from a {@link RetransmissionTimer} fed with the round-trip time of every ACK,
+ * and how many chunks are in flight is also bounded by a congestion window: it starts at {@link #INITIAL_WINDOW} chunks,
+ * grows by one chunk per chunk acknowledged (two at most per ACK) up to the slow start threshold and by one chunk per window after it,
+ * and on a loss the threshold drops to half the chunks in flight, so a transfer speeds up on a clean link and backs off on a lossy one.
+ * A chunk still unacknowledged once {@link #DUPLICATE_THRESHOLD} chunks above it and sent after it were acknowledged
+ * is taken as lost and sent again at once (fast retransmit), and the window drops to the threshold;
+ * a chunk whose ACK times out is sent again, the window drops to one chunk and the timer backs off.
+ * It does no I/O itself: frames are handed to a {@link FrameSink} and ACKs are fed with {@link #onAck(int, long, long)},
+ * so the same sender can be driven by a blocking loop or by an event loop serving many peers.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} J. Kurose, K. Ross (2021) "Computer Networking: A Top-Down Approach" 8th ed. Section 3.4.4 "Selective Repeat".
+ * <li>[2]{@code @source} IETF (1996) "TCP Selective Acknowledgment Options" (RFC 2018).
+ * <li>[3]{@code @source} IETF (2009) "TCP Congestion Control" (RFC 5681), Section 3.1 "Slow Start and Congestion Avoidance".
+ * <li>[4]{@code @source} IETF (2003) "TCP Congestion Control with Appropriate Byte Counting (ABC)" (RFC 3465).
+ * <li>[5]{@code @source} IETF (2012) "A Conservative Loss Recovery Algorithm Based on Selective Acknowledgment (SACK) for TCP" (RFC 6675).
+ * </ul>
+ */
+public final class SlidingWindowSender {
+    /**
+     * How many times a chunk is sent again before the transfer is given up
+     */
+    private static final int MAX_RETRIES = 8;
+    /**
+     * The congestion window of a new transfer, in chunks
+     */
+    private static final int INITIAL_WINDOW = 4;
+    /**
+     * The most chunks one ACK opens the congestion window by in slow start, however many chunks it acknowledges
+     */
+    private static final int MAX_GROWTH_PER_ACK = 2;
+    /**
+     * How many chunks above an unacknowledged one, and sent after it, have to be acknowledged for it to be taken as lost
+     */
+    private static final int DUPLICATE_THRESHOLD = 3;
+    /**
+     * The smallest slow start threshold, in chunks
+     */
+    private static final int MIN_THRESHOLD = 2;
+
+    /**
+     * Receives the frames the sender wants to put on the wire
+     */
+    @FunctionalInterface
+    public interface FrameSink {
+        /**
+         * Sends one frame to the peer
+         *
+         * @param frame The encoded frame, between position and limit of a heap buffer that is reused for the next frame,
+         *              so it is only valid during the call
+         * @throws IOException in case of an error with the socket
+         */
+        void send(ByteBuffer frame) throws IOException;
+    }
+
+    /**
+     * The message id of the transfer
+     */
+    private final int messageId;
+    /**
+     * The flags put on every frame of the transfer
+     */
+    private final byte flags;
+    /**
+     * The buffer holding the message being sent
+     */
+    private final byte[] data;
+    /**
+     * Where the message starts in {@link #data}
+     */
+    private final int dataOffset;
+    /**
+     * The length of the message
+     */
+    private final int dataLength;
+    /**
+     * The size of the payload of each chunk
+     */
+    private final int chunkSize;
+    /**
+     * The maximum number of chunks in flight, whatever the congestion window
+     */
+    private final int windowSize;
+    /**
+     * The buffer every frame is encoded into, instead of allocating one per frame
+     */
+    private final ByteBuffer frame;
+    /**
+     * Computes how long to wait for the ACK of a chunk
+     */
+    private final RetransmissionTimer timer = new RetransmissionTimer();
+    /**
+     * The congestion window, in chunks (fractions are the progress of congestion avoidance)
+     */
+    private double congestionWindow;
+    /**
+     * The slow start threshold, in chunks: below it the congestion window grows exponentially, above it linearly
+     */
+    private int threshold;
+    /**
+     * The number of frames sent when the congestion window was last cut: chunks sent before it belong to the same loss
+     */
+    private long lastCut = -1;
+    /**
+     * The number of frames sent when the timer was last backed off: chunks sent before it time out for the same loss
+     */
+    private long lastBackoff = -1;
+    /**
+     * The total number of chunks
+     */
+    private final int total;
+    /**
+     * Which chunks were already acknowledged
+     */
+    private final boolean[] acked;
+    /**
+     * When each chunk was last sent (0 if never)
+     */
+    private final long[] sentAt;
+    /**
+     * How many times each chunk was sent again
+     */
+    private final int[] retries;
+    /**
+     * The order in which each chunk was last sent, counting every frame sent
+     */
+    private final long[] sendOrder;
+    /**
+     * The number of frames sent so far
+     */
+    private long sends;
+    /**
+     * The latest {@link #sendOrder} of a chunk acknowledged
+     */
+    private long lastAckedOrder = -1;
+    /**
+     * How many chunks were sent again, over every chunk
+     */
+    private int retransmissions;
+    /**
+     * The first chunk not acknowledged yet, the start of the window
+     */
+    private int base;
+    /**
+     * The first chunk never sent
+     */
+    private int nextSeq;
+
+    /**
+     * Creates a sender for a message
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags put on every frame of the transfer
+     * @param data       The message to be sent
+     * @param chunkSize  The size of the payload of each chunk, also advertised to the peer as the size it should use
+     * @param windowSize The maximum number of chunks in flight
+     */
+    public SlidingWindowSender(int messageId, byte flags, byte[] data, int chunkSize, int windowSize) {
+        this(messageId, flags, data, 0, data.length, chunkSize, windowSize);
+    }
+
+    /**
+     * Creates a sender for a message held in part of a buffer, which is sent without being copied
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags put on every frame of the transfer
+     * @param data       The buffer holding the message, not to be modified until the transfer is over
+     * @param offset     Where the message starts in the buffer
+     * @param length     The length of the message
+     * @param chunkSize  The size of the payload of each chunk, also advertised to the peer as the size it should use
+     * @param windowSize The maximum number of chunks in flight
+     */
+    public SlidingWindowSender(int messageId, byte flags, byte[] data, int offset, int length, int chunkSize, int windowSize) {
+        if (chunkSize < 1 || chunkSize > UdpFrame.MAX_PAYLOAD_SIZE || windowSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size or window size");
+        }
+        this.messageId = messageId;
+        this.flags = flags;
+        this.data = data;
+        this.dataOffset = offset;
+        this.dataLength = length;
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+        this.frame = ByteBuffer.allocate(UdpFrame.HEADER_SIZE + chunkSize);
+        this.total = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        this.acked = new boolean[total];
+        this.sentAt = new long[total];
+        this.retries = new int[total];
+        this.sendOrder = new long[total];
+        this.congestionWindow = Math.min(INITIAL_WINDOW, windowSize);
+        this.threshold = windowSize;
+    }
+
+    /**
+     * Returns the message id of the transfer
+     *
+     * @return the message id
+     */
+    public int messageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the flags put on every frame of the transfer
+     *
+     * @return the flags
+     */
+    public byte flags() {
+        return flags;
+    }
+
+    /**
+     * Returns the total number of chunks of the message
+     *
+     * @return the number of chunks
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * Checks whether every chunk was acknowledged
+     *
+     * @return true when the transfer is complete
+     */
+    public boolean isComplete() {
+        return base == total;
+    }
+
+    /**
+     * Returns the number of chunks the congestion window lets in flight
+     *
+     * @return the congestion window, in whole chunks, at most the window size
+     */
+    public int congestionWindow() {
+        return (int) Math.min(windowSize, congestionWindow);
+    }
+
+    /**
+     * Returns how many times a chunk was sent again because its ACK timed out
+     *
+     * @return the number of retransmissions
+     */
+    public int retransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * Marks the transfer as complete without waiting for the last ACKs, used when the peer already answered
+     * (it could only have answered after receiving every chunk)
+     */
+    public void markComplete() {
+        base = total;
+    }
+
+    /**
+     * Processes an ACK from the peer, sliding the window forward.
+     * The most recently sent chunk it acknowledges gives a round-trip time sample, unless it was sent more than once,
+     * and every chunk it acknowledges opens the congestion window.
+     * The ACK comes off the wire, so one whose cumulative sequence number is outside [0, total] is ignored
+     *
+     * @param cumulative Every chunk below this sequence number was received
+     * @param sack       Bit i set means chunk cumulative + 1 + i was received
+     * @param now        The current time in milliseconds
+     */
+    public void onAck(int cumulative, long sack, long now) {
+        if (cumulative < 0 || cumulative > total) {
+            return;
+        }
+        int newlyAcked = 0;
+        int latest = -1;
+        int upTo = Math.min(cumulative, Math.min(total, nextSeq));
+        for (int seq = base; seq < upTo; seq++) {
+            if (!acked[seq]) {
+                acked[seq] = true;
+                newlyAcked++;
+                latest = laterOf(latest, seq);
+            }
+        }
+        long sackEnd = Math.min((long) cumulative + 1 + Long.SIZE, Math.min(total, nextSeq));
+        for (long seqLong = Math.max(base, (long) cumulative + 1); seqLong < sackEnd; seqLong++) {
+            int seq = (int) seqLong;
+            if ((sack & (1L << (seqLong - cumulative - 1))) != 0 && !acked[seq]) {
+                acked[seq] = true;
+                newlyAcked++;
+                latest = laterOf(latest, seq);
+            }
+        }
+        while (base < total && acked[base]) {
+            base++;
+        }
+        if (latest >= 0) {
+            lastAckedOrder = Math.max(lastAckedOrder, sendOrder[latest]);
+            if (retries[latest] == 0) {
+                timer.onSample(now - sentAt[latest]);
+            }
+        }
+        if (newlyAcked > 0) {
+            congestionWindow += congestionWindow < threshold ? Math.min(newlyAcked, MAX_GROWTH_PER_ACK) : newlyAcked / congestionWindow;
+            congestionWindow = Math.min(congestionWindow, windowSize);
+        }
+    }
+
+    /**
+     * @param current The chunk found so far, -1 if none
+     * @param seq     Another chunk
+     * @return whichever of the two chunks was sent last
+     */
+    private int laterOf(int current, int seq) {
+        return current < 0 || sendOrder[seq] > sendOrder[current] ? seq : current;
+    }
+
+    /**
+     * Sends every chunk that is due: chunks taken as lost, chunks whose ACK timed out and new chunks that fit in the window.
+     * The first chunk sent again for a loss cuts the congestion window, and the first one timed out backs the retransmission timer off
+     *
+     * @param now  The current time in milliseconds
+     * @param sink Where the frames are sent
+     * @throws SocketTimeoutException if a chunk was sent {@link #MAX_RETRIES} times without being acknowledged
+     * @throws IOException            in case of an error with the socket
+     */
+    public void poll(long now, FrameSink sink) throws IOException {
+        int rto = timer.rto();
+        int ackedAbove = 0;
+        for (int seq = base; seq < nextSeq; seq++) {
+            if (acked[seq]) {
+                ackedAbove++;
+            }
+        }
+        for (int seq = base; seq < nextSeq; seq++) {
+            if (acked[seq]) {
+                ackedAbove--;
+                continue;
+            }
+            boolean expired = now - sentAt[seq] >= rto;
+            boolean lost = ackedAbove >= DUPLICATE_THRESHOLD && sendOrder[seq] < lastAckedOrder;
+            if (!expired && !lost) {
+                continue;
+            }
+            if (retries[seq] >= MAX_RETRIES) {
+                throw new SocketTimeoutException("Chunk " + seq + " not acknowledged after " + MAX_RETRIES + " retries");
+            }
+            if (sendOrder[seq] > lastCut) {
+                threshold = Math.max(MIN_THRESHOLD, (nextSeq - base) / 2);
+                congestionWindow = expired ? 1 : threshold;
+                lastCut = sends;
+            }
+            if (expired && sendOrder[seq] > lastBackoff) {
+                timer.backoff();
+                lastBackoff = sends;
+            }
+            retries[seq]++;
+            retransmissions++;
+            sendChunk(seq, now, sink);
+        }
+        int window = congestionWindow();
+        while (nextSeq < total && nextSeq < base + window) {
+            sendChunk(nextSeq++, now, sink);
+        }
+    }
+
+    /**
+     * Returns how long until the oldest unacknowledged chunk has to be sent again
+     *
+     * @param now The current time in milliseconds
+     * @return the time to wait in milliseconds (at least 1)
+     */
+    public long millisUntilNextTimeout(long now) {
+        long earliest = Long.MAX_VALUE;
+        for (int seq = base; seq < nextSeq; seq++) {
+            if (!acked[seq]) {
+                earliest = Math.min(earliest, sentAt[seq] + timer.rto());
+            }
+        }
+        return earliest == Long.MAX_VALUE ? timer.rto() : Math.max(1, earliest - now);
+    }
+
+    /**
+     * Encodes a chunk and hands it to the sink
+     *
+     * @param seq  The sequence number of the chunk
+     * @param now  The current time in milliseconds
+     * @param sink Where the frame is sent
+     * @throws IOException in case of an error with the socket
+     */
+    private void sendChunk(int seq, long now, FrameSink sink) throws IOException {
+        int offset = seq * chunkSize;
+        int length = Math.max(0, Math.min(chunkSize, dataLength - offset));
+        sink.send(UdpFrame.putData(frame, messageId, flags, seq, total, chunkSize, data, dataOffset + Math.min(offset, dataLength), length));
+        sentAt[seq] = now;
+        sendOrder[seq] = sends++;
+    }
+}
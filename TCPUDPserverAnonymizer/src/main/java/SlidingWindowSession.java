@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drives one request/answer exchange of the windowed UDP protocol over a {@link UdpChannel}.
+ * Used by the client (which knows the server in advance and picks the message id); it can also answer a single
+ * exchange (learning the client and the message id from the first frame it receives), while {@link Server_java_UDP}
+ * drives many exchanges at once through its {@link UdpSessionTable}.
+ * <p>The payload size is negotiated through the frames themselves: the client sends its request with the
+ * payload size it wants (up to {@link UdpFrame#MAX_PAYLOAD_SIZE}) and the server answers with the smaller
+ * of that size and its own.
+ * <p>Because the last ACK of a transfer can be lost, the session also takes care of the two ends of an exchange:
+ * an answer frame arriving while the client sends means everything it sent was received,
+ * and a request frame arriving while the server answers means the client did not get the last ACK, so it is ACKed again.
+ * <p>Frames are received into buffers of the channel's pool, and the chunks stay in them until the message is assembled.
+ * <p>A server refusing the request answers with a BUSY or TOO_LARGE frame, and sending fails at once
+ * (with a {@link ServerBusyException} if the server is busy).
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} lmn@isep.ipp.pt - 27/12/2023 -"UDPEchoCServer.java" (unknown version) Type: source code
+ * <li>[2]{@code @source} Oracle (2023) "Class DatagramChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class SlidingWindowSession {
+    /**
+     * The maximum number of chunks in flight
+     */
+    public static final int WINDOW_SIZE = 32;
+    /**
+     * How long to wait for the next DATA frame before giving up on a transfer
+     */
+    private static final int RECEIVE_TIMEOUT = 5000;
+
+    /**
+     * The channel used to send and receive frames
+     */
+    private final UdpChannel channel;
+    /**
+     * True on the server side, where the frames sent carry {@link UdpFrame#FLAG_RESPONSE}
+     */
+    private final boolean answering;
+    /**
+     * The pooled buffer the next frame is received into, taken from the pool while sending or receiving
+     * and replaced when the chunk it holds is kept by the receiver
+     */
+    private ByteBuffer frame;
+    /**
+     * The buffer the ACK frames are written into
+     */
+    private final ByteBuffer ackFrame = ByteBuffer.allocate(UdpFrame.ACK_FRAME_SIZE);
+    /**
+     * The size of the payload of each chunk sent
+     */
+    private int payloadSize;
+    /**
+     * The address of the peer, null until the first frame arrives (server side)
+     */
+    private SocketAddress peer;
+    /**
+     * The message id of the exchange
+     */
+    private int messageId;
+    /**
+     * The transfer being received, null if none started
+     */
+    private SlidingWindowReceiver receiver;
+    /**
+     * The last transfer completely received, kept to ACK it again if the peer missed the last ACK
+     */
+    private SlidingWindowReceiver lastReceived;
+
+    /**
+     * Creates a session
+     *
+     * @param channel     The channel used to send and receive frames
+     * @param peer        The address of the server (client side), or null to answer whoever sends the first frame (server side)
+     * @param payloadSize The payload size this end wants to use, at most {@link UdpFrame#MAX_PAYLOAD_SIZE}
+     */
+    public SlidingWindowSession(UdpChannel channel, SocketAddress peer, int payloadSize) {
+        if (payloadSize < UdpFrame.MIN_PAYLOAD_SIZE || payloadSize > UdpFrame.MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload size must be between " + UdpFrame.MIN_PAYLOAD_SIZE + " and " + UdpFrame.MAX_PAYLOAD_SIZE);
+        }
+        this.channel = channel;
+        this.peer = peer;
+        this.answering = peer == null;
+        this.payloadSize = payloadSize;
+        this.messageId = ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * Returns the address of the peer
+     *
+     * @return the peer, null if not known yet
+     */
+    public SocketAddress peer() {
+        return peer;
+    }
+
+    /**
+     * Sends a message, returning once every chunk was acknowledged (or the peer started answering)
+     *
+     * @param message The message to be sent
+     * @throws SocketTimeoutException if the peer stops acknowledging
+     * @throws ServerBusyException    if the server refused the request because it is busy
+     * @throws IOException            if the server refused the message as too large, or in case of an error with the socket
+     */
+    public void send(byte[] message) throws IOException {
+        byte flags = answering ? UdpFrame.FLAG_RESPONSE : 0;
+        SlidingWindowSender sender = new SlidingWindowSender(messageId, flags, message, payloadSize, WINDOW_SIZE);
+        SlidingWindowSender.FrameSink sink = data -> channel.send(data, peer);
+        frame = channel.buffers().acquire();
+        try {
+            sendFrames(sender, sink, flags);
+        } finally {
+            channel.buffers().release(frame);
+            frame = null;
+        }
+    }
+
+    /**
+     * Sends the frames of a message until every chunk was acknowledged (or the peer started answering)
+     *
+     * @param sender The sender of the message
+     * @param sink   Sends the frames to the peer
+     * @param flags  The flags of the frames sent, expected back on the ACKs
+     * @throws IOException if the server refused the request, or in case of an error with the socket
+     */
+    private void sendFrames(SlidingWindowSender sender, SlidingWindowSender.FrameSink sink, byte flags) throws IOException {
+        while (!sender.isComplete()) {
+            long now = System.currentTimeMillis();
+            sender.poll(now, sink);
+            if (!receiveFrame((int) sender.millisUntilNextTimeout(now))) {
+                continue;
+            }
+            byte type = UdpFrame.type(frame);
+            if (type == UdpFrame.ACK) {
+                if (UdpFrame.flags(frame) == flags) {
+                    sender.onAck(UdpFrame.seq(frame), UdpFrame.sack(frame), System.currentTimeMillis());
+                }
+            } else if (type != UdpFrame.DATA) {
+                IOException rejection = answering ? null : UdpFrame.rejection(frame);
+                if (rejection != null) {
+                    throw rejection;
+                }
+            } else if (answering) {
+                if (lastReceived != null) {
+                    channel.send(lastReceived.ackFrame(ackFrame), peer);
+                }
+            } else {
+                sender.markComplete();
+                onData();
+            }
+        }
+    }
+
+    /**
+     * Receives a message, the first frame is read from the socket
+     *
+     * @return The whole message
+     * @throws SocketTimeoutException if the peer stops sending
+     * @throws IOException            in case of an error with the socket
+     */
+    public byte[] receive() throws IOException {
+        return receive(null, null);
+    }
+
+    /**
+     * Receives a message whose first frame was already read from the channel by the caller
+     *
+     * @param first The first frame of the message between position and limit, or null to read it from the channel
+     * @param from  The address the first frame came from
+     * @return The whole message
+     * @throws SocketTimeoutException if the peer stops sending
+     * @throws IOException            in case of an error with the socket
+     */
+    public byte[] receive(ByteBuffer first, SocketAddress from) throws IOException {
+        frame = channel.buffers().acquire();
+        try {
+            return receiveFrames(first, from);
+        } finally {
+            channel.buffers().release(frame);
+            frame = null;
+        }
+    }
+
+    /**
+     * Receives the frames of a message until it is complete
+     *
+     * @param first The first frame of the message between position and limit, or null to read it from the channel
+     * @param from  The address the first frame came from
+     * @return The whole message
+     * @throws IOException in case of an error with the socket
+     */
+    private byte[] receiveFrames(ByteBuffer first, SocketAddress from) throws IOException {
+        if (first != null) {
+            frame.put(first.duplicate()).flip();
+            if (!UdpFrame.isValid(frame) || UdpFrame.type(frame) != UdpFrame.DATA) {
+                throw new IOException("First datagram is not a valid DATA frame");
+            }
+            peer = from;
+            messageId = UdpFrame.messageId(frame);
+            onData();
+        }
+        while (receiver == null || !receiver.isComplete()) {
+            if (!receiveFrame(RECEIVE_TIMEOUT)) {
+                throw new SocketTimeoutException("Peer stopped sending");
+            }
+            if (UdpFrame.type(frame) == UdpFrame.DATA) {
+                onData();
+            }
+        }
+        lastReceived = receiver;
+        receiver = null;
+        return lastReceived.assemble();
+    }
+
+    /**
+     * Stores the DATA frame held in {@link #frame} and ACKs what was received so far.
+     * The first frame of a transfer also tells which payload size the peer wants us to use
+     *
+     * @throws IOException in case of an error with the socket
+     */
+    private void onData() throws IOException {
+        byte expectedFlags = answering ? 0 : UdpFrame.FLAG_RESPONSE;
+        if (UdpFrame.flags(frame) != expectedFlags) {
+            return;
+        }
+        int total = UdpFrame.total(frame);
+        if (receiver == null) {
+            if (answering) {
+                payloadSize = Math.min(payloadSize, UdpFrame.maxPayload(frame));
+            }
+            receiver = new SlidingWindowReceiver(messageId, expectedFlags, total, payloadSize, channel.buffers());
+        } else if (total != receiver.total()) {
+            return;
+        }
+        int seq = UdpFrame.seq(frame);
+        int payloadOffset = UdpFrame.payloadOffset(frame);
+        frame.limit(payloadOffset + UdpFrame.payloadLength(frame)).position(payloadOffset);
+        if (receiver.onData(seq, frame)) {
+            frame = channel.buffers().acquire();
+        }
+        channel.send(receiver.ackFrame(ackFrame), peer);
+    }
+
+    /**
+     * Waits for a valid frame of this exchange, ignoring anything else
+     *
+     * @param timeout How long to wait in milliseconds
+     * @return true if a frame of this exchange is now in {@link #frame}, false if the time ran out
+     * @throws IOException in case of an error with the socket
+     */
+    private boolean receiveFrame(int timeout) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (remaining > 0) {
+            SocketAddress sender;
+            try {
+                sender = channel.receive(frame, (int) remaining);
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+            boolean fromPeer = peer == null || peer.equals(sender);
+            if (fromPeer && UdpFrame.isValid(frame) && UdpFrame.messageId(frame) == messageId) {
+                return true;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Anonymizes text of any size in constant memory, reading it from a Reader in chunks and writing the anonymized
+ * text to a Writer as soon as it is final.
+ * The last {@code maxKeywordLength - 1} characters of each chunk are held back and scanned again with the next one,
+ * so occurrences spanning two chunks are still found; they are only written once no occurrence can reach them anymore.
+ * The text is scanned as read and masked in a separate copy, so masking never hides an occurrence
+ * that starts in the held back characters.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class Reader" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class StreamingAnonymizer {
+    /**
+     * The default number of characters read at a time
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The keywords
+     */
+    private final KeywordMatcher matcher;
+    /**
+     * The maximum number of characters read at a time
+     */
+    private final int chunkSize;
+
+    /**
+     * Creates a streaming anonymizer reading {@link #DEFAULT_CHUNK_SIZE} characters at a time
+     *
+     * @param matcher The keywords
+     */
+    public StreamingAnonymizer(KeywordMatcher matcher) {
+        this(matcher, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a streaming anonymizer
+     *
+     * @param matcher   The keywords
+     * @param chunkSize The maximum number of characters read at a time
+     */
+    public StreamingAnonymizer(KeywordMatcher matcher, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.matcher = matcher;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Anonymizes everything the Reader gives until its end, the Writer is flushed whenever the Reader has
+     * nothing more ready, so the output keeps up with a slow input
+     *
+     * @param in  The text to be anonymized
+     * @param out Receives the anonymized text
+     * @return The number of occurrences of the keywords (overlapping occurrences included)
+     * @throws IOException in case of an error reading or writing
+     */
+    public long anonymize(Reader in, Writer out) throws IOException {
+        int overlap = matcher.maxKeywordLength() - 1;
+        char[] text = new char[chunkSize + overlap + 1];
+        char[] masked = new char[text.length];
+        CharBuffer view = CharBuffer.wrap(text);
+        ChunkMasker masker = new ChunkMasker(masked);
+        int carried = 0;
+        boolean end = false;
+        while (!end) {
+            int read = in.read(text, carried, text.length - carried);
+            end = read < 0;
+            int length = end ? carried : carried + read;
+            if (!end) {
+                System.arraycopy(text, carried, masked, carried, read);
+                masker.scanned = carried;
+                matcher.scan(view, 0, length, masker);
+            }
+            int ready = end ? length : Math.max(0, length - overlap);
+            if (!end && ready > 0 && Character.isHighSurrogate(masked[ready - 1])) {
+                ready--;
+            }
+            out.write(masked, 0, ready);
+            carried = length - ready;
+            System.arraycopy(text, ready, text, 0, carried);
+            System.arraycopy(masked, ready, masked, 0, carried);
+            if (end || !in.ready()) {
+                out.flush();
+            }
+        }
+        return masker.count;
+    }
+
+    /**
+     * Masks the occurrences of a chunk in the copy being written, ignoring those already found in the previous chunk
+     */
+    private static final class ChunkMasker implements KeywordMatcher.MatchSink {
+        /**
+         * The copy of the text being masked
+         */
+        private final char[] masked;
+        /**
+         * The number of characters at the start of the chunk already scanned with the previous chunk
+         */
+        private int scanned;
+        /**
+         * The number of occurrences found
+         */
+        private long count;
+
+        /**
+         * Creates a masker
+         *
+         * @param masked The copy of the text being masked
+         */
+        private ChunkMasker(char[] masked) {
+            this.masked = masked;
+        }
+
+        @Override
+        public void onMatch(int keyword, int start, int end) {
+            if (end > scanned) {
+                count++;
+                Arrays.fill(masked, start, end, 'X');
+            }
+        }
+    }
+}
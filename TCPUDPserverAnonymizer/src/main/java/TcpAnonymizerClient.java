@@ -0,0 +1,385 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@link AnonymizerClient} over pipelined TCP connections ({@link TcpProtocol#PIPELINE_MODE}).
+ * The keyword is sent once per connection, so the connections are pooled by keyword field:
+ * up to {@link #maxConnections} per keyword, opened when first needed, kept open until the client is closed
+ * and handed the requests in turn. Each request is tagged with an id and written as soon as it is made,
+ * the answers are read on one virtual thread per connection and handed to their futures by id,
+ * so any number of requests share a connection without waiting for each other.
+ * A connection that fails fails the requests in flight on it and is replaced by the next request.
+ * A server that refuses a request because it is busy closes the connection, and the requests in flight on it
+ * fail with a {@link ServerBusyException} telling how long to wait before trying again.
+ * <p>Strings and keywords can not hold line breaks, since the protocol is made of lines.
+ * Connecting and writing block on the socket, so they are guarded by {@link ReentrantLock}s rather than monitors,
+ * which a virtual thread blocked inside would pin to its carrier thread.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} IETF (2022) "HTTP/1.1" (RFC 9112), Section 9.3.2 "Pipelining".
+ * <li>[2]{@code @source} Oracle (2023) "Class Socket" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class TcpAnonymizerClient implements AnonymizerClient {
+    /**
+     * The default number of connections per keyword field
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    /**
+     * How long to wait for a connection to be established, in milliseconds
+     */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The address of the server
+     */
+    private final InetSocketAddress server;
+    /**
+     * The most connections opened per keyword field
+     */
+    private final int maxConnections;
+    /**
+     * The deadline of the requests made without one
+     */
+    private final Duration defaultDeadline;
+    /**
+     * The connections, by keyword field
+     */
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    /**
+     * Opens the connections and writes the requests, so the callers never block
+     */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    /**
+     * Set once the client is closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a client with {@link #DEFAULT_MAX_CONNECTIONS} connections per keyword field, no connection is opened yet
+     *
+     * @param server          The address of the server
+     * @param defaultDeadline The deadline of the requests made without one
+     */
+    public TcpAnonymizerClient(InetSocketAddress server, Duration defaultDeadline) {
+        this(server, DEFAULT_MAX_CONNECTIONS, defaultDeadline);
+    }
+
+    /**
+     * Creates a client, no connection is opened yet
+     *
+     * @param server          The address of the server
+     * @param maxConnections  The most connections opened per keyword field
+     * @param defaultDeadline The deadline of the requests made without one
+     */
+    public TcpAnonymizerClient(InetSocketAddress server, int maxConnections, Duration defaultDeadline) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("At least one connection is needed");
+        }
+        this.server = server;
+        this.maxConnections = maxConnections;
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    @Override
+    public CompletableFuture<AnonymizationResult> anonymize(String message, String keyword) {
+        return anonymize(message, keyword, defaultDeadline);
+    }
+
+    @Override
+    public CompletableFuture<AnonymizationResult> anonymize(String message, String keyword, Duration deadline) {
+        CompletableFuture<AnonymizationResult> result = new CompletableFuture<>();
+        if (hasLineBreak(message) || hasLineBreak(keyword)) {
+            result.completeExceptionally(new IllegalArgumentException("Strings and keywords sent over TCP can not hold line breaks"));
+            return result;
+        }
+        if (closed) {
+            result.completeExceptionally(new IOException("Client closed"));
+            return result;
+        }
+        result.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        executor.execute(() -> {
+            try {
+                pools.computeIfAbsent(keyword, Pool::new).next().send(message, result);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the number of connections open
+     *
+     * @return the number of connections open, over every keyword field
+     */
+    public int openConnections() {
+        int open = 0;
+        for (Pool pool : pools.values()) {
+            open += pool.openConnections();
+        }
+        return open;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Pool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+        executor.shutdown();
+    }
+
+    /**
+     * @param text A String or keyword field
+     * @return true if the text holds a character that ends a line
+     */
+    private static boolean hasLineBreak(String text) {
+        return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+    }
+
+    /**
+     * The connections of one keyword field
+     */
+    private final class Pool {
+        /**
+         * The keyword field sent at the start of every connection
+         */
+        private final String keyword;
+        /**
+         * The connections, a slot is null until first needed
+         */
+        private final AtomicReferenceArray<Connection> connections = new AtomicReferenceArray<>(maxConnections);
+        /**
+         * Guards the opening of the connection of each slot, so a slot opens one connection at a time
+         */
+        private final ReentrantLock[] opening = new ReentrantLock[maxConnections];
+        /**
+         * The slot of the next request
+         */
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * @param keyword The keyword field sent at the start of every connection
+         */
+        private Pool(String keyword) {
+            this.keyword = keyword;
+            for (int i = 0; i < opening.length; i++) {
+                opening[i] = new ReentrantLock();
+            }
+        }
+
+        /**
+         * Returns the connection of the next request, opening it if the slot is empty or its connection failed
+         *
+         * @return an open connection
+         * @throws IOException if the connection can not be opened
+         */
+        private Connection next() throws IOException {
+            int slot = Math.floorMod(next.getAndIncrement(), connections.length());
+            Connection connection = connections.get(slot);
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+            opening[slot].lock();
+            try {
+                connection = connections.get(slot);
+                if (connection == null || connection.isClosed()) {
+                    if (closed) {
+                        throw new IOException("Client closed");
+                    }
+                    connection = new Connection(keyword);
+                    connections.set(slot, connection);
+                    if (closed) { // closed while connecting, after close() went through the slots
+                        connection.fail(new IOException("Client closed"));
+                        throw new IOException("Client closed");
+                    }
+                }
+                return connection;
+            } finally {
+                opening[slot].unlock();
+            }
+        }
+
+        /**
+         * @return the number of connections open
+         */
+        private int openConnections() {
+            int open = 0;
+            for (int i = 0; i < connections.length(); i++) {
+                Connection connection = connections.get(i);
+                if (connection != null && !connection.isClosed()) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        /**
+         * Closes every connection
+         */
+        private void close() {
+            for (int i = 0; i < connections.length(); i++) {
+                Connection connection = connections.get(i);
+                if (connection != null) {
+                    connection.fail(new IOException("Client closed"));
+                }
+            }
+        }
+    }
+
+    /**
+     * A pipelined connection and the requests in flight on it
+     */
+    private final class Connection {
+        /**
+         * The connection
+         */
+        private final Socket socket;
+        /**
+         * Sends the requests, guarded by {@link #writing}
+         */
+        private final Writer out;
+        /**
+         * Guards {@link #out}, so the requests of different threads are written one after the other
+         */
+        private final ReentrantLock writing = new ReentrantLock();
+        /**
+         * The requests waiting for their answer, by id
+         */
+        private final Map<Long, CompletableFuture<AnonymizationResult>> pending = new ConcurrentHashMap<>();
+        /**
+         * The id of the next request
+         */
+        private final AtomicLong nextId = new AtomicLong();
+        /**
+         * Set once the connection failed or was closed
+         */
+        private volatile boolean failed;
+
+        /**
+         * Opens a connection in pipeline mode and starts reading its answers
+         *
+         * @param keyword The keyword field of the connection
+         * @throws IOException if the server can not be reached
+         */
+        private Connection(String keyword) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(server, CONNECT_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                out.write(TcpProtocol.PIPELINE_MODE + "\n" + keyword + "\n");
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Thread.ofVirtual().start(() -> readAnswers(in));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return true once the connection failed or was closed
+         */
+        private boolean isClosed() {
+            return failed;
+        }
+
+        /**
+         * Writes a request, its future is completed when the answer arrives
+         *
+         * @param message The String to be anonymized
+         * @param result  The future of the request
+         */
+        private void send(String message, CompletableFuture<AnonymizationResult> result) {
+            long id = nextId.getAndIncrement();
+            pending.put(id, result);
+            result.whenComplete((answer, error) -> pending.remove(id));
+            if (result.isDone()) {
+                return;
+            }
+            writing.lock();
+            try {
+                out.write(Long.toString(id));
+                out.write(TcpProtocol.FIELD_SEPARATOR);
+                out.write(message);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                writing.unlock();
+            }
+            if (failed) {
+                result.completeExceptionally(new IOException("Connection to " + server + " lost"));
+            }
+        }
+
+        /**
+         * Reads the answers until the connection ends, completing the future of each one
+         *
+         * @param in The answers
+         */
+        private void readAnswers(BufferedReader in) {
+            try {
+                String answer;
+                while ((answer = in.readLine()) != null) {
+                    IOException rejection = TcpProtocol.rejection(answer);
+                    if (rejection != null) {
+                        fail(rejection);
+                        return;
+                    }
+                    int idEnd = answer.indexOf(TcpProtocol.FIELD_SEPARATOR);
+                    int countEnd = idEnd < 0 ? -1 : answer.indexOf(TcpProtocol.FIELD_SEPARATOR, idEnd + 1);
+                    if (countEnd < 0) {
+                        throw new IOException("Did not receive a valid answer from " + server);
+                    }
+                    CompletableFuture<AnonymizationResult> result = pending.remove(Long.parseLong(answer, 0, idEnd, 10));
+                    if (result != null) {
+                        int count = Integer.parseInt(answer, idEnd + 1, countEnd, 10);
+                        result.complete(new AnonymizationResult(answer.substring(countEnd + 1), count));
+                    }
+                }
+                fail(new IOException("Server closed the connection"));
+            } catch (IOException | NumberFormatException e) {
+                fail(e instanceof IOException ? (IOException) e : new IOException("Did not receive a valid answer from " + server, e));
+            }
+        }
+
+        /**
+         * Closes the connection and fails every request in flight on it
+         *
+         * @param cause Why the connection is closed
+         */
+        private void fail(IOException cause) {
+            failed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close connection: " + e.getMessage());
+            }
+            for (CompletableFuture<AnonymizationResult> result : pending.values()) {
+                result.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The parts of the TCP protocol shared by the servers and the client.
+ * <p>A connection starts with a String line and a keyword line. A first line equal to one of the mode lines
+ * below selects another way of talking instead (a control character starts them, so they are not Strings
+ * a client would want to anonymize):
+ * <ul>
+ * <li>{@link #STREAM_MODE}: the keyword line is followed by raw UTF-8 text until the client closes its side of the connection.
+ * The server answers with the anonymized text in chunks as it goes, each one a line with its length in bytes followed by the bytes,
+ * then a chunk of length 0 and a line with the number of substitutions.
+ * <li>{@link #PIPELINE_MODE}: the keyword line is followed by requests, each one a line with an id chosen by the client,
+ * a tab and the String to be anonymized. The client may send them back to back without waiting for the answers.
+ * The server answers them in order, each one a line with the id of the request, a tab, the number of substitutions,
+ * a tab and the anonymized String, and only flushes once it has answered every request it already received.
+ * <li>{@link CompactResponse#MODE} and {@link CompactResponse#OFFSETS_MODE}: like the classic protocol after the keyword line,
+ * but each String is answered with the anonymized String and a line holding its {@link CompactResponse} record in Base64,
+ * instead of the number of substitutions and one "Socket Programming" line per substitution.
+ * </ul>
+ * <p>A request the server can not take ({@link AdmissionControl}) is answered, in any of the ways, with a single line
+ * in place of the answer, after which the server closes the connection: {@link #BUSY}, a tab and how long to wait
+ * before trying again in milliseconds, or {@link #TOO_LARGE}, a tab and the largest message the server takes in bytes.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} IETF (2022) "HTTP/1.1" (RFC 9112), Section 7.1 "Chunked Transfer Coding".
+ * <li>[2]{@code @source} IETF (2022) "HTTP/1.1" (RFC 9112), Section 9.3.2 "Pipelining".
+ * </ul>
+ */
+public final class TcpProtocol {
+    /**
+     * The first line of a connection that streams its text
+     */
+    public static final String STREAM_MODE = "\u0001STREAM";
+    /**
+     * The first line of a connection that pipelines its requests
+     */
+    public static final String PIPELINE_MODE = "\u0001PIPELINE";
+    /**
+     * Separates the fields of the pipelined requests and answers
+     */
+    public static final char FIELD_SEPARATOR = '\t';
+    /**
+     * The answer to a request refused because the server is busy, followed by a tab and the retry hint in milliseconds
+     */
+    public static final String BUSY = "\u0001BUSY";
+    /**
+     * The answer to a request refused because its message is too large, followed by a tab and the limit in bytes
+     */
+    public static final String TOO_LARGE = "\u0001TOO_LARGE";
+    /**
+     * The most digits accepted in a number line, so the number always fits in a long
+     */
+    private static final int MAX_NUMBER_DIGITS = 18;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private TcpProtocol() {
+    }
+
+    /**
+     * Builds the line answering a request refused because the server is busy
+     *
+     * @param retryAfterMillis How long the client should wait before trying again, in milliseconds
+     * @return the line, without the line terminator
+     */
+    public static String busyLine(long retryAfterMillis) {
+        return BUSY + FIELD_SEPARATOR + retryAfterMillis;
+    }
+
+    /**
+     * Builds the line answering a request refused because its message is too large
+     *
+     * @param maxMessageBytes The largest message the server takes, in bytes
+     * @return the line, without the line terminator
+     */
+    public static String tooLargeLine(long maxMessageBytes) {
+        return TOO_LARGE + FIELD_SEPARATOR + maxMessageBytes;
+    }
+
+    /**
+     * Checks whether a line received from the server refuses the request
+     *
+     * @param line The line, without the line terminator
+     * @return a {@link ServerBusyException} for a {@link #BUSY} line, an IOException for a {@link #TOO_LARGE} line,
+     * null for any other line
+     */
+    public static IOException rejection(String line) {
+        int separator = line.indexOf(FIELD_SEPARATOR);
+        if (line.isEmpty() || line.charAt(0) != '\u0001' || separator < 0) {
+            return null;
+        }
+        try {
+            long value = Long.parseLong(line, separator + 1, line.length(), 10);
+            if (line.regionMatches(0, BUSY, 0, separator) && separator == BUSY.length()) {
+                return new ServerBusyException(value);
+            }
+            if (line.regionMatches(0, TOO_LARGE, 0, separator) && separator == TOO_LARGE.length()) {
+                return new IOException("Message too large for the server (at most " + value + " bytes)");
+            }
+        } catch (NumberFormatException e) {
+            // not a rejection
+        }
+        return null;
+    }
+
+    /**
+     * Writes a chunk: its length in a line, then its bytes
+     *
+     * @param out    Where the chunk is written
+     * @param data   The buffer holding the chunk
+     * @param offset Where the chunk starts
+     * @param length The length of the chunk, 0 only for the last one
+     * @throws IOException in case of an error writing
+     */
+    public static void writeChunk(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        out.write((length + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(data, offset, length);
+    }
+
+    /**
+     * Writes the end of a stream: a chunk of length 0 and the number of substitutions
+     *
+     * @param out                Where the end is written
+     * @param countSubstitutions The number of substitutions
+     * @throws IOException in case of an error writing
+     */
+    public static void writeEnd(OutputStream out, long countSubstitutions) throws IOException {
+        out.write(("0\n" + countSubstitutions + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads a line holding a non-negative decimal number (a chunk length or the number of substitutions)
+     *
+     * @param in Where the line is read from
+     * @return the number
+     * @throws EOFException        if the stream ends before the line does
+     * @throws ServerBusyException if the server answered with a {@link #BUSY} line
+     * @throws IOException         if the line is not a number (or is a {@link #TOO_LARGE} line), or in case of an error reading
+     */
+    public static long readNumberLine(InputStream in) throws IOException {
+        long value = 0;
+        int digits = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Stream ended in the middle of a chunk header");
+            }
+            if (b == '\u0001' && digits == 0) {
+                throw readRejection(in);
+            }
+            if (b < '0' || b > '9' || ++digits > MAX_NUMBER_DIGITS) {
+                throw new IOException("Invalid chunk header");
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (digits == 0) {
+            throw new IOException("Invalid chunk header");
+        }
+        return value;
+    }
+
+    /**
+     * Reads the rest of a line refusing the request, once its first byte was read
+     *
+     * @param in Where the line is read from
+     * @return the exception the line stands for
+     * @throws IOException in case of an error reading
+     */
+    private static IOException readRejection(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder().append('\u0001');
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n' && line.length() <= MAX_NUMBER_DIGITS + TOO_LARGE.length() + 1) {
+            line.append((char) b);
+        }
+        IOException rejection = rejection(line.toString());
+        return rejection != null ? rejection : new IOException("Invalid chunk header");
+    }
+
+    /**
+     * Reads the length line of a chunk
+     *
+     * @param in Where the line is read from
+     * @return the length of the chunk, 0 for the last one
+     * @throws IOException if the line is not a valid length, the stream ends, or in case of an error reading
+     */
+    public static int readChunkLength(InputStream in) throws IOException {
+        long length = readNumberLine(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid chunk length");
+        }
+        return (int) length;
+    }
+
+    /**
+     * A Writer that sends every write as one UTF-8 chunk.
+     * Closing it does not close the stream, the end of the stream is written with {@link #writeEnd(OutputStream, long)}
+     */
+    public static final class ChunkWriter extends Writer {
+        /**
+         * Where the chunks are written
+         */
+        private final OutputStream out;
+
+        /**
+         * Creates a chunk writer
+         *
+         * @param out Where the chunks are written
+         */
+        public ChunkWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            byte[] bytes = new String(chars, offset, length).getBytes(StandardCharsets.UTF_8);
+            writeChunk(out, bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Thrown when a client sends a line longer than the server takes
+     */
+    public static final class LineTooLongException extends IOException {
+        /**
+         * The version of the serialized form
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The longest line the server takes, in bytes
+         */
+        private final long maxLineBytes;
+
+        /**
+         * Creates the exception
+         *
+         * @param maxLineBytes The longest line the server takes, in bytes
+         */
+        public LineTooLongException(long maxLineBytes) {
+            super("Line longer than " + maxLineBytes + " bytes");
+            this.maxLineBytes = maxLineBytes;
+        }
+
+        /**
+         * Returns the longest line the server takes
+         *
+         * @return the limit in bytes
+         */
+        public long maxLineBytes() {
+            return maxLineBytes;
+        }
+    }
+
+    /**
+     * Bounds the lines read from a client: the bytes read since the last '\n' are counted as they go through,
+     * and a read fails with a {@link LineTooLongException} once they are more than the limit,
+     * so a reader buffering a line (like {@link java.io.BufferedReader#readLine()}) never holds more than the limit
+     * and one buffer of it. The check can be turned off for raw text that is not split in lines ({@link #STREAM_MODE}).
+     * Every byte read is also counted, so the server charges its limits with the bytes a client actually sent
+     */
+    public static final class LineLimitInputStream extends FilterInputStream {
+        /**
+         * The longest line taken, in bytes
+         */
+        private final long maxLineBytes;
+        /**
+         * The bytes read since the last '\n'
+         */
+        private long lineBytes;
+        /**
+         * The bytes read since they were last taken
+         */
+        private long bytesRead;
+        /**
+         * False once the check is turned off
+         */
+        private boolean enabled = true;
+
+        /**
+         * Wraps a stream
+         *
+         * @param in           The stream from the client
+         * @param maxLineBytes The longest line taken, in bytes
+         */
+        public LineLimitInputStream(InputStream in, long maxLineBytes) {
+            super(in);
+            this.maxLineBytes = maxLineBytes;
+        }
+
+        /**
+         * Turns the check off, for the rest of the stream
+         */
+        public void disable() {
+            enabled = false;
+        }
+
+        /**
+         * Takes how many bytes were read through this stream since the previous call, including the ones a reader
+         * buffered ahead, so every byte is taken once
+         *
+         * @return the number of bytes read
+         */
+        public long takeBytesRead() {
+            long bytes = bytesRead;
+            bytesRead = 0;
+            return bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            if (b >= 0 && enabled) {
+                lineBytes = b == '\n' ? 0 : lineBytes + 1;
+                checkLine();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            if (read > 0 && enabled) {
+                int end = offset + read;
+                int lastLineBreak = end - 1;
+                while (lastLineBreak >= offset && buffer[lastLineBreak] != '\n') {
+                    lastLineBreak--;
+                }
+                lineBytes = lastLineBreak < offset ? lineBytes + read : end - 1 - lastLineBreak;
+                checkLine();
+            }
+            return read;
+        }
+
+        /**
+         * @throws LineTooLongException if the current line is longer than the limit
+         */
+        private void checkLine() throws LineTooLongException {
+            if (lineBytes > maxLineBytes) {
+                throw new LineTooLongException(maxLineBytes);
+            }
+        }
+    }
+}
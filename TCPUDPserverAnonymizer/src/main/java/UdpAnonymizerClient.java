@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link AnonymizerClient} over the windowed UDP protocol ({@link UdpFrame}), with one socket shared by every request.
+ * Each request is an exchange with its own message id: its request is sent by a {@link SlidingWindowSender}
+ * and its answer reassembled by a {@link SlidingWindowReceiver}, like {@link SlidingWindowSession} does for a single exchange.
+ * One thread receives every frame and hands it to the exchange of its message id; it also retransmits,
+ * every {@link #TICK} milliseconds, the chunks whose ACK timed out, the way {@link Server_java_UDP} does for its answers.
+ * <p>Answer frames of an exchange that is over (answered, or past its deadline) are acknowledged as a whole,
+ * so the server stops sending them.
+ * <p>A request the server refuses fails with a {@link ServerBusyException} if the server is busy.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class DatagramSocket" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} IETF (2017) "UDP Usage Guidelines" (RFC 8085), Section 3.1 "Congestion Control Guidelines".
+ * </ul>
+ */
+public final class UdpAnonymizerClient implements AnonymizerClient {
+    /**
+     * How long the receiving thread waits for a frame before retransmitting, in milliseconds
+     */
+    private static final int TICK = 50;
+
+    /**
+     * The socket shared by every exchange
+     */
+    private final DatagramSocket socket;
+    /**
+     * The address of the server
+     */
+    private final InetSocketAddress server;
+    /**
+     * The payload size asked for
+     */
+    private final int payloadSize;
+    /**
+     * The deadline of the requests made without one
+     */
+    private final Duration defaultDeadline;
+    /**
+     * The exchanges in flight, by message id
+     */
+    private final Map<Integer, Exchange> exchanges = new ConcurrentHashMap<>();
+    /**
+     * Set once the client is closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a client with the largest payload size, opening its socket
+     *
+     * @param server          The address of the server
+     * @param defaultDeadline The deadline of the requests made without one
+     * @throws SocketException if the socket can not be opened
+     */
+    public UdpAnonymizerClient(InetSocketAddress server, Duration defaultDeadline) throws SocketException {
+        this(server, UdpFrame.MAX_PAYLOAD_SIZE, defaultDeadline);
+    }
+
+    /**
+     * Creates a client, opening its socket
+     *
+     * @param server          The address of the server
+     * @param payloadSize     The payload size asked for, between {@link UdpFrame#MIN_PAYLOAD_SIZE} and {@link UdpFrame#MAX_PAYLOAD_SIZE}
+     * @param defaultDeadline The deadline of the requests made without one
+     * @throws SocketException if the socket can not be opened
+     */
+    public UdpAnonymizerClient(InetSocketAddress server, int payloadSize, Duration defaultDeadline) throws SocketException {
+        if (payloadSize < UdpFrame.MIN_PAYLOAD_SIZE || payloadSize > UdpFrame.MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload size must be between " + UdpFrame.MIN_PAYLOAD_SIZE + " and " + UdpFrame.MAX_PAYLOAD_SIZE);
+        }
+        this.server = server;
+        this.payloadSize = payloadSize;
+        this.defaultDeadline = defaultDeadline;
+        this.socket = new DatagramSocket();
+        this.socket.setSoTimeout(TICK);
+        Thread.ofPlatform().daemon().name("udp-anonymizer-client").start(this::receiveFrames);
+    }
+
+    @Override
+    public CompletableFuture<AnonymizationResult> anonymize(String message, String keyword) {
+        return anonymize(message, keyword, defaultDeadline);
+    }
+
+    @Override
+    public CompletableFuture<AnonymizationResult> anonymize(String message, String keyword, Duration deadline) {
+        CompletableFuture<AnonymizationResult> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IOException("Client closed"));
+            return result;
+        }
+        byte[] keywordBytes = keyword.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.allocate(Integer.BYTES + keywordBytes.length + messageBytes.length);
+        request.putInt(keywordBytes.length).put(keywordBytes).put(messageBytes);
+
+        int messageId;
+        Exchange exchange;
+        do {
+            messageId = ThreadLocalRandom.current().nextInt();
+            exchange = new Exchange(messageId, request.array(), result);
+        } while (exchanges.putIfAbsent(messageId, exchange) != null);
+        int id = messageId;
+        result.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((answer, error) -> exchanges.remove(id));
+        exchange.poll(System.currentTimeMillis());
+        return result;
+    }
+
+    /**
+     * Returns the number of requests in flight
+     *
+     * @return the number of exchanges not over yet
+     */
+    public int inFlight() {
+        return exchanges.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        socket.close();
+        for (Exchange exchange : exchanges.values()) {
+            exchange.result.completeExceptionally(new IOException("Client closed"));
+        }
+    }
+
+    /**
+     * Receives frames until the client is closed, handing each one to its exchange, and retransmits every {@link #TICK} milliseconds
+     */
+    private void receiveFrames() {
+        byte[] receiveBuffer = new byte[UdpFrame.MAX_DATAGRAM_SIZE];
+        DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        ByteBuffer frame = ByteBuffer.wrap(receiveBuffer);
+        long lastTick = System.currentTimeMillis();
+        while (!closed) {
+            try {
+                packet.setLength(receiveBuffer.length);
+                socket.receive(packet);
+                frame.clear().limit(packet.getLength());
+                if (server.equals(packet.getSocketAddress()) && UdpFrame.isValid(frame)) {
+                    onFrame(frame, receiveBuffer);
+                }
+            } catch (SocketTimeoutException e) {
+                // time to retransmit
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Failed to receive: " + e.getMessage());
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastTick >= TICK) {
+                lastTick = now;
+                for (Exchange exchange : exchanges.values()) {
+                    exchange.poll(now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a frame to the exchange of its message id, or acknowledges the whole answer if the exchange is over
+     *
+     * @param frame         The frame
+     * @param receiveBuffer The buffer behind the frame
+     * @throws IOException in case of an error with the socket
+     */
+    private void onFrame(ByteBuffer frame, byte[] receiveBuffer) throws IOException {
+        int messageId = UdpFrame.messageId(frame);
+        Exchange exchange = exchanges.get(messageId);
+        if (exchange != null) {
+            exchange.onFrame(frame, receiveBuffer);
+        } else if (UdpFrame.type(frame) == UdpFrame.DATA && UdpFrame.flags(frame) == UdpFrame.FLAG_RESPONSE) {
+            int total = UdpFrame.total(frame);
+            send(UdpFrame.ack(messageId, UdpFrame.FLAG_RESPONSE, total, total, payloadSize, 0));
+        }
+    }
+
+    /**
+     * Sends a frame to the server
+     *
+     * @param data The encoded frame
+     * @throws IOException in case of an error with the socket
+     */
+    private void send(byte[] data) throws IOException {
+        socket.send(new DatagramPacket(data, data.length, server));
+    }
+
+    /**
+     * Sends a frame to the server
+     *
+     * @param frame The encoded frame, between position and limit of a heap buffer
+     * @throws IOException in case of an error with the socket
+     */
+    private void send(ByteBuffer frame) throws IOException {
+        socket.send(new DatagramPacket(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), server));
+    }
+
+    /**
+     * One request and its answer
+     */
+    private final class Exchange {
+        /**
+         * The message id of the exchange
+         */
+        private final int messageId;
+        /**
+         * Sends the request
+         */
+        private final SlidingWindowSender sender;
+        /**
+         * The future of the request
+         */
+        private final CompletableFuture<AnonymizationResult> result;
+        /**
+         * Reassembles the answer, null until its first frame arrives
+         */
+        private SlidingWindowReceiver answer;
+
+        /**
+         * @param messageId The message id of the exchange
+         * @param request   The encoded request
+         * @param result    The future of the request
+         */
+        private Exchange(int messageId, byte[] request, CompletableFuture<AnonymizationResult> result) {
+            this.messageId = messageId;
+            this.sender = new SlidingWindowSender(messageId, (byte) 0, request, payloadSize, SlidingWindowSession.WINDOW_SIZE);
+            this.result = result;
+        }
+
+        /**
+         * Sends the chunks of the request that are due, failing the request if the server stopped acknowledging
+         *
+         * @param now The current time in milliseconds
+         */
+        private synchronized void poll(long now) {
+            if (sender.isComplete() || result.isDone()) {
+                return;
+            }
+            try {
+                sender.poll(now, UdpAnonymizerClient.this::send);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Handles a frame of the exchange: ACKs move the window of the request, answer frames are stored and acknowledged
+         *
+         * @param frame         The frame
+         * @param receiveBuffer The buffer behind the frame
+         * @throws IOException in case of an error with the socket
+         */
+        private synchronized void onFrame(ByteBuffer frame, byte[] receiveBuffer) throws IOException {
+            if (UdpFrame.type(frame) == UdpFrame.ACK) {
+                if (UdpFrame.flags(frame) == 0) {
+                    long now = System.currentTimeMillis();
+                    sender.onAck(UdpFrame.seq(frame), UdpFrame.sack(frame), now);
+                    poll(now);
+                }
+                return;
+            }
+            if (UdpFrame.type(frame) != UdpFrame.DATA) {
+                IOException rejection = UdpFrame.rejection(frame);
+                if (rejection != null) {
+                    sender.markComplete();
+                    result.completeExceptionally(rejection);
+                }
+                return;
+            }
+            if (UdpFrame.flags(frame) != UdpFrame.FLAG_RESPONSE) {
+                return;
+            }
+            sender.markComplete();
+            int total = UdpFrame.total(frame);
+            if (answer == null) {
+                answer = new SlidingWindowReceiver(messageId, UdpFrame.FLAG_RESPONSE, total, payloadSize);
+            } else if (total != answer.total()) {
+                return;
+            }
+            answer.onData(UdpFrame.seq(frame), receiveBuffer, UdpFrame.payloadOffset(frame), UdpFrame.payloadLength(frame));
+            send(answer.ackFrame());
+            if (answer.isComplete()) {
+                ByteBuffer decoded = ByteBuffer.wrap(answer.assemble());
+                if (decoded.remaining() < Integer.BYTES) {
+                    result.completeExceptionally(new IOException("Did not receive a valid answer from " + server));
+                    return;
+                }
+                int count = decoded.getInt();
+                String anonymized = new String(decoded.array(), decoded.position(), decoded.remaining(), StandardCharsets.UTF_8);
+                result.complete(new AnonymizationResult(anonymized, count));
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * The UDP socket of the server and the clients, read into ByteBuffers: a non-blocking {@link DatagramChannel}
+ * waited on with a {@link Selector}, so a receive times out like one on a DatagramSocket with SO_TIMEOUT does.
+ * Datagrams are received straight into the buffer given, usually a direct buffer from the channel's {@link DatagramBufferPool};
+ * the channel also keeps the address of the last sender and gives it back while the sender does not change,
+ * so receiving from the same peer allocates nothing, where a DatagramSocket fills a DatagramPacket and the legacy protocol
+ * then decoded a String to read every number.
+ * The static methods read the numbers and the "ACK"s of the legacy protocol from a buffer without decoding a String.
+ * Sending may be done from any thread, receiving from a single one.
+ * Several channels may be bound to the same port with SO_REUSEPORT, where the OS supports it, so several threads
+ * each read their own socket; the kernel hands all the datagrams of a peer to the same one.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class DatagramChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class Selector" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[3]{@code @source} M. Kerrisk (2013) "The SO_REUSEPORT socket option" [Article]. LWN.net.
+ * </ul>
+ */
+public final class UdpChannel implements DatagramSource, Closeable {
+    /**
+     * The channel, in non-blocking mode
+     */
+    private final DatagramChannel channel;
+    /**
+     * Waits for the channel to be readable
+     */
+    private final Selector selector;
+    /**
+     * The buffers datagrams are received into
+     */
+    private final DatagramBufferPool buffers = new DatagramBufferPool(DatagramBufferPool.DEFAULT_CAPACITY);
+
+    /**
+     * Wraps a channel, which is switched to non-blocking mode
+     *
+     * @param channel The channel
+     * @throws IOException if the channel can not be registered with a selector
+     */
+    public UdpChannel(DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Opens a channel bound to an ephemeral port, for a client
+     *
+     * @return the channel
+     * @throws IOException if the channel can not be opened
+     */
+    public static UdpChannel open() throws IOException {
+        return new UdpChannel(DatagramChannel.open());
+    }
+
+    /**
+     * Opens a channel bound to a port, for a server
+     *
+     * @param port The port number
+     * @return the channel
+     * @throws IOException if the channel can not be opened or the port is in use
+     */
+    public static UdpChannel bind(int port) throws IOException {
+        return bind(port, false);
+    }
+
+    /**
+     * Opens a channel bound to a port, for a server, optionally sharing the port with other channels
+     *
+     * @param port      The port number
+     * @param reusePort Whether to set SO_REUSEPORT, so other channels with it set can be bound to the same port
+     * @return the channel
+     * @throws IOException                   if the channel can not be opened or the port is in use
+     * @throws UnsupportedOperationException if SO_REUSEPORT is asked for and the OS does not support it
+     */
+    public static UdpChannel bind(int port, boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port));
+            return new UdpChannel(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether channels can share a port with SO_REUSEPORT
+     *
+     * @return true if the OS supports SO_REUSEPORT for datagram sockets
+     */
+    public static boolean supportsReusePort() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the pool of the buffers datagrams are received into
+     *
+     * @return the pool
+     */
+    public DatagramBufferPool buffers() {
+        return buffers;
+    }
+
+    /**
+     * Receives a datagram, waiting for it for at most the given time
+     *
+     * @param buffer  The buffer the datagram is received into; it is cleared first, and a datagram longer than it is truncated
+     * @param timeout How long to wait in milliseconds
+     * @return the address of the sender, the datagram being between position and limit of the buffer
+     * @throws SocketTimeoutException if no datagram arrived in time
+     * @throws IOException            in case of an error with the channel
+     */
+    @Override
+    public SocketAddress receive(ByteBuffer buffer, int timeout) throws IOException {
+        buffer.clear();
+        SocketAddress sender = channel.receive(buffer);
+        if (sender == null) {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while ((sender = channel.receive(buffer)) == null) {
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Receive timed out");
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        buffer.flip();
+        return sender;
+    }
+
+    /**
+     * Sends a datagram
+     *
+     * @param datagram The datagram, between position and limit (the position is moved to the limit)
+     * @param target   The address it is sent to
+     * @return the number of bytes sent
+     * @throws IOException in case of an error with the channel
+     */
+    public int send(ByteBuffer datagram, SocketAddress target) throws IOException {
+        return channel.send(datagram, target);
+    }
+
+    /**
+     * Sends a datagram
+     *
+     * @param datagram The datagram
+     * @param target   The address it is sent to
+     * @return the number of bytes sent
+     * @throws IOException in case of an error with the channel
+     */
+    public int send(byte[] datagram, SocketAddress target) throws IOException {
+        return channel.send(ByteBuffer.wrap(datagram), target);
+    }
+
+    /**
+     * Checks whether the channel is still open
+     *
+     * @return true until the channel is closed
+     */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Closes the channel and its selector
+     *
+     * @throws IOException if the channel fails to close
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads a number of the legacy protocol from a datagram, like {@code Integer.parseInt(new String(datagram).trim())}
+     * but without decoding a String: leading and trailing bytes up to the space are skipped, an optional sign and decimal digits follow
+     *
+     * @param datagram The datagram, between position and limit (which are not moved)
+     * @return the number
+     * @throws NumberFormatException if the datagram does not hold a number that fits an int
+     */
+    public static int parseInt(ByteBuffer datagram) {
+        int start = datagram.position();
+        int end = datagram.limit();
+        while (start < end && (datagram.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (datagram.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        boolean negative = start < end && datagram.get(start) == '-';
+        int digits = start < end && (negative || datagram.get(start) == '+') ? start + 1 : start;
+        if (digits == end) {
+            throw invalidNumber(datagram);
+        }
+        long value = 0;
+        for (int i = digits; i < end; i++) {
+            int digit = datagram.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalidNumber(datagram);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalidNumber(datagram);
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw invalidNumber(datagram);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Checks whether a datagram holds exactly an ASCII text, like {@code text.equals(new String(datagram))} but without decoding a String
+     *
+     * @param datagram   The datagram, between position and limit (which are not moved)
+     * @param text       The text, ASCII only
+     * @param ignoreCase Whether upper and lower case letters are the same
+     * @return true if the datagram holds the text
+     */
+    public static boolean equalsAscii(ByteBuffer datagram, String text, boolean ignoreCase) {
+        if (datagram.remaining() != text.length()) {
+            return false;
+        }
+        int start = datagram.position();
+        for (int i = 0; i < text.length(); i++) {
+            char expected = text.charAt(i);
+            char actual = (char) (datagram.get(start + i) & 0xFF);
+            if (actual != expected && !(ignoreCase && Character.toUpperCase(actual) == Character.toUpperCase(expected))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the exception for a datagram not holding a number, only then is the datagram decoded
+     *
+     * @param datagram The datagram, between position and limit
+     * @return the exception
+     */
+    private static NumberFormatException invalidNumber(ByteBuffer datagram) {
+        byte[] bytes = new byte[datagram.remaining()];
+        datagram.get(datagram.position(), bytes);
+        return new NumberFormatException("For input string: \"" + new String(bytes).trim() + "\"");
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads a single {@link UdpChannel} and hands every datagram to one of several receivers, for when the OS can not
+ * bind several sockets to the same port (no SO_REUSEPORT). The receiver is chosen from a hash of the sender's address,
+ * so all the datagrams of a peer, and so of a session, go to the same receiver and are handled in order by one thread.
+ * The dispatcher only copies each datagram into the {@link Inbox} of its receiver, a bounded ring of preallocated
+ * direct buffers: parsing, sessions, anonymizing and sending happen on the receivers, which send through the shared channel.
+ * A datagram for a full inbox is dropped, like one for a full socket buffer, and counted in {@link #dropped()};
+ * the protocols send it again.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class DatagramChannel" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} M. Kerrisk (2013) "The SO_REUSEPORT socket option" [Article]. LWN.net.
+ * </ul>
+ */
+public final class UdpDispatcher implements Runnable {
+    /**
+     * How many datagrams an inbox holds by default, enough for several windows of several clients
+     */
+    public static final int DEFAULT_INBOX_CAPACITY = 256;
+    /**
+     * How long a receive of the dispatcher waits before checking whether the channel was closed, in milliseconds
+     */
+    private static final int TIMEOUT = 1000;
+
+    /**
+     * The channel shared by the receivers
+     */
+    private final UdpChannel channel;
+    /**
+     * The inbox of every receiver
+     */
+    private final Inbox[] inboxes;
+    /**
+     * Datagrams dropped because the inbox of their receiver was full
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a dispatcher for a channel, nothing is read until {@link #run()}
+     *
+     * @param channel       The channel, only read by the dispatcher from now on
+     * @param receivers     The number of receivers
+     * @param inboxCapacity How many datagrams the inbox of each receiver holds
+     */
+    public UdpDispatcher(UdpChannel channel, int receivers, int inboxCapacity) {
+        if (receivers < 1) {
+            throw new IllegalArgumentException("Number of receivers must be at least 1");
+        }
+        if (inboxCapacity < 1) {
+            throw new IllegalArgumentException("Inbox capacity must be at least 1");
+        }
+        this.channel = channel;
+        this.inboxes = new Inbox[receivers];
+        for (int i = 0; i < receivers; i++) {
+            inboxes[i] = new Inbox(inboxCapacity);
+        }
+    }
+
+    /**
+     * Returns the inbox a receiver takes its datagrams from
+     *
+     * @param receiver The index of the receiver
+     * @return its inbox
+     */
+    public DatagramSource inbox(int receiver) {
+        return inboxes[receiver];
+    }
+
+    /**
+     * Returns the number of datagrams dropped because the inbox of their receiver was full
+     *
+     * @return the number of datagrams dropped
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Chooses the receiver of the datagrams of a peer, always the same one for the same address
+     *
+     * @param sender    The address of the peer
+     * @param receivers The number of receivers
+     * @return the index of the receiver
+     */
+    static int route(SocketAddress sender, int receivers) {
+        int hash = sender.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), receivers);
+    }
+
+    /**
+     * Reads the channel and hands the datagrams to the inboxes, until the channel is closed
+     */
+    @Override
+    public void run() {
+        ByteBuffer buffer = channel.buffers().acquire();
+        while (channel.isOpen()) {
+            try {
+                SocketAddress sender = channel.receive(buffer, TIMEOUT);
+                if (!inboxes[route(sender, inboxes.length)].offer(buffer, sender)) {
+                    dropped.increment();
+                }
+            } catch (SocketTimeoutException e) {
+                // nothing received, check the channel again
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Dispatcher error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The datagrams waiting for one receiver, in the order they were received: a ring of direct buffers allocated once,
+     * filled by the dispatcher and emptied by the receiver, which waits on it like on a socket
+     */
+    private static final class Inbox implements DatagramSource {
+        /**
+         * The datagrams, each between position 0 and its limit
+         */
+        private final ByteBuffer[] slots;
+        /**
+         * The sender of every datagram
+         */
+        private final SocketAddress[] senders;
+        /**
+         * The slot of the oldest datagram
+         */
+        private int head;
+        /**
+         * The number of datagrams waiting
+         */
+        private int count;
+
+        /**
+         * Creates an inbox, allocating all its buffers
+         *
+         * @param capacity How many datagrams it holds
+         */
+        private Inbox(int capacity) {
+            slots = new ByteBuffer[capacity];
+            senders = new SocketAddress[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = ByteBuffer.allocateDirect(DatagramBufferPool.BUFFER_SIZE);
+            }
+        }
+
+        /**
+         * Copies a datagram into the inbox and wakes the receiver up
+         *
+         * @param datagram The datagram, between position and limit (which are not moved)
+         * @param sender   The address of its sender
+         * @return false if the inbox is full and the datagram was dropped
+         */
+        private synchronized boolean offer(ByteBuffer datagram, SocketAddress sender) {
+            if (count == slots.length) {
+                return false;
+            }
+            int tail = (head + count) % slots.length;
+            ByteBuffer slot = slots[tail].clear();
+            slot.put(0, datagram, datagram.position(), datagram.remaining()).limit(datagram.remaining());
+            senders[tail] = sender;
+            if (count++ == 0) {
+                notify();
+            }
+            return true;
+        }
+
+        /**
+         * Receives the oldest datagram, waiting for one for at most the given time
+         *
+         * @param buffer  The buffer the datagram is copied into; it is cleared first, and a datagram longer than it is truncated
+         * @param timeout How long to wait in milliseconds
+         * @return the address of the sender, the datagram being between position and limit of the buffer
+         * @throws SocketTimeoutException if no datagram arrived in time
+         * @throws IOException            if the receiver was interrupted while waiting
+         */
+        @Override
+        public synchronized SocketAddress receive(ByteBuffer buffer, int timeout) throws IOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (count == 0) {
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Receive timed out");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while receiving", e);
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            ByteBuffer slot = slots[head];
+            SocketAddress sender = senders[head];
+            senders[head] = null;
+            head = (head + 1) % slots.length;
+            count--;
+            buffer.clear();
+            int length = Math.min(slot.limit(), buffer.remaining());
+            buffer.put(0, slot, 0, length).limit(length);
+            return sender;
+        }
+    }
+}
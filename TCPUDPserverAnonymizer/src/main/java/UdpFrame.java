@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the datagrams of the windowed UDP protocol.
+ * Every frame carries a fixed binary header followed by its payload, in the same datagram,
+ * so a chunk costs one datagram instead of an ASCII length datagram plus a data datagram.
+ * The first byte is a magic value that can never be the first byte of the legacy protocol
+ * (which always starts with an ASCII digit).
+ * <pre>
+ *  offset  size  field
+ *       0     1  magic
+ *       1     1  version
+ *       2     1  type (DATA, ACK, BUSY or TOO_LARGE)
+ *       3     1  flags (RESPONSE: the frame belongs to the server's answer)
+ *       4     4  message id, chosen by the client and echoed in the answer
+ *       8     4  sequence number (ACK: cumulative ack, every chunk below it was received)
+ *      12     4  total number of chunks of the transfer
+ *      16     2  payload length
+ *      18     2  payload size the sender of the frame wants its peer to use (at most {@link #MAX_PAYLOAD_SIZE})
+ *      20     n  payload (ACK: selective ack bitmap, bit i set means chunk cumulative + 1 + i was received;
+ *                BUSY: how long to wait before trying again in milliseconds; TOO_LARGE: the largest message taken in bytes)
+ * </pre>
+ * Multi-byte fields are big-endian.
+ * The server answers the frames of a request it can not take ({@link AdmissionControl}) with a BUSY or TOO_LARGE frame
+ * with the RESPONSE flag, instead of ACKs, and does not keep any of its chunks.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class ByteBuffer" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} IETF (1996) "TCP Selective Acknowledgment Options" (RFC 2018).
+ * <li>[3]{@code @source} IETF (2017) "UDP Usage Guidelines" (RFC 8085), Section 3.2 "Message Size Guidelines".
+ * </ul>
+ */
+public final class UdpFrame {
+    /**
+     * The first byte of every frame
+     */
+    public static final byte MAGIC = (byte) 0xA5;
+    /**
+     * The version of the frame format
+     */
+    public static final byte VERSION = 1;
+    /**
+     * Frame type carrying a chunk of data
+     */
+    public static final byte DATA = 1;
+    /**
+     * Frame type acknowledging chunks of data
+     */
+    public static final byte ACK = 2;
+    /**
+     * Frame type refusing a request because the server is busy
+     */
+    public static final byte BUSY = 3;
+    /**
+     * Frame type refusing a request because its message is too large
+     */
+    public static final byte TOO_LARGE = 4;
+    /**
+     * Flag set on the frames of the server's answer (and on the ACKs for them)
+     */
+    public static final byte FLAG_RESPONSE = 0x01;
+    /**
+     * The size of the header of every frame
+     */
+    public static final int HEADER_SIZE = 20;
+    /**
+     * The largest payload a frame may carry, keeps datagrams below the MTU of common paths
+     */
+    public static final int MAX_PAYLOAD_SIZE = 1400;
+    /**
+     * The smallest payload size an endpoint may ask for
+     */
+    public static final int MIN_PAYLOAD_SIZE = 64;
+    /**
+     * The largest datagram of the protocol
+     */
+    public static final int MAX_DATAGRAM_SIZE = HEADER_SIZE + MAX_PAYLOAD_SIZE;
+    /**
+     * The size of the payload of an ACK frame (the selective ack bitmap), and of a BUSY or TOO_LARGE frame
+     */
+    private static final int ACK_PAYLOAD_SIZE = Long.BYTES;
+    /**
+     * The size of an ACK frame
+     */
+    public static final int ACK_FRAME_SIZE = HEADER_SIZE + ACK_PAYLOAD_SIZE;
+
+    /**
+     * Not meant to be instantiated
+     */
+    private UdpFrame() {
+    }
+
+    /**
+     * Checks whether a datagram is a well formed frame of this protocol
+     *
+     * @param frame The datagram, between position and limit
+     * @return true if the header is valid and the whole payload is present
+     */
+    public static boolean isValid(ByteBuffer frame) {
+        int start = frame.position();
+        if (frame.remaining() < HEADER_SIZE || frame.get(start) != MAGIC || frame.get(start + 1) != VERSION) {
+            return false;
+        }
+        int payloadLength = payloadLength(frame);
+        if (payloadLength > MAX_PAYLOAD_SIZE || HEADER_SIZE + payloadLength > frame.remaining() || total(frame) < 1) {
+            return false;
+        }
+        byte type = type(frame);
+        return type == DATA || ((type == ACK || type == BUSY || type == TOO_LARGE) && payloadLength == ACK_PAYLOAD_SIZE);
+    }
+
+    /**
+     * Checks whether a datagram belongs to this protocol at all, by its first byte
+     *
+     * @param datagram The datagram, between position and limit
+     * @return true if the datagram starts like a frame
+     */
+    public static boolean isFrame(ByteBuffer datagram) {
+        return datagram.hasRemaining() && datagram.get(datagram.position()) == MAGIC;
+    }
+
+    /**
+     * Builds a DATA frame
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer
+     * @param seq        The sequence number of the chunk
+     * @param total      The total number of chunks of the transfer
+     * @param maxPayload The payload size the sender wants its peer to use
+     * @param payload    The buffer holding the chunk
+     * @param offset     Where the chunk starts in the buffer
+     * @param length     The length of the chunk
+     * @return The encoded frame
+     */
+    public static byte[] data(int messageId, byte flags, int seq, int total, int maxPayload, byte[] payload, int offset, int length) {
+        return putData(ByteBuffer.allocate(HEADER_SIZE + length), messageId, flags, seq, total, maxPayload, payload, offset, length).array();
+    }
+
+    /**
+     * Writes a DATA frame into a buffer, so a buffer kept for it can be sent again and again without allocating
+     *
+     * @param frame      The buffer, with room for {@link #HEADER_SIZE} + length bytes; it is cleared first
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer
+     * @param seq        The sequence number of the chunk
+     * @param total      The total number of chunks of the transfer
+     * @param maxPayload The payload size the sender wants its peer to use
+     * @param payload    The buffer holding the chunk
+     * @param offset     Where the chunk starts in the buffer
+     * @param length     The length of the chunk
+     * @return The buffer, holding the frame between position and limit
+     */
+    public static ByteBuffer putData(ByteBuffer frame, int messageId, byte flags, int seq, int total, int maxPayload, byte[] payload, int offset, int length) {
+        frame.clear();
+        putHeader(frame, DATA, flags, messageId, seq, total, length, maxPayload);
+        return frame.put(payload, offset, length).flip();
+    }
+
+    /**
+     * Builds an ACK frame
+     *
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer being acknowledged
+     * @param cumulative The number of chunks received in order (the next expected sequence number)
+     * @param total      The total number of chunks of the transfer
+     * @param maxPayload The payload size the sender of the ACK wants its peer to use
+     * @param sack       The selective ack bitmap of the chunks received after the cumulative ack
+     * @return The encoded frame
+     */
+    public static byte[] ack(int messageId, byte flags, int cumulative, int total, int maxPayload, long sack) {
+        return putAck(ByteBuffer.allocate(ACK_FRAME_SIZE), messageId, flags, cumulative, total, maxPayload, sack).array();
+    }
+
+    /**
+     * Writes an ACK frame into a buffer, so a buffer kept for it can be sent again and again without allocating
+     *
+     * @param frame      The buffer, with room for {@link #ACK_FRAME_SIZE} bytes; it is cleared first
+     * @param messageId  The message id of the transfer
+     * @param flags      The flags of the transfer being acknowledged
+     * @param cumulative The number of chunks received in order (the next expected sequence number)
+     * @param total      The total number of chunks of the transfer
+     * @param maxPayload The payload size the sender of the ACK wants its peer to use
+     * @param sack       The selective ack bitmap of the chunks received after the cumulative ack
+     * @return The buffer, holding the frame between position and limit
+     */
+    public static ByteBuffer putAck(ByteBuffer frame, int messageId, byte flags, int cumulative, int total, int maxPayload, long sack) {
+        frame.clear();
+        putHeader(frame, ACK, flags, messageId, cumulative, total, ACK_PAYLOAD_SIZE, maxPayload);
+        return frame.putLong(sack).flip();
+    }
+
+    /**
+     * Writes a BUSY or TOO_LARGE frame into a buffer, answering a request the server does not take
+     *
+     * @param frame     The buffer, with room for {@link #ACK_FRAME_SIZE} bytes; it is cleared first
+     * @param type      {@link #BUSY} or {@link #TOO_LARGE}
+     * @param messageId The message id of the request
+     * @param value     How long to wait before trying again in milliseconds (BUSY), or the largest message taken in bytes (TOO_LARGE)
+     * @return The buffer, holding the frame between position and limit
+     */
+    public static ByteBuffer putRejection(ByteBuffer frame, byte type, int messageId, long value) {
+        frame.clear();
+        putHeader(frame, type, FLAG_RESPONSE, messageId, 0, 1, ACK_PAYLOAD_SIZE, MAX_PAYLOAD_SIZE);
+        return frame.putLong(value).flip();
+    }
+
+    /**
+     * Tells what a frame refusing a request means to the client
+     *
+     * @param frame The frame, starting at its position
+     * @return a {@link ServerBusyException} for a BUSY frame, an IOException for a TOO_LARGE frame, null for any other frame
+     */
+    public static IOException rejection(ByteBuffer frame) {
+        byte type = type(frame);
+        if ((type != BUSY && type != TOO_LARGE) || flags(frame) != FLAG_RESPONSE) {
+            return null;
+        }
+        long value = frame.getLong(frame.position() + HEADER_SIZE);
+        return type == BUSY ? new ServerBusyException(value)
+                : new IOException("Message too large for the server (at most " + value + " bytes)");
+    }
+
+    /**
+     * Writes a frame header
+     *
+     * @param frame         The buffer the header is written to
+     * @param type          The type of the frame
+     * @param flags         The flags of the frame
+     * @param messageId     The message id
+     * @param seq           The sequence number / cumulative ack
+     * @param total         The total number of chunks
+     * @param payloadLength The length of the payload that follows
+     * @param maxPayload    The payload size the sender wants its peer to use
+     */
+    private static void putHeader(ByteBuffer frame, byte type, byte flags, int messageId, int seq, int total, int payloadLength, int maxPayload) {
+        frame.put(MAGIC).put(VERSION).put(type).put(flags)
+                .putInt(messageId).putInt(seq).putInt(total)
+                .putShort((short) payloadLength).putShort((short) maxPayload);
+    }
+
+    /**
+     * Returns the type of a frame
+     *
+     * @param frame The frame, starting at its position
+     * @return {@link #DATA}, {@link #ACK}, {@link #BUSY} or {@link #TOO_LARGE}
+     */
+    public static byte type(ByteBuffer frame) {
+        return frame.get(frame.position() + 2);
+    }
+
+    /**
+     * Returns the flags of a frame
+     *
+     * @param frame The frame, starting at its position
+     * @return the flags
+     */
+    public static byte flags(ByteBuffer frame) {
+        return frame.get(frame.position() + 3);
+    }
+
+    /**
+     * Returns the message id of a frame
+     *
+     * @param frame The frame, starting at its position
+     * @return the message id
+     */
+    public static int messageId(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 4);
+    }
+
+    /**
+     * Returns the sequence number of a DATA frame, or the cumulative ack of an ACK frame
+     *
+     * @param frame The frame, starting at its position
+     * @return the sequence number / cumulative ack
+     */
+    public static int seq(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 8);
+    }
+
+    /**
+     * Returns the total number of chunks of the transfer the frame belongs to
+     *
+     * @param frame The frame, starting at its position
+     * @return the total number of chunks
+     */
+    public static int total(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 12);
+    }
+
+    /**
+     * Returns the length of the payload of a frame
+     *
+     * @param frame The frame, starting at its position
+     * @return the payload length
+     */
+    public static int payloadLength(ByteBuffer frame) {
+        return Short.toUnsignedInt(frame.getShort(frame.position() + 16));
+    }
+
+    /**
+     * Returns the payload size the sender of the frame wants its peer to use, bounded to the protocol limits
+     *
+     * @param frame The frame, starting at its position
+     * @return the payload size to use when sending to that peer
+     */
+    public static int maxPayload(ByteBuffer frame) {
+        int maxPayload = Short.toUnsignedInt(frame.getShort(frame.position() + 18));
+        return Math.max(MIN_PAYLOAD_SIZE, Math.min(MAX_PAYLOAD_SIZE, maxPayload));
+    }
+
+    /**
+     * Returns where the payload of a frame starts
+     *
+     * @param frame The frame, starting at its position
+     * @return the absolute index of the payload in the buffer
+     */
+    public static int payloadOffset(ByteBuffer frame) {
+        return frame.position() + HEADER_SIZE;
+    }
+
+    /**
+     * Returns the selective ack bitmap of an ACK frame
+     *
+     * @param frame The frame, starting at its position
+     * @return the selective ack bitmap
+     */
+    public static long sack(ByteBuffer frame) {
+        return frame.getLong(frame.position() + HEADER_SIZE);
+    }
+}
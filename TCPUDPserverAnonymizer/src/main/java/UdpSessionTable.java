@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The in-flight exchanges of the windowed UDP protocol, keyed by the address of the client and the message id,
+ * so a single socket can reassemble and answer many clients at the same time without mixing their chunks.
+ * Sessions that see no traffic for longer than the idle timeout are evicted, and the pooled buffers holding
+ * the chunks of a request that was never completed go back to their pool.
+ * When a session ends, the chunks its answer sent again are counted in the server's {@link ServerMetrics},
+ * and so is the client if it stopped acknowledging, and the admission of its request goes back to the {@link AdmissionControl}.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class ConcurrentHashMap" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class InetSocketAddress" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class UdpSessionTable {
+    /**
+     * Identifies an exchange: who sent it and the message id the client chose
+     *
+     * @param peer      The address of the client
+     * @param messageId The message id of the exchange
+     */
+    public record Key(InetSocketAddress peer, int messageId) {
+        @Override
+        public int hashCode() {
+            return hash(peer, messageId);
+        }
+
+        /**
+         * The hash of a key, shared with {@link Lookup}
+         *
+         * @param peer      The address of the client
+         * @param messageId The message id of the exchange
+         * @return the hash
+         */
+        private static int hash(InetSocketAddress peer, int messageId) {
+            return 31 * peer.hashCode() + messageId;
+        }
+    }
+
+    /**
+     * A reusable key to look sessions up with, so the thread reading the socket finds the session of every datagram
+     * without allocating a {@link Key}: it equals the Key of the same client and message id and has the same hash.
+     * A lookup is meant for a single thread, and only as the argument of {@link #get(Lookup)}
+     */
+    public static final class Lookup {
+        /**
+         * The address of the client
+         */
+        private InetSocketAddress peer;
+        /**
+         * The message id of the exchange
+         */
+        private int messageId;
+
+        /**
+         * Points the lookup at an exchange
+         *
+         * @param peer      The address of the client
+         * @param messageId The message id of the exchange
+         * @return this lookup
+         */
+        public Lookup set(InetSocketAddress peer, int messageId) {
+            this.peer = peer;
+            this.messageId = messageId;
+            return this;
+        }
+
+        /**
+         * Builds the key of the exchange the lookup points at, to open a session with
+         *
+         * @return the key
+         */
+        public Key toKey() {
+            return new Key(peer, messageId);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.messageId() == messageId && key.peer().equals(peer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Key.hash(peer, messageId);
+        }
+    }
+
+    /**
+     * One exchange: the request being reassembled and, once it is complete, the answer being sent.
+     * The receiver is filled by the thread reading the socket, which also releases it when the session is removed,
+     * but the complete request is assembled by the worker that computes the answer: assembling and releasing are
+     * synchronized, and the worker may find the chunks already released by an eviction.
+     * The sender may also be started by that worker, so sender operations are synchronized.
+     */
+    public static final class Session {
+        /**
+         * The key of the session in the table
+         */
+        private final Key key;
+        /**
+         * Reassembles the request
+         */
+        private final SlidingWindowReceiver receiver;
+        /**
+         * Sends frames to the client
+         */
+        private final SlidingWindowSender.FrameSink sink;
+        /**
+         * The payload size used for the answer, negotiated from the request
+         */
+        private final int payloadSize;
+        /**
+         * The size the request was admitted with
+         */
+        private final long admittedBytes;
+        /**
+         * Sends the answer, null until the answer is ready
+         */
+        private SlidingWindowSender sender;
+        /**
+         * When the session last saw traffic, in milliseconds
+         */
+        private volatile long lastActivity;
+        /**
+         * When the session was opened, as given by {@link System#nanoTime()}
+         */
+        private final long openedAt = System.nanoTime();
+        /**
+         * When the answer started being sent, as given by {@link System#nanoTime()}
+         */
+        private volatile long answerStartedAt;
+
+        /**
+         * Creates a session
+         *
+         * @param key           The key of the session
+         * @param receiver      Reassembles the request
+         * @param sink          Sends frames to the client
+         * @param payloadSize   The payload size used for the answer
+         * @param admittedBytes The size the request was admitted with
+         * @param now           The current time in milliseconds
+         */
+        private Session(Key key, SlidingWindowReceiver receiver, SlidingWindowSender.FrameSink sink, int payloadSize, long admittedBytes, long now) {
+            this.key = key;
+            this.receiver = receiver;
+            this.sink = sink;
+            this.payloadSize = payloadSize;
+            this.admittedBytes = admittedBytes;
+            this.lastActivity = now;
+        }
+
+        /**
+         * Returns the key of the session
+         *
+         * @return the key
+         */
+        public Key key() {
+            return key;
+        }
+
+        /**
+         * Returns the receiver reassembling the request
+         *
+         * @return the receiver
+         */
+        public SlidingWindowReceiver receiver() {
+            return receiver;
+        }
+
+        /**
+         * Returns where frames to the client are sent
+         *
+         * @return the sink
+         */
+        public SlidingWindowSender.FrameSink sink() {
+            return sink;
+        }
+
+        /**
+         * Returns the payload size used for the answer
+         *
+         * @return the payload size
+         */
+        public int payloadSize() {
+            return payloadSize;
+        }
+
+        /**
+         * Returns the size the request was admitted with
+         *
+         * @return the size in bytes
+         */
+        public long admittedBytes() {
+            return admittedBytes;
+        }
+
+        /**
+         * Returns when the session was opened, with the first frame of the request
+         *
+         * @return the instant, as given by {@link System#nanoTime()}
+         */
+        public long openedAt() {
+            return openedAt;
+        }
+
+        /**
+         * Returns when the answer started being sent
+         *
+         * @return the instant, as given by {@link System#nanoTime()}, 0 if the answer is not ready yet
+         */
+        public long answerStartedAt() {
+            return answerStartedAt;
+        }
+
+        /**
+         * Returns how many chunks of the answer were sent again
+         *
+         * @return the number of retransmissions
+         */
+        public synchronized int retransmissions() {
+            return sender == null ? 0 : sender.retransmissions();
+        }
+
+        /**
+         * Records traffic on the session
+         *
+         * @param now The current time in milliseconds
+         */
+        public void touch(long now) {
+            lastActivity = now;
+        }
+
+        /**
+         * Starts sending the answer
+         *
+         * @param answer The sender of the answer
+         * @param now    The current time in milliseconds
+         * @throws IOException in case of an error with the socket
+         */
+        public synchronized void startAnswer(SlidingWindowSender answer, long now) throws IOException {
+            sender = answer;
+            lastActivity = now;
+            answerStartedAt = System.nanoTime();
+            sender.poll(now, sink);
+        }
+
+        /**
+         * Processes an ACK for the answer and sends whatever now fits in the window
+         *
+         * @param cumulative The cumulative ack
+         * @param sack       The selective ack bitmap
+         * @param now        The current time in milliseconds
+         * @return true if the whole answer was acknowledged
+         * @throws IOException in case of an error with the socket
+         */
+        public synchronized boolean onAck(int cumulative, long sack, long now) throws IOException {
+            if (sender == null) {
+                return false;
+            }
+            sender.onAck(cumulative, sack, now);
+            if (sender.isComplete()) {
+                return true;
+            }
+            sender.poll(now, sink);
+            return false;
+        }
+
+        /**
+         * Sends again the chunks of the answer whose ACK timed out
+         *
+         * @param now The current time in milliseconds
+         * @throws java.net.SocketTimeoutException if the client stopped acknowledging
+         * @throws IOException                     in case of an error with the socket
+         */
+        public synchronized void retransmit(long now) throws IOException {
+            if (sender != null && !sender.isComplete()) {
+                sender.poll(now, sink);
+            }
+        }
+    }
+
+    /**
+     * How long a session may go without traffic before it is evicted, in milliseconds
+     */
+    private final long idleTimeout;
+    /**
+     * The sessions, by key
+     */
+    private final Map<Key, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * Counts the retransmissions and the clients that stopped acknowledging
+     */
+    private final ServerMetrics metrics;
+    /**
+     * Admitted the requests of the sessions, given back when they end
+     */
+    private final AdmissionControl admission;
+
+    /**
+     * Creates an empty table
+     *
+     * @param idleTimeout How long a session may go without traffic before it is evicted, in milliseconds
+     * @param metrics     Counts the retransmissions and the clients that stopped acknowledging
+     * @param admission   Admitted the requests of the sessions, given back when they end
+     */
+    public UdpSessionTable(long idleTimeout, ServerMetrics metrics, AdmissionControl admission) {
+        this.idleTimeout = idleTimeout;
+        this.metrics = metrics;
+        this.admission = admission;
+    }
+
+    /**
+     * Returns the session of an exchange
+     *
+     * @param key The key of the exchange
+     * @return the session, or null if there is none
+     */
+    public Session get(Key key) {
+        return sessions.get(key);
+    }
+
+    /**
+     * Returns the session of an exchange, without allocating a key
+     *
+     * @param lookup The client and message id of the exchange
+     * @return the session, or null if there is none
+     */
+    public Session get(Lookup lookup) {
+        return sessions.get(lookup);
+    }
+
+    /**
+     * Opens a session for a new exchange, whose request was admitted by the {@link AdmissionControl} of the table
+     *
+     * @param key           The key of the exchange
+     * @param receiver      Reassembles the request
+     * @param sink          Sends frames to the client
+     * @param payloadSize   The payload size used for the answer
+     * @param admittedBytes The size the request was admitted with, given back when the session ends
+     * @param now           The current time in milliseconds
+     * @return the new session
+     */
+    public Session open(Key key, SlidingWindowReceiver receiver, SlidingWindowSender.FrameSink sink, int payloadSize, long admittedBytes, long now) {
+        Session session = new Session(key, receiver, sink, payloadSize, admittedBytes, now);
+        sessions.put(key, session);
+        return session;
+    }
+
+    /**
+     * Removes a session, once its exchange is over
+     *
+     * @param key The key of the exchange
+     */
+    public void remove(Key key) {
+        Session session = sessions.remove(key);
+        if (session != null) {
+            end(session);
+        }
+    }
+
+    /**
+     * Ends a session removed from the table: gives back its buffers and the admission of its request,
+     * and counts the chunks its answer sent again
+     *
+     * @param session The session
+     */
+    private void end(Session session) {
+        session.receiver().release();
+        admission.release(session.key().peer().getAddress(), session.admittedBytes);
+        metrics.retransmitted(session.retransmissions());
+    }
+
+    /**
+     * Returns the number of sessions in the table
+     *
+     * @return the number of sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Evicts the idle sessions and retransmits the timed out chunks of the others.
+     * A session whose client stopped acknowledging is evicted too
+     *
+     * @param now The current time in milliseconds
+     * @return the number of sessions evicted
+     */
+    public int expire(long now) {
+        int evicted = 0;
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            try {
+                if (now - session.lastActivity > idleTimeout) {
+                    iterator.remove();
+                    end(session);
+                    evicted++;
+                } else {
+                    session.retransmit(now);
+                }
+            } catch (IOException e) {
+                System.out.println("Giving up on " + session.key().peer() + ": " + e.getMessage());
+                iterator.remove();
+                end(session);
+                if (e instanceof SocketTimeoutException) {
+                    metrics.ackTimedOut();
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+}
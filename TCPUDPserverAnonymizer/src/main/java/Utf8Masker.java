@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Anonymizes UTF-8 text in place in a ByteBuffer: the bytes are decoded into a reused CharBuffer,
+ * masked there, and encoded back over the original bytes. A masked character becomes a single 'X' byte,
+ * so the text can only shrink and always fits where it was; the limit of the buffer is moved to its new end.
+ * The result is the same as decoding the bytes into a String, anonymizing it and encoding it again,
+ * without any of those copies.
+ * <p>Instances hold a decoder, an encoder and the character buffer, they are not thread-safe:
+ * {@link #acquire()} and {@link #release(Utf8Masker)} share them through a pool,
+ * so threads that come and go (like virtual threads) reuse them too.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} Oracle (2023) "Class CharsetDecoder" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * <li>[2]{@code @source} Oracle (2023) "Class CharsetEncoder" (N/A) [Official Documentation]. Java Platform Standard Edition 21 Documentation.
+ * </ul>
+ */
+public final class Utf8Masker {
+    /**
+     * The initial size of the character buffer
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Character buffers larger than this are dropped instead of being kept in the pool
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    /**
+     * The maskers not in use
+     */
+    private static final Queue<Utf8Masker> POOL = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Decodes the text, reporting malformed input instead of replacing it (a replacement could be longer than the bytes it replaces)
+     */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    /**
+     * Encodes the masked text, a surrogate left alone by the masking becomes '?' like in {@link String#getBytes}
+     */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    /**
+     * The decoded text
+     */
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Takes a masker from the pool, or creates one if the pool is empty
+     *
+     * @return a masker, to be given back with {@link #release(Utf8Masker)}
+     */
+    public static Utf8Masker acquire() {
+        Utf8Masker masker = POOL.poll();
+        return masker != null ? masker : new Utf8Masker();
+    }
+
+    /**
+     * Gives a masker back to the pool
+     *
+     * @param masker The masker, not to be used by the caller anymore
+     */
+    public static void release(Utf8Masker masker) {
+        if (masker.chars.capacity() > MAX_RETAINED_CAPACITY) {
+            masker.chars = CharBuffer.allocate(INITIAL_CAPACITY);
+        }
+        POOL.offer(masker);
+    }
+
+    /**
+     * Masks every occurrence of the keywords of a matcher in place
+     *
+     * @param matcher   The keywords
+     * @param utf8      The UTF-8 text, between its position and limit; the limit is moved to the end of the masked text
+     * @param positions Receives the start of the first occurrences, in characters from the start of the text, may be null
+     * @return the number of occurrences (may be larger than the positions array)
+     * @throws CharacterCodingException if the bytes are not valid UTF-8, the buffer is then left unchanged
+     */
+    public int anonymize(KeywordMatcher matcher, ByteBuffer utf8, int[] positions) throws CharacterCodingException {
+        int start = utf8.position();
+        if (chars.capacity() < utf8.remaining()) {
+            chars = CharBuffer.allocate(utf8.remaining());
+        }
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(utf8, chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+        utf8.position(start);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        chars.flip();
+        int count = matcher.anonymize(chars, positions);
+        if (count > 0) {
+            encoder.reset();
+            encoder.encode(chars, utf8, true);
+            encoder.flush(utf8);
+            utf8.limit(utf8.position());
+            utf8.position(start);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,252 @@
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Finds a single keyword (case-insensitive) with a SIMD candidate filter built on the Vector API:
+ * for as many start positions at once as the CPU has 16-bit lanes, the characters under the first and the last
+ * character of the keyword are folded in the lanes and compared with them, and only the positions where both
+ * match are compared in full.
+ * Folding in the lanes only knows ASCII ('A' to 'Z'), so a non-ASCII character always passes the filter and
+ * the full comparison folds it with {@link CaseFolding}: occurrences are exactly those of
+ * {@link SingleKeywordMatcher}, the filter only skips positions faster on mostly ASCII text.
+ * Vectors are loaded from arrays: a CharBuffer backed by an array is filtered straight from it, any other text
+ * (a String keeps its characters private) is copied into a char[] a block at a time, the blocks being shared through
+ * a pool ({@link #acquireBlock(int)}, like {@link Utf8Masker#acquire()}) so scanning allocates nothing.
+ * Only short keywords are worth it, {@link SingleKeywordMatcher} skips ahead further for long ones.
+ * <p>The Vector API is an incubator module, so this class is only used when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}: {@link KeywordMatcher#compile(List)} looks the module up before
+ * touching this class and falls back to {@link SingleKeywordMatcher} without it, so this class is never loaded without the module.
+ * <p>References:
+ * <ul>
+ * <li>[1]{@code @source} OpenJDK (2023) "Vector API (Sixth Incubator)" (JEP 448) [Official Documentation].
+ * <li>[2]{@code @source} W. Mula (2016) "SIMD-friendly algorithms for substring searching", Section "Generic SIMD".
+ * </ul>
+ */
+public final class VectorKeywordMatcher implements KeywordMatcher {
+    /**
+     * The name of the module of the Vector API
+     */
+    static final String MODULE = "jdk.incubator.vector";
+    /**
+     * Set to false ({@code -Danonymizer.vector=false}) to keep the scalar scan even when the module is present
+     */
+    static final String ENABLED_PROPERTY = "anonymizer.vector";
+    /**
+     * The widest vector of 16-bit lanes the CPU handles
+     */
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    /**
+     * The fewest lanes worth a vector, below that the scalar scan is as fast
+     */
+    private static final int MIN_LANES = 8;
+    /**
+     * The longest keyword worth the filter: Boyer-Moore-Horspool skips up to the length of the keyword
+     * at every step, so for longer keywords it examines fewer positions than the filter does
+     */
+    private static final int MAX_KEYWORD_LENGTH = 8;
+    /**
+     * The number of start positions filtered per block of text copied
+     */
+    private static final int BLOCK_SIZE = 4096;
+    /**
+     * The length of the blocks kept in {@link #BLOCKS}, enough for the longest keyword worth the filter
+     */
+    private static final int POOLED_BLOCK_LENGTH = BLOCK_SIZE + MAX_KEYWORD_LENGTH - 1;
+    /**
+     * The blocks not in use
+     */
+    private static final Queue<char[]> BLOCKS = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The keyword, as given
+     */
+    private final List<String> keywords;
+    /**
+     * The keyword with its case folded
+     */
+    private final char[] pattern;
+
+    /**
+     * Compiles a keyword
+     *
+     * @param keyword The keyword to be found
+     * @throws NullPointerException     if the keyword is null
+     * @throws IllegalArgumentException if the keyword is empty
+     */
+    public VectorKeywordMatcher(String keyword) {
+        if (keyword.isEmpty()) {
+            throw new IllegalArgumentException("Keywords can not be empty");
+        }
+        this.keywords = List.of(keyword);
+        this.pattern = CaseFolding.fold(keyword);
+    }
+
+    /**
+     * Checks whether the vector scan should be used for a keyword: it is not disabled, the CPU has enough lanes
+     * and the keyword is short enough. Only to be called once {@link #MODULE} is known to be present, loading this class needs it
+     *
+     * @param keywordLength The length of the keyword
+     * @return true if {@link KeywordMatcher#compile(List)} should use this matcher
+     */
+    static boolean isWorthwhile(int keywordLength) {
+        return keywordLength <= MAX_KEYWORD_LENGTH
+                && Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))
+                && SPECIES.length() >= MIN_LANES;
+    }
+
+    @Override
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    @Override
+    public int maxKeywordLength() {
+        return pattern.length;
+    }
+
+    @Override
+    public void scan(CharSequence text, int from, int to, MatchSink sink) {
+        int length = pattern.length;
+        int lastStart = to - length;
+        if (lastStart < from) {
+            return;
+        }
+        if (text instanceof CharBuffer buffer && buffer.hasArray()) {
+            scan(text, buffer.array(), buffer.arrayOffset() + buffer.position() + from, from, lastStart - from + 1, sink);
+            return;
+        }
+        char[] block = acquireBlock(Math.min(BLOCK_SIZE, lastStart - from + 1) + length - 1);
+        try {
+            for (int blockStart = from; blockStart <= lastStart; blockStart += BLOCK_SIZE) {
+                int starts = Math.min(BLOCK_SIZE, lastStart - blockStart + 1);
+                copy(text, blockStart, block, starts + length - 1);
+                scan(text, block, 0, blockStart, starts, sink);
+            }
+        } finally {
+            releaseBlock(block);
+        }
+    }
+
+    /**
+     * Finds the occurrences starting in a run of the text held by an array
+     *
+     * @param text   The text
+     * @param chars  The array holding the run, and the length of the keyword minus one characters after it
+     * @param offset Where the run starts in the array
+     * @param from   Where the run starts in the text
+     * @param starts The number of start positions of the run
+     * @param sink   Receives the occurrences
+     */
+    private void scan(CharSequence text, char[] chars, int offset, int from, int starts, MatchSink sink) {
+        int length = pattern.length;
+        short first = (short) pattern[0];
+        short last = (short) pattern[length - 1];
+        int lanes = SPECIES.length();
+        int i = 0;
+        for (; i + lanes <= starts; i += lanes) {
+            VectorMask<Short> candidates = candidates(ShortVector.fromCharArray(SPECIES, chars, offset + i), first)
+                    .and(candidates(ShortVector.fromCharArray(SPECIES, chars, offset + i + length - 1), last));
+            long bits = candidates.toLong();
+            while (bits != 0) {
+                int start = i + Long.numberOfTrailingZeros(bits);
+                if (matchesAt(text, from + start, chars, offset + start)) {
+                    sink.onMatch(0, from + start, from + start + length);
+                }
+                bits &= bits - 1;
+            }
+        }
+        for (; i < starts; i++) {
+            if (matchesAt(text, from + i, chars, offset + i)) {
+                sink.onMatch(0, from + i, from + i + length);
+            }
+        }
+    }
+
+    /**
+     * Takes a block from the pool, or creates one if the pool is empty or the block is for a keyword longer than
+     * the pooled blocks hold
+     *
+     * @param length The number of characters needed
+     * @return a block of at least that length, to be given back with {@link #releaseBlock(char[])}
+     */
+    private static char[] acquireBlock(int length) {
+        if (length > POOLED_BLOCK_LENGTH) {
+            return new char[length];
+        }
+        char[] block = BLOCKS.poll();
+        return block != null ? block : new char[POOLED_BLOCK_LENGTH];
+    }
+
+    /**
+     * Gives a block back to the pool, one of another length is dropped
+     *
+     * @param block The block, not to be used by the caller anymore
+     */
+    private static void releaseBlock(char[] block) {
+        if (block.length == POOLED_BLOCK_LENGTH) {
+            BLOCKS.offer(block);
+        }
+    }
+
+    /**
+     * Finds the lanes that may hold a character of the keyword: folded in the lane it is equal, or it is not ASCII
+     *
+     * @param chars  The characters of the text
+     * @param folded The character of the keyword, folded
+     * @return the lanes that pass the filter
+     */
+    private static VectorMask<Short> candidates(ShortVector chars, short folded) {
+        VectorMask<Short> upper = chars.compare(VectorOperators.UNSIGNED_GE, (short) 'A')
+                .and(chars.compare(VectorOperators.UNSIGNED_LE, (short) 'Z'));
+        return chars.add((short) ('a' - 'A'), upper).compare(VectorOperators.EQ, folded)
+                .or(chars.compare(VectorOperators.UNSIGNED_GE, (short) 0x80));
+    }
+
+    /**
+     * Compares the whole keyword with the text, folding every character
+     * (a low surrogate is folded from the text, the high surrogate before it may be in the previous block)
+     *
+     * @param text  The text
+     * @param start Where the keyword is aligned in the text
+     * @param chars The array holding the text there
+     * @param index Where the keyword is aligned in the array
+     * @return true if the keyword occurs there
+     */
+    private boolean matchesAt(CharSequence text, int start, char[] chars, int index) {
+        for (int i = 0; i < pattern.length; i++) {
+            char c = chars[index + i];
+            char folded = Character.isLowSurrogate(c) ? CaseFolding.fold(text, start + i) : CaseFolding.fold(c);
+            if (folded != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies characters of the text into the block, in bulk for Strings and CharBuffers
+     *
+     * @param text   The text
+     * @param from   The first character copied
+     * @param block  The block
+     * @param length The number of characters copied
+     */
+    private static void copy(CharSequence text, int from, char[] block, int length) {
+        if (text instanceof String string) {
+            string.getChars(from, from + length, block, 0);
+        } else if (text instanceof CharBuffer buffer) {
+            buffer.get(buffer.position() + from, block, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                block[i] = text.charAt(from + i);
+            }
+        }
+    }
+}